@@ -0,0 +1,108 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.benchmarks;
+
+import io.retit.opentelemetry.javaagent.extension.resources.linux.LinuxDataCollector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the byte level scanner of {@link LinuxDataCollector#getNetworkBytesReadAndWritten()} with the previous
+ * implementation, which read /proc/thread-self/net/dev using {@link Files#readAllLines(Path)} and split every line
+ * using a regular expression. The benchmarks run on the JMH thread, which is a platform thread, so the scanner keeps
+ * the net/dev file open between invocations. This benchmark only provides meaningful results on Linux.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NetworkDemandBenchmark {
+
+    private static final Path PROC_FS_THREAD_SELF_NET = FileSystems.getDefault().getPath("/proc/thread-self/net/dev");
+
+    private LinuxDataCollector linuxDataCollector;
+
+    /**
+     * Creates the data collector.
+     */
+    @Setup
+    public void setup() {
+        linuxDataCollector = new LinuxDataCollector();
+    }
+
+    /**
+     * Reads the network demand using the byte level scanner over all network interfaces.
+     *
+     * @return the received and transmitted bytes.
+     */
+    @Benchmark
+    public long[] scanner() {
+        return linuxDataCollector.getNetworkBytesReadAndWritten();
+    }
+
+    /**
+     * Reads the network demand using the byte level scanner with the loopback and virtual ethernet interfaces excluded.
+     *
+     * @return the received and transmitted bytes.
+     */
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dio.retit.network.demand.interfaces.exclude=lo,veth")
+    public long[] scannerWithExcludedInterfaces() {
+        return linuxDataCollector.getNetworkBytesReadAndWritten();
+    }
+
+    /**
+     * Reads the network demand using the previous implementation.
+     *
+     * @return the received and transmitted bytes.
+     * @throws IOException - if the net/dev file could not be read.
+     */
+    @Benchmark
+    public long[] readAllLinesAndSplit() throws IOException {
+        long totalReceivedBytes = 0;
+        long totalTransmittedBytes = 0;
+
+        List<String> fileContent = Files.readAllLines(PROC_FS_THREAD_SELF_NET, StandardCharsets.UTF_8);
+        for (String line : fileContent) {
+            String[] parts = line.trim().split("\\s+");
+            int numberOfNetworkParametersPerLine = 17;
+            if (parts.length >= numberOfNetworkParametersPerLine) {
+                totalReceivedBytes += Long.parseLong(parts[1]);
+                totalTransmittedBytes += Long.parseLong(parts[9]);
+            }
+        }
+        return new long[]{totalReceivedBytes, totalTransmittedBytes};
+    }
+}
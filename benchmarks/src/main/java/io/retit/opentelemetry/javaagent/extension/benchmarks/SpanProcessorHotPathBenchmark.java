@@ -0,0 +1,141 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.benchmarks;
+
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.retit.opentelemetry.javaagent.extension.commons.TelemetryUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost the {@link io.retit.opentelemetry.javaagent.extension.processor.RETITSpanProcessor} adds to every span,
+ * i.e., the calls to {@link TelemetryUtils#addStartResourceDemandValuesToSpanAttributes} and
+ * {@link TelemetryUtils#addEndResourceDemandValuesToSpanAttributes} for all combinations of the resource demand flags.
+ * The combination with all flags disabled is the baseline for creating a span using the {@link SdkTracerProvider}.
+ * Each invocation processes a batch of spans on a single platform or virtual thread, so that the handoff to the
+ * executor is amortized over the batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("checkstyle:VisibilityModifier")
+public class SpanProcessorHotPathBenchmark {
+
+    private static final int SPANS_PER_INVOCATION = 1_000;
+
+    /**
+     * Configuration if CPU demand is measured.
+     */
+    @Param({"false", "true"})
+    public boolean logCpuDemand;
+
+    /**
+     * Configuration if heap demand is measured.
+     */
+    @Param({"false", "true"})
+    public boolean logHeapDemand;
+
+    /**
+     * Configuration if disk demand is measured.
+     */
+    @Param({"false", "true"})
+    public boolean logDiskDemand;
+
+    /**
+     * Configuration if network demand is measured.
+     */
+    @Param({"false", "true"})
+    public boolean logNetworkDemand;
+
+    /**
+     * The type of thread the spans are processed on.
+     */
+    @Param({"PLATFORM", "VIRTUAL"})
+    public String threadType;
+
+    private SdkTracerProvider tracerProvider;
+    private Tracer tracer;
+    private ExecutorService executorService;
+
+    /**
+     * Creates the tracer and the executor for the configured thread type.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        tracerProvider = SdkTracerProvider.builder().build();
+        tracer = tracerProvider.get("io.retit.benchmarks");
+        executorService = "VIRTUAL".equals(threadType)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Shuts down the executor and the tracer provider.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executorService.shutdownNow();
+        tracerProvider.close();
+    }
+
+    /**
+     * Starts a span, adds the resource demand values at start and end and consumes the span.
+     *
+     * @param blackhole - the JMH blackhole to consume the spans.
+     * @throws ExecutionException   - if the batch fails.
+     * @throws InterruptedException - if the benchmark thread is interrupted while waiting for the batch.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SPANS_PER_INVOCATION)
+    public void startAndEndSpan(final Blackhole blackhole) throws ExecutionException, InterruptedException {
+        executorService.submit(() -> processSpans(blackhole)).get();
+    }
+
+    private void processSpans(final Blackhole blackhole) {
+        for (int i = 0; i < SPANS_PER_INVOCATION; i++) {
+            ReadWriteSpan span = (ReadWriteSpan) tracer.spanBuilder("benchmark").startSpan();
+            TelemetryUtils.addStartResourceDemandValuesToSpanAttributes(logCpuDemand, false, logHeapDemand,
+                    logDiskDemand, logNetworkDemand, span);
+            TelemetryUtils.addEndResourceDemandValuesToSpanAttributes(logCpuDemand, false, logHeapDemand,
+                    logDiskDemand, logNetworkDemand, span);
+            blackhole.consume(span);
+        }
+    }
+}
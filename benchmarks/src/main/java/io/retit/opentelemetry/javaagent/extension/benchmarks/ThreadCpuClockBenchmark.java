@@ -0,0 +1,90 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.benchmarks;
+
+import io.retit.opentelemetry.javaagent.extension.resources.common.ThreadCpuClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per call cost of the {@link ThreadCpuClock} implementations with each other and with the
+ * {@link ThreadMXBean} as reference. The FFM implementation requires JDK 22 or higher, on older JDKs the
+ * corresponding parameter fails during setup. This benchmark only provides results on Linux and Mac.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+@State(Scope.Thread)
+@SuppressWarnings("checkstyle:VisibilityModifier")
+public class ThreadCpuClockBenchmark {
+
+    /**
+     * The implementation of the thread CPU clock.
+     */
+    @Param({"FFM", "JNA_DIRECT", "JNA_STRUCTURE"})
+    public String type;
+
+    private ThreadCpuClock threadCpuClock;
+    private ThreadMXBean threadMXBean;
+
+    /**
+     * Creates the clock of the configured type.
+     */
+    @Setup
+    public void setup() {
+        threadCpuClock = ThreadCpuClock.create(ThreadCpuClock.Type.valueOf(type));
+        if (threadCpuClock == null) {
+            throw new IllegalStateException("Thread cpu clock " + type + " is not available on this platform or JVM");
+        }
+        threadMXBean = ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * Reads the CPU time of the current thread using the configured clock.
+     *
+     * @return the CPU time in ns.
+     */
+    @Benchmark
+    public long threadCpuClock() {
+        return threadCpuClock.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Reads the CPU time of the current thread using the {@link ThreadMXBean}, which returns -1 on virtual threads.
+     *
+     * @return the CPU time in ns.
+     */
+    @Benchmark
+    public long threadMXBean() {
+        return threadMXBean.getCurrentThreadCpuTime();
+    }
+}
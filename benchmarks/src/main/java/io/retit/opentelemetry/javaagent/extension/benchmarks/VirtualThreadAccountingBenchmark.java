@@ -0,0 +1,113 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.benchmarks;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.retit.opentelemetry.javaagent.extension.commons.Constants;
+import io.retit.opentelemetry.javaagent.extension.processor.RETITSpanProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost the virtual thread accounting adds to a transaction, i.e., the registration of the root span on
+ * the virtual thread at its start and the handover of its demands at its end, using a {@link RETITSpanProcessor} on a
+ * real {@link SdkTracerProvider}. The accounting disabled is the baseline. The processing of the JFR events happens
+ * on the JFR stream thread and is not included in the time per span, but shows in the CPU time of the process.
+ * As the option is read once, every parameter is measured in a separate fork.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("checkstyle:VisibilityModifier")
+public class VirtualThreadAccountingBenchmark {
+
+    private static final int SPANS_PER_INVOCATION = 1_000;
+
+    /**
+     * Configuration if the virtual thread accounting is enabled.
+     */
+    @Param({"false", "true"})
+    public boolean virtualThreadAccounting;
+
+    private SdkTracerProvider tracerProvider;
+    private Tracer tracer;
+    private ExecutorService executorService;
+
+    /**
+     * Configures the virtual thread accounting before the processor is created and creates the tracer and the executor.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        System.setProperty(Constants.RETIT_VIRTUAL_THREAD_ACCOUNTING_CONFIGURATION_PROPERTY, String.valueOf(virtualThreadAccounting));
+        tracerProvider = SdkTracerProvider.builder().addSpanProcessor(new RETITSpanProcessor()).build();
+        tracer = tracerProvider.get("io.retit.benchmarks");
+        executorService = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Shuts down the executor and the tracer provider.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executorService.shutdownNow();
+        tracerProvider.close();
+    }
+
+    /**
+     * Starts and ends root spans on a virtual thread.
+     *
+     * @param blackhole - the JMH blackhole to consume the spans.
+     * @throws ExecutionException   - if the batch fails.
+     * @throws InterruptedException - if the benchmark thread is interrupted while waiting for the batch.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SPANS_PER_INVOCATION)
+    public void startAndEndRootSpan(final Blackhole blackhole) throws ExecutionException, InterruptedException {
+        executorService.submit(() -> processSpans(blackhole)).get();
+    }
+
+    private void processSpans(final Blackhole blackhole) {
+        for (int i = 0; i < SPANS_PER_INVOCATION; i++) {
+            Span span = tracer.spanBuilder("benchmark").setNoParent().startSpan();
+            span.end();
+            blackhole.consume(span);
+        }
+    }
+}
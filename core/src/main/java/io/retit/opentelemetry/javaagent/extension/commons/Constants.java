@@ -34,7 +34,34 @@ public class Constants {
     public static final String RETIT_NETWORK_DEMAND_LOGGING_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".log.network.demand";
     public static final String RETIT_DISK_DEMAND_LOGGING_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".log.disk.demand";
     public static final String RETIT_GC_EVENT_LOGGING_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".log.gc.event";
+    public static final String RETIT_GC_METRICS_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".gc.metrics";
+    public static final String RETIT_GC_SPAN_THRESHOLD_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".gc.span.threshold";
+    public static final String RETIT_GC_COST_ATTRIBUTION_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".gc.cost.attribution";
+    public static final String RETIT_GC_COST_ATTRIBUTION_WINDOW_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".gc.cost.attribution.window";
+    public static final String RETIT_GC_CPU_TIME_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".gc.cpu.time";
     public static final String RETIT_THREAD_NAME_LOGGING_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".log.thread.name";
+    public static final String RETIT_SELF_DEMAND_LOGGING_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".log.self.demand";
+    public static final String RETIT_NETWORK_DEMAND_INTERFACES_INCLUDE_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".network.demand.interfaces.include";
+    public static final String RETIT_NETWORK_DEMAND_INTERFACES_EXCLUDE_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".network.demand.interfaces.exclude";
+    public static final String RETIT_THREAD_CPU_CLOCK_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".thread.cpu.clock";
+    public static final String RETIT_VIRTUAL_THREAD_ACCOUNTING_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".virtual.thread.accounting";
+    public static final String RETIT_VIRTUAL_THREAD_ACCOUNTING_CAPACITY_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".virtual.thread.accounting.capacity";
+    public static final String RETIT_IO_DEMAND_COLLECTOR_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".io.demand.collector";
+    public static final String RETIT_NETWORK_DEMAND_ACCOUNTING_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".network.demand.accounting";
+    public static final String RETIT_METRICS_ASYNC_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".metrics.async";
+    public static final String RETIT_METRICS_ASYNC_QUEUE_CAPACITY_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".metrics.async.queue.capacity";
+    public static final String RETIT_METRICS_ATTRIBUTES_ALLOW_LIST_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".metrics.attributes.allow.list";
+    public static final String RETIT_METRICS_ATTRIBUTES_CACHE_SIZE_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".metrics.attributes.cache.size";
+    public static final String RETIT_METRICS_HISTOGRAMS_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".metrics.histograms";
+    public static final String RETIT_METRICS_HISTOGRAMS_MAX_BUCKETS_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".metrics.histograms.max.buckets";
+    public static final String RETIT_COMPACT_SPAN_ATTRIBUTES_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".span.attributes.compact";
+    public static final String RETIT_DEMAND_SAMPLING_RATIO_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".demand.sampling.ratio";
+    public static final String RETIT_DEMAND_SAMPLING_ROOT_SPANS_ONLY_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".demand.sampling.root.spans.only";
+    public static final String RETIT_DEMAND_SAMPLING_SAMPLED_SPANS_ONLY_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".demand.sampling.sampled.spans.only";
+    public static final String RETIT_DEMAND_SAMPLING_ROUTE_RATE_LIMIT_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".demand.sampling.route.rate.limit";
+    public static final String RETIT_TRACE_DEMAND_AGGREGATION_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".trace.demand.aggregation";
+    public static final String RETIT_TRACE_DEMAND_AGGREGATION_TTL_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".trace.demand.aggregation.ttl";
+    public static final String RETIT_EMISSIONS_SCI_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".emissions.sci";
 
     public static final String RETIT_EMISSIONS_CLOUD_PROVIDER_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".emissions.cloud.provider";
     public static final String RETIT_EMISSIONS_CLOUD_PROVIDER_REGION_CONFIGURATION_PROPERTY = RETIT_NAMESPACE + ".emissions.cloud.provider.region";
@@ -82,6 +109,17 @@ public class Constants {
     public static final String END_THREAD_FIELD = "endthread";
     public static final String LOG_SYSTEM_TIME_FIELD = "logsystemtime";
 
+    public static final String CPU_DEMAND_FIELD = "cpu.demand";
+    public static final String HEAP_DEMAND_FIELD = "heap.demand";
+    public static final String DISK_READ_DEMAND_FIELD = "disk.read.demand";
+    public static final String DISK_WRITE_DEMAND_FIELD = "disk.write.demand";
+    public static final String NETWORK_READ_DEMAND_FIELD = "network.read.demand";
+    public static final String NETWORK_WRITE_DEMAND_FIELD = "network.write.demand";
+    public static final String RESPONSE_TIME_FIELD = "response.time";
+    public static final String DEMAND_SAMPLING_WEIGHT_FIELD = "demand.sampling.weight";
+    public static final String CPU_SELF_DEMAND_FIELD = "cpu.demand.self";
+    public static final String HEAP_SELF_DEMAND_FIELD = "heap.demand.self";
+
     public static final String MINOR_GC_OPERATION_NAME = "minor_free";
     public static final String MAJOR_GC_OPERATION_NAME = "major_free";
 
@@ -108,6 +146,16 @@ public class Constants {
     public static final String SPAN_ATTRIBUTE_TOTAL_HEAP_SIZE = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, TOTAL_HEAP_SIZE_FIELD);
     public static final String SPAN_ATTRIBUTE_SPAN_START_THREAD = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, START_THREAD_FIELD);
     public static final String SPAN_ATTRIBUTE_SPAN_END_THREAD = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, END_THREAD_FIELD);
+    public static final String SPAN_ATTRIBUTE_CPU_DEMAND = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, CPU_DEMAND_FIELD);
+    public static final String SPAN_ATTRIBUTE_HEAP_DEMAND = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, HEAP_DEMAND_FIELD);
+    public static final String SPAN_ATTRIBUTE_DISK_READ_DEMAND = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, DISK_READ_DEMAND_FIELD);
+    public static final String SPAN_ATTRIBUTE_DISK_WRITE_DEMAND = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, DISK_WRITE_DEMAND_FIELD);
+    public static final String SPAN_ATTRIBUTE_NETWORK_READ_DEMAND = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, NETWORK_READ_DEMAND_FIELD);
+    public static final String SPAN_ATTRIBUTE_NETWORK_WRITE_DEMAND = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, NETWORK_WRITE_DEMAND_FIELD);
+    public static final String SPAN_ATTRIBUTE_RESPONSE_TIME = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, RESPONSE_TIME_FIELD);
+    public static final String SPAN_ATTRIBUTE_DEMAND_SAMPLING_WEIGHT = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, DEMAND_SAMPLING_WEIGHT_FIELD);
+    public static final String SPAN_ATTRIBUTE_CPU_SELF_DEMAND = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, CPU_SELF_DEMAND_FIELD);
+    public static final String SPAN_ATTRIBUTE_HEAP_SELF_DEMAND = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, HEAP_SELF_DEMAND_FIELD);
     public static final String JAVA_AGENT_INSTRUMENTATION_NAME_GC_LISTENER = String.format(STRING_DECIMAL_FORMAT, RETIT_NAMESPACE, GC_LISTENER_NAME);
 
     public static final String RETIT_EMISSION_NAMESPACE = RETIT_NAMESPACE + ".emissions";
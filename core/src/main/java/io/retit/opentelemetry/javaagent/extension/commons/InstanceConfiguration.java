@@ -42,6 +42,51 @@ public class InstanceConfiguration {
         return getBooleanProperty(Constants.RETIT_GC_EVENT_LOGGING_CONFIGURATION_PROPERTY, true);
     }
 
+    /**
+     * Returns whether the garbage collections are aggregated into metrics per collector, action and cause.
+     *
+     * @return true if the GC metrics are enabled.
+     */
+    public static boolean isGcMetrics() {
+        return getBooleanProperty(Constants.RETIT_GC_METRICS_CONFIGURATION_PROPERTY);
+    }
+
+    /**
+     * Returns the minimum duration of a garbage collection for which a span is created.
+     *
+     * @return the configured threshold in ms or 0, i.e., a span is created for every collection.
+     */
+    public static long getGcSpanThreshold() {
+        return getProperty(Constants.RETIT_GC_SPAN_THRESHOLD_CONFIGURATION_PROPERTY, Long::valueOf, 0L);
+    }
+
+    /**
+     * Returns whether the cost of the garbage collections is attributed to the routes in proportion to their allocations.
+     *
+     * @return true if the GC cost attribution is enabled.
+     */
+    public static boolean isGcCostAttribution() {
+        return getBooleanProperty(Constants.RETIT_GC_COST_ATTRIBUTION_CONFIGURATION_PROPERTY);
+    }
+
+    /**
+     * Returns the length of the sliding window in which the allocations of the routes are summed up.
+     *
+     * @return the configured window in ms or 60000.
+     */
+    public static long getGcCostAttributionWindow() {
+        return getProperty(Constants.RETIT_GC_COST_ATTRIBUTION_WINDOW_CONFIGURATION_PROPERTY, Long::valueOf, 60_000L);
+    }
+
+    /**
+     * Returns whether the CPU time of the threads of the garbage collector is sampled.
+     *
+     * @return true if the GC CPU time is sampled.
+     */
+    public static boolean isGcCpuTime() {
+        return getBooleanProperty(Constants.RETIT_GC_CPU_TIME_CONFIGURATION_PROPERTY);
+    }
+
     public static boolean isLogDiskDemand() {
         return getBooleanProperty(Constants.RETIT_DISK_DEMAND_LOGGING_CONFIGURATION_PROPERTY);
     }
@@ -54,6 +99,193 @@ public class InstanceConfiguration {
         return getBooleanProperty(Constants.RETIT_RESPONSE_TIME_LOGGING_CONFIGURATION_PROPERTY);
     }
 
+    /**
+     * Returns the comma separated list of network interface name prefixes which are considered for the network demand.
+     *
+     * @return the included interface prefixes or an empty String if all interfaces are included.
+     */
+    public static String getNetworkDemandIncludedInterfaces() {
+        return getProperty(Constants.RETIT_NETWORK_DEMAND_INTERFACES_INCLUDE_CONFIGURATION_PROPERTY, String::valueOf, "");
+    }
+
+    /**
+     * Returns the comma separated list of network interface name prefixes which are ignored for the network demand, e.g., "lo,veth".
+     *
+     * @return the excluded interface prefixes or an empty String if no interface is excluded.
+     */
+    public static String getNetworkDemandExcludedInterfaces() {
+        return getProperty(Constants.RETIT_NETWORK_DEMAND_INTERFACES_EXCLUDE_CONFIGURATION_PROPERTY, String::valueOf, "");
+    }
+
+    /**
+     * Returns the thread CPU clock implementation to start the fallback chain with, i.e., AUTO, FFM, JNA_DIRECT or JNA_STRUCTURE.
+     *
+     * @return the configured thread CPU clock or AUTO.
+     */
+    public static String getThreadCpuClock() {
+        return getProperty(Constants.RETIT_THREAD_CPU_CLOCK_CONFIGURATION_PROPERTY, String::valueOf, "AUTO");
+    }
+
+    public static boolean isVirtualThreadAccounting() {
+        return getBooleanProperty(Constants.RETIT_VIRTUAL_THREAD_ACCOUNTING_CONFIGURATION_PROPERTY);
+    }
+
+    /**
+     * Returns the maximum number of transactions on virtual threads which are accounted at the same time.
+     *
+     * @return the configured capacity or 65536.
+     */
+    public static int getVirtualThreadAccountingCapacity() {
+        return getProperty(Constants.RETIT_VIRTUAL_THREAD_ACCOUNTING_CAPACITY_CONFIGURATION_PROPERTY, Integer::valueOf, 65_536);
+    }
+
+    /**
+     * Returns the source of the disk and network demand of a thread, i.e., OS, TASKSTATS or JFR.
+     *
+     * @return the configured collector or OS.
+     */
+    public static String getIoDemandCollector() {
+        return getProperty(Constants.RETIT_IO_DEMAND_COLLECTOR_CONFIGURATION_PROPERTY, String::valueOf, "OS");
+    }
+
+    /**
+     * Returns whether the network demand of a thread is its socket traffic recorded by the jdk.SocketRead and
+     * jdk.SocketWrite JFR events instead of the traffic of all network interfaces.
+     *
+     * @return true if the socket demand accounting is enabled.
+     */
+    public static boolean isSocketDemandAccounting() {
+        return getBooleanProperty(Constants.RETIT_NETWORK_DEMAND_ACCOUNTING_CONFIGURATION_PROPERTY);
+    }
+
+    /**
+     * Returns whether the resource demand metrics are aggregated on a background thread instead of the request thread.
+     *
+     * @return true if the metrics are aggregated asynchronously.
+     */
+    public static boolean isAsyncMetrics() {
+        return getBooleanProperty(Constants.RETIT_METRICS_ASYNC_CONFIGURATION_PROPERTY);
+    }
+
+    /**
+     * Returns the number of resource demand records which can be queued for the asynchronous aggregation.
+     *
+     * @return the configured capacity or 8192.
+     */
+    public static int getAsyncMetricsQueueCapacity() {
+        return getProperty(Constants.RETIT_METRICS_ASYNC_QUEUE_CAPACITY_CONFIGURATION_PROPERTY, Integer::valueOf, 8192);
+    }
+
+    /**
+     * Returns the comma separated list of span attribute names the resource demand metrics are published with, e.g., "http.route,http.request.method".
+     *
+     * @return the allowed attribute names or an empty String if all attributes outside the excluded namespaces are used.
+     */
+    public static String getMetricsAttributesAllowList() {
+        return getProperty(Constants.RETIT_METRICS_ATTRIBUTES_ALLOW_LIST_CONFIGURATION_PROPERTY, String::valueOf, "");
+    }
+
+    /**
+     * Returns the maximum number of attribute sets of the resource demand metrics which are cached.
+     *
+     * @return the configured cache size or 1024.
+     */
+    public static int getMetricsAttributesCacheSize() {
+        return getProperty(Constants.RETIT_METRICS_ATTRIBUTES_CACHE_SIZE_CONFIGURATION_PROPERTY, Integer::valueOf, 1024);
+    }
+
+    /**
+     * Returns whether the resource demands of every transaction are additionally recorded in histograms,
+     * which show the distribution of the demands per transaction instead of only their sum.
+     *
+     * @return true if the resource demand histograms are enabled.
+     */
+    public static boolean isResourceDemandHistograms() {
+        return getBooleanProperty(Constants.RETIT_METRICS_HISTOGRAMS_CONFIGURATION_PROPERTY);
+    }
+
+    /**
+     * Returns the maximum number of buckets of the exponential histograms of the extension.
+     *
+     * @return the configured number of buckets or 160.
+     */
+    public static int getResourceDemandHistogramMaxBuckets() {
+        return getProperty(Constants.RETIT_METRICS_HISTOGRAMS_MAX_BUCKETS_CONFIGURATION_PROPERTY, Integer::valueOf, 160);
+    }
+
+    /**
+     * Returns whether the resource demand values at span start are kept outside of the span and only the demands are added to the span at its end.
+     *
+     * @return true if the compact span attributes are enabled.
+     */
+    public static boolean isCompactSpanAttributes() {
+        return getBooleanProperty(Constants.RETIT_COMPACT_SPAN_ATTRIBUTES_CONFIGURATION_PROPERTY);
+    }
+
+    /**
+     * Returns whether the CPU and heap demand of spans without the demand of their child spans is published.
+     *
+     * @return true if the self demand is published.
+     */
+    public static boolean isLogSelfDemand() {
+        return getBooleanProperty(Constants.RETIT_SELF_DEMAND_LOGGING_CONFIGURATION_PROPERTY);
+    }
+
+    /**
+     * Returns the ratio of traces whose spans are measured.
+     *
+     * @return the configured ratio or 1.0.
+     */
+    public static double getDemandSamplingRatio() {
+        return getProperty(Constants.RETIT_DEMAND_SAMPLING_RATIO_CONFIGURATION_PROPERTY, Double::valueOf, 1.0);
+    }
+
+    public static boolean isDemandSamplingRootSpansOnly() {
+        return getBooleanProperty(Constants.RETIT_DEMAND_SAMPLING_ROOT_SPANS_ONLY_CONFIGURATION_PROPERTY);
+    }
+
+    public static boolean isDemandSamplingSampledSpansOnly() {
+        return getBooleanProperty(Constants.RETIT_DEMAND_SAMPLING_SAMPLED_SPANS_ONLY_CONFIGURATION_PROPERTY);
+    }
+
+    /**
+     * Returns the maximum number of spans per route and second which are measured.
+     *
+     * @return the configured limit or 0 if the number of spans is not limited.
+     */
+    public static int getDemandSamplingRouteRateLimit() {
+        return getProperty(Constants.RETIT_DEMAND_SAMPLING_ROUTE_RATE_LIMIT_CONFIGURATION_PROPERTY, Integer::valueOf, 0);
+    }
+
+    /**
+     * Returns whether the resource demands of all spans of a trace are summed up and published with the root span,
+     * including the spans which ran on other threads.
+     *
+     * @return true if the trace demand aggregation is enabled.
+     */
+    public static boolean isTraceDemandAggregation() {
+        return getBooleanProperty(Constants.RETIT_TRACE_DEMAND_AGGREGATION_CONFIGURATION_PROPERTY);
+    }
+
+    /**
+     * Returns the time in ms after the last span of a trace after which the trace is discarded if its root span did not end.
+     *
+     * @return the configured time to live or 60000.
+     */
+    public static long getTraceDemandAggregationTimeToLive() {
+        return getProperty(Constants.RETIT_TRACE_DEMAND_AGGREGATION_TTL_CONFIGURATION_PROPERTY, Long::valueOf, 60_000L);
+    }
+
+    /**
+     * Returns whether the energy and the software carbon intensity (SCI) of every transaction are calculated in the agent
+     * and published as histograms.
+     *
+     * @return true if the SCI calculation is enabled.
+     */
+    public static boolean isSoftwareCarbonIntensity() {
+        return getBooleanProperty(Constants.RETIT_EMISSIONS_SCI_CONFIGURATION_PROPERTY);
+    }
+
     public static String getCloudProvider() {
         return getStringProperty(Constants.RETIT_EMISSIONS_CLOUD_PROVIDER_CONFIGURATION_PROPERTY);
     }
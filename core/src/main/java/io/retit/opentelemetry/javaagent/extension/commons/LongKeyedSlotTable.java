@@ -0,0 +1,190 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.commons;
+
+/**
+ * Open addressing hash table with linear probing which maps non-zero long keys, e.g., span ids, to a fixed
+ * number of long slots. Keys and values are stored in primitive arrays, so no objects are allocated after
+ * construction. The table holds at most maxSize keys, inserting further keys fails instead of growing the table.
+ * Instances of this class are not thread safe.
+ */
+final class LongKeyedSlotTable {
+
+    private static final long EMPTY_KEY = 0L;
+
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final long[] keys;
+    private final long[] values;
+    private final int slotsPerKey;
+    private final int mask;
+    private final int maxSize;
+    private int size;
+
+    /**
+     * Creates a new table.
+     *
+     * @param maxSize     - the maximum number of keys, the table is sized to keep the load factor at or below 0.5.
+     * @param slotsPerKey - the number of long values stored per key.
+     */
+    LongKeyedSlotTable(final int maxSize, final int slotsPerKey) {
+        int tableSize = Integer.highestOneBit(Math.max(1, maxSize) * 2 - 1) << 1;
+        this.keys = new long[tableSize];
+        this.values = new long[tableSize * slotsPerKey];
+        this.slotsPerKey = slotsPerKey;
+        this.mask = tableSize - 1;
+        this.maxSize = maxSize;
+    }
+
+    private int home(final long key) {
+        return (int) ((key * HASH_MULTIPLIER) >>> 32) & mask;
+    }
+
+    /**
+     * Returns the index of the given key.
+     *
+     * @param key - the key, must not be 0.
+     * @return the index of the key or -1 if the table does not contain the key.
+     */
+    int indexOf(final long key) {
+        int index = home(key);
+        while (true) {
+            long currentKey = keys[index];
+            if (currentKey == key) {
+                return index;
+            }
+            if (currentKey == EMPTY_KEY) {
+                return -1;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the index of the given key and inserts the key with all slots set to 0 if it is not contained.
+     *
+     * @param key - the key, must not be 0.
+     * @return the index of the key or -1 if the key is not contained and the table is full.
+     */
+    int getOrInsert(final long key) {
+        if (key == EMPTY_KEY) {
+            throw new IllegalArgumentException("Keys must not be 0");
+        }
+        int index = home(key);
+        while (true) {
+            long currentKey = keys[index];
+            if (currentKey == key) {
+                return index;
+            }
+            if (currentKey == EMPTY_KEY) {
+                if (size >= maxSize) {
+                    return -1;
+                }
+                keys[index] = key;
+                for (int slot = 0; slot < slotsPerKey; slot++) {
+                    values[index * slotsPerKey + slot] = 0L;
+                }
+                size++;
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Removes the given key. The following entries of the probe sequence are shifted back, so that lookups do not
+     * need tombstones.
+     *
+     * @param key - the key to remove.
+     * @return true if the key was removed, false if the table did not contain the key.
+     */
+    boolean remove(final long key) {
+        int hole = indexOf(key);
+        if (hole == -1) {
+            return false;
+        }
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            long currentKey = keys[index];
+            if (currentKey == EMPTY_KEY) {
+                break;
+            }
+            int home = home(currentKey);
+            // the entry can only be moved to the hole if its home is not between the hole and its current index
+            boolean homeBetweenHoleAndIndex = hole < index ? home > hole && home <= index : home > hole || home <= index;
+            if (!homeBetweenHoleAndIndex) {
+                keys[hole] = currentKey;
+                System.arraycopy(values, index * slotsPerKey, values, hole * slotsPerKey, slotsPerKey);
+                hole = index;
+            }
+        }
+        keys[hole] = EMPTY_KEY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns the key at the given index, which allows to iterate over the keys.
+     *
+     * @param index - the index between 0 and {@link #capacity()}.
+     * @return the key or 0 if the index is empty.
+     */
+    long keyAt(final int index) {
+        return keys[index];
+    }
+
+    /**
+     * Returns the number of indices of the table.
+     *
+     * @return the number of indices.
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the value of the given slot.
+     *
+     * @param index - the index of the key as returned by {@link #indexOf(long)} or {@link #getOrInsert(long)}.
+     * @param slot  - the slot of the value.
+     * @return the value.
+     */
+    long get(final int index, final int slot) {
+        return values[index * slotsPerKey + slot];
+    }
+
+    /**
+     * Sets the value of the given slot.
+     *
+     * @param index - the index of the key as returned by {@link #indexOf(long)} or {@link #getOrInsert(long)}.
+     * @param slot  - the slot of the value.
+     * @param value - the new value.
+     */
+    void set(final int index, final int slot, final long value) {
+        values[index * slotsPerKey + slot] = value;
+    }
+
+    /**
+     * Returns the number of keys in the table.
+     *
+     * @return the number of keys.
+     */
+    int size() {
+        return size;
+    }
+}
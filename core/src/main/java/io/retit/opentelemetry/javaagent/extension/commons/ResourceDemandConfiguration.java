@@ -0,0 +1,123 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.commons;
+
+/**
+ * Immutable snapshot of the resource demand configuration of the {@link InstanceConfiguration}.
+ * Resolving the configuration requires System property and environment variable lookups,
+ * therefore, the snapshot is created once and read for every span instead.
+ * The options of the metrics, i.e., the asynchronous aggregation, the histograms and the trace demand aggregation,
+ * are not part of the snapshot, as they are read once when the MetricPublishingService is created and cannot be reloaded.
+ */
+public final class ResourceDemandConfiguration {
+
+    private final boolean logCpuDemand;
+    private final boolean logHeapDemand;
+    private final boolean logResponseTime;
+    private final boolean logDiskDemand;
+    private final boolean logNetworkDemand;
+    private final boolean compactSpanAttributes;
+    private final boolean logSelfDemand;
+    private final double demandSamplingRatio;
+    private final boolean demandSamplingRootSpansOnly;
+    private final boolean demandSamplingSampledSpansOnly;
+    private final int demandSamplingRouteRateLimit;
+
+    private ResourceDemandConfiguration() {
+        this.logCpuDemand = InstanceConfiguration.isLogCpuDemandDefaultTrue();
+        this.logHeapDemand = InstanceConfiguration.isLogHeapDemandDefaultTrue();
+        this.logResponseTime = InstanceConfiguration.isLogResponseTime();
+        this.logDiskDemand = InstanceConfiguration.isLogDiskDemand();
+        this.logNetworkDemand = InstanceConfiguration.isLogNetworkDemand();
+        this.compactSpanAttributes = InstanceConfiguration.isCompactSpanAttributes();
+        this.logSelfDemand = InstanceConfiguration.isLogSelfDemand();
+        this.demandSamplingRatio = InstanceConfiguration.getDemandSamplingRatio();
+        this.demandSamplingRootSpansOnly = InstanceConfiguration.isDemandSamplingRootSpansOnly();
+        this.demandSamplingSampledSpansOnly = InstanceConfiguration.isDemandSamplingSampledSpansOnly();
+        this.demandSamplingRouteRateLimit = InstanceConfiguration.getDemandSamplingRouteRateLimit();
+    }
+
+    /**
+     * Resolves the current configuration from the System properties and environment variables.
+     *
+     * @return a new snapshot of the current configuration.
+     */
+    public static ResourceDemandConfiguration load() {
+        return new ResourceDemandConfiguration();
+    }
+
+    public boolean isLogCpuDemand() {
+        return logCpuDemand;
+    }
+
+    public boolean isLogHeapDemand() {
+        return logHeapDemand;
+    }
+
+    public boolean isLogResponseTime() {
+        return logResponseTime;
+    }
+
+    public boolean isLogDiskDemand() {
+        return logDiskDemand;
+    }
+
+    public boolean isLogNetworkDemand() {
+        return logNetworkDemand;
+    }
+
+    public boolean isCompactSpanAttributes() {
+        return compactSpanAttributes;
+    }
+
+    public boolean isLogSelfDemand() {
+        return logSelfDemand;
+    }
+
+    public double getDemandSamplingRatio() {
+        return demandSamplingRatio;
+    }
+
+    public boolean isDemandSamplingRootSpansOnly() {
+        return demandSamplingRootSpansOnly;
+    }
+
+    public boolean isDemandSamplingSampledSpansOnly() {
+        return demandSamplingSampledSpansOnly;
+    }
+
+    public int getDemandSamplingRouteRateLimit() {
+        return demandSamplingRouteRateLimit;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceDemandConfiguration{"
+                + "logCpuDemand=" + logCpuDemand
+                + ", logHeapDemand=" + logHeapDemand
+                + ", logResponseTime=" + logResponseTime
+                + ", logDiskDemand=" + logDiskDemand
+                + ", logNetworkDemand=" + logNetworkDemand
+                + ", compactSpanAttributes=" + compactSpanAttributes
+                + ", logSelfDemand=" + logSelfDemand
+                + ", demandSamplingRatio=" + demandSamplingRatio
+                + ", demandSamplingRootSpansOnly=" + demandSamplingRootSpansOnly
+                + ", demandSamplingSampledSpansOnly=" + demandSamplingSampledSpansOnly
+                + ", demandSamplingRouteRateLimit=" + demandSamplingRouteRateLimit
+                + '}';
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.commons;
+
+import io.retit.opentelemetry.javaagent.extension.resources.common.ResourceDemandSnapshot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the resource demand values measured at the start of spans outside of the span attributes until the span ends.
+ * Every span is mapped to a primitive record, the slot indices are defined by the constants of this class and the
+ * {@link #PRESENT} slot contains a bit mask of the slots which have been measured. The resource demand slots match the
+ * layout of the {@link ResourceDemandSnapshot}, so a snapshot can be taken directly into a record. The records are keyed
+ * by the span id and are copied into segments of {@link LongKeyedSlotTable}s, which are locked independently, so the
+ * table neither references the spans nor allocates objects per span. The table is bounded, so spans which are never
+ * ended cannot exhaust the heap. If a segment is full, the records of spans which have been started before the maximum
+ * span age are evicted, e.g., as they are never ended or have ended without removing their record, as the configuration
+ * has been reloaded in the meantime. As this requires a scan of the segment, it is done at most once per second.
+ */
+final class StartResourceDemandTable {
+
+    static final int CPU_TIME = ResourceDemandSnapshot.CPU_TIME;
+    static final int HEAP_BYTE_ALLOCATION = ResourceDemandSnapshot.HEAP_BYTE_ALLOCATION;
+    static final int DISK_READ_DEMAND = ResourceDemandSnapshot.DISK_READ_DEMAND;
+    static final int DISK_WRITE_DEMAND = ResourceDemandSnapshot.DISK_WRITE_DEMAND;
+    static final int NETWORK_READ_DEMAND = ResourceDemandSnapshot.NETWORK_READ_DEMAND;
+    static final int NETWORK_WRITE_DEMAND = ResourceDemandSnapshot.NETWORK_WRITE_DEMAND;
+    static final int THREAD = ResourceDemandSnapshot.THREAD;
+    static final int SYSTEM_TIME = ResourceDemandSnapshot.SIZE;
+    static final int PRESENT = SYSTEM_TIME + 1;
+    static final int RECORD_SIZE = PRESENT + 1;
+
+    static final long DEFAULT_MAX_SPAN_AGE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final long EVICTION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int SEGMENTS = 64;
+    /**
+     * The table slot after the record, which contains the time at which the record has been stored.
+     */
+    private static final int STORE_TIME = RECORD_SIZE;
+    private static final int SPAN_ID_LENGTH = 16;
+    private static final int HEX_RADIX = 16;
+    private static final int BITS_PER_HEX_DIGIT = 4;
+
+    private final Segment[] segments;
+    private final long maxSpanAgeNanos;
+
+    /**
+     * Creates a new table.
+     *
+     * @param maxSize - the maximum number of spans which are held at the same time.
+     */
+    StartResourceDemandTable(final int maxSize) {
+        this(maxSize, DEFAULT_MAX_SPAN_AGE_NANOS);
+    }
+
+    /**
+     * Creates a new table.
+     *
+     * @param maxSize         - the maximum number of spans which are held at the same time.
+     * @param maxSpanAgeNanos - the duration after which the record of a span in progress is evicted if its segment is full.
+     */
+    StartResourceDemandTable(final int maxSize, final long maxSpanAgeNanos) {
+        int segmentCount = Math.min(SEGMENTS, Integer.highestOneBit(Math.max(1, maxSize)));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // the first segments hold the remainder
+            segments[i] = new Segment(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0));
+        }
+        this.maxSpanAgeNanos = maxSpanAgeNanos;
+    }
+
+    /**
+     * Returns whether the given slot of a record has been measured.
+     *
+     * @param record - the record.
+     * @param slot   - the slot index.
+     * @return true if the slot has been measured.
+     */
+    static boolean isPresent(final long[] record, final int slot) {
+        return (record[PRESENT] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Sets the value of the given slot of a record and marks it as measured.
+     *
+     * @param record - the record.
+     * @param slot   - the slot index.
+     * @param value  - the measured value.
+     */
+    static void set(final long[] record, final int slot, final long value) {
+        record[slot] = value;
+        record[PRESENT] |= 1L << slot;
+    }
+
+    /**
+     * Marks the slots of a snapshot taken into a record as measured.
+     *
+     * @param record   - the record.
+     * @param measured - the bit mask of the measured slots returned by the snapshot.
+     */
+    static void setMeasured(final long[] record, final int measured) {
+        record[PRESENT] |= measured;
+    }
+
+    /**
+     * Converts a span id, i.e., 16 lower case hex characters, to the key of its record.
+     *
+     * @param spanId - the span id.
+     * @return the key or 0 if the span id is invalid.
+     */
+    static long toKey(final String spanId) {
+        if (spanId.length() != SPAN_ID_LENGTH) {
+            return 0;
+        }
+        long key = 0;
+        for (int i = 0; i < SPAN_ID_LENGTH; i++) {
+            int digit = Character.digit(spanId.charAt(i), HEX_RADIX);
+            if (digit < 0) {
+                return 0;
+            }
+            key = key << BITS_PER_HEX_DIGIT | digit;
+        }
+        return key;
+    }
+
+    /**
+     * Stores a copy of the record of a span.
+     *
+     * @param key    - the key of the span, see {@link #toKey(String)}.
+     * @param record - the record.
+     * @return true if the record was stored, false if the key is invalid or the segment of the key is full.
+     */
+    boolean put(final long key, final long[] record) {
+        if (key == 0) {
+            return false;
+        }
+        return getSegment(key).put(key, record, System.nanoTime(), maxSpanAgeNanos);
+    }
+
+    /**
+     * Removes the record of a span and copies it into the given array.
+     *
+     * @param key    - the key of the span, see {@link #toKey(String)}.
+     * @param record - the array of at least {@link #RECORD_SIZE} values the record is copied into.
+     * @return true if the record has been copied, false if no record has been stored for the span.
+     */
+    boolean remove(final long key, final long[] record) {
+        return key != 0 && getSegment(key).remove(key, record);
+    }
+
+    private Segment getSegment(final long key) {
+        // the span ids are random, so the lowest bits distribute the keys evenly
+        return segments[(int) key & (segments.length - 1)];
+    }
+
+    /**
+     * Returns the number of spans in the table.
+     *
+     * @return the number of spans.
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Part of the table with its own lock.
+     */
+    private static final class Segment {
+
+        private final LongKeyedSlotTable table;
+        private final int maxSize;
+        private long lastEvictionNanos = System.nanoTime() - EVICTION_INTERVAL_NANOS;
+
+        Segment(final int maxSize) {
+            this.table = new LongKeyedSlotTable(maxSize, RECORD_SIZE + 1);
+            this.maxSize = maxSize;
+        }
+
+        synchronized boolean put(final long key, final long[] record, final long now, final long maxSpanAgeNanos) {
+            if (table.size() >= maxSize && table.indexOf(key) < 0) {
+                evictStaleRecords(now, maxSpanAgeNanos);
+            }
+            int index = table.getOrInsert(key);
+            if (index < 0) {
+                return false;
+            }
+            for (int slot = 0; slot < RECORD_SIZE; slot++) {
+                table.set(index, slot, record[slot]);
+            }
+            table.set(index, STORE_TIME, now);
+            return true;
+        }
+
+        synchronized boolean remove(final long key, final long[] record) {
+            int index = table.indexOf(key);
+            if (index < 0) {
+                return false;
+            }
+            for (int slot = 0; slot < RECORD_SIZE; slot++) {
+                record[slot] = table.get(index, slot);
+            }
+            table.remove(key);
+            return true;
+        }
+
+        private void evictStaleRecords(final long now, final long maxSpanAgeNanos) {
+            if (now - lastEvictionNanos < EVICTION_INTERVAL_NANOS) {
+                return;
+            }
+            lastEvictionNanos = now;
+            int index = 0;
+            while (index < table.capacity()) {
+                long key = table.keyAt(index);
+                // removing a key moves a following key to its index, which is checked next
+                if (key != 0 && now - table.get(index, STORE_TIME) >= maxSpanAgeNanos) {
+                    table.remove(key);
+                } else {
+                    index++;
+                }
+            }
+        }
+
+        synchronized int size() {
+            return table.size();
+        }
+    }
+}
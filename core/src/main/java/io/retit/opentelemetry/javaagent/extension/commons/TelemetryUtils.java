@@ -21,7 +21,7 @@ import io.opentelemetry.sdk.trace.ReadWriteSpan;
 import io.opentelemetry.sdk.trace.ReadableSpan;
 import io.retit.opentelemetry.javaagent.extension.resources.common.CommonResourceDemandDataCollector;
 import io.retit.opentelemetry.javaagent.extension.resources.common.IResourceDemandDataCollector;
-import io.retit.opentelemetry.javaagent.extension.resources.common.NativeFacade;
+import io.retit.opentelemetry.javaagent.extension.resources.common.ResourceDemandSnapshot;
 
 /**
  * Utility class to add resource demand data to OpenTelemetry span.
@@ -32,6 +32,13 @@ public class TelemetryUtils {
     private static final IResourceDemandDataCollector RESOURCE_DEMAND_DATA_COLLECTOR =
             CommonResourceDemandDataCollector.getResourceDemandDataCollector();
 
+    private static final int MAX_SPANS_IN_PROGRESS = 65_536;
+    private static final StartResourceDemandTable START_RESOURCE_DEMAND_TABLE = new StartResourceDemandTable(MAX_SPANS_IN_PROGRESS);
+    // the table copies the records, so every thread can reuse a single array
+    private static final ThreadLocal<long[]> START_VALUES = ThreadLocal.withInitial(() -> new long[StartResourceDemandTable.RECORD_SIZE]);
+    // the snapshots are copied into the span attributes right away, only the measured slots are read
+    private static final ThreadLocal<long[]> SNAPSHOT_VALUES = ThreadLocal.withInitial(() -> new long[ResourceDemandSnapshot.SIZE]);
+
     private TelemetryUtils() {
     }
 
@@ -51,34 +58,16 @@ public class TelemetryUtils {
             readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_START_SYSTEM_TIME, System.nanoTime());
         }
         if (!isExternalDatabaseCall(readWriteSpan)) {
-            boolean threadNameRequired = false;
-
-            if (logHeapConsumption) {
-                long heapDemand = RESOURCE_DEMAND_DATA_COLLECTOR.getCurrentThreadAllocatedBytes();
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_START_HEAP_BYTE_ALLOCATION,
-                        heapDemand);
-                threadNameRequired = true;
-            }
-            if (logDiskDemand) {
-                long[] readAndWriteBytes = RESOURCE_DEMAND_DATA_COLLECTOR.getDiskBytesReadAndWritten();
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_START_DISK_READ_DEMAND, readAndWriteBytes[0]);
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_START_DISK_WRITE_DEMAND, readAndWriteBytes[1]);
-                threadNameRequired = true;
-            }
-            if (logNetworkDemand) {
-                long[] readAndWriteBytes = RESOURCE_DEMAND_DATA_COLLECTOR.getNetworkBytesReadAndWritten();
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_START_NETWORK_READ_DEMAND, readAndWriteBytes[0]);
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_START_NETWORK_WRITE_DEMAND, readAndWriteBytes[1]);
-                threadNameRequired = true;
-            }
-            if (logCPUTime) {
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_START_CPU_TIME, RESOURCE_DEMAND_DATA_COLLECTOR.getCurrentThreadCpuTime());
-                threadNameRequired = true;
-            }
-
-            if (threadNameRequired) {
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_SPAN_START_THREAD, NativeFacade.getThreadId());
-            }
+            long[] snapshot = SNAPSHOT_VALUES.get();
+            int measured = RESOURCE_DEMAND_DATA_COLLECTOR.getCurrentThreadDemandSnapshot(
+                    ResourceDemandSnapshot.demands(logCPUTime, logHeapConsumption, logDiskDemand, logNetworkDemand), snapshot);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_HEAP_BYTE_ALLOCATION, snapshot, measured, ResourceDemandSnapshot.HEAP_BYTE_ALLOCATION);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_DISK_READ_DEMAND, snapshot, measured, ResourceDemandSnapshot.DISK_READ_DEMAND);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_DISK_WRITE_DEMAND, snapshot, measured, ResourceDemandSnapshot.DISK_WRITE_DEMAND);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_NETWORK_READ_DEMAND, snapshot, measured, ResourceDemandSnapshot.NETWORK_READ_DEMAND);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_NETWORK_WRITE_DEMAND, snapshot, measured, ResourceDemandSnapshot.NETWORK_WRITE_DEMAND);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_CPU_TIME, snapshot, measured, ResourceDemandSnapshot.CPU_TIME);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_SPAN_START_THREAD, snapshot, measured, ResourceDemandSnapshot.THREAD);
         }
     }
 
@@ -96,35 +85,149 @@ public class TelemetryUtils {
                                                                   final boolean logSystemTime, final boolean logHeapConsumption, final boolean logDiskDemand,
                                                                   final boolean logNetworkDemand, final ReadWriteSpan readWriteSpan) {
         readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_LOG_SYSTEM_TIME, System.currentTimeMillis());
+        if (!isExternalDatabaseCall(readWriteSpan)) {
+            long[] snapshot = SNAPSHOT_VALUES.get();
+            int measured = RESOURCE_DEMAND_DATA_COLLECTOR.getCurrentThreadDemandSnapshot(
+                    ResourceDemandSnapshot.demands(logCPUTime, logHeapConsumption, logDiskDemand, logNetworkDemand) | ResourceDemandSnapshot.END, snapshot);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_END_CPU_TIME, snapshot, measured, ResourceDemandSnapshot.CPU_TIME);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_END_DISK_READ_DEMAND, snapshot, measured, ResourceDemandSnapshot.DISK_READ_DEMAND);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_END_DISK_WRITE_DEMAND, snapshot, measured, ResourceDemandSnapshot.DISK_WRITE_DEMAND);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_END_NETWORK_READ_DEMAND, snapshot, measured, ResourceDemandSnapshot.NETWORK_READ_DEMAND);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_END_NETWORK_WRITE_DEMAND, snapshot, measured, ResourceDemandSnapshot.NETWORK_WRITE_DEMAND);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_END_HEAP_BYTE_ALLOCATION, snapshot, measured, ResourceDemandSnapshot.HEAP_BYTE_ALLOCATION);
+            setAttributeIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_SPAN_END_THREAD, snapshot, measured, ResourceDemandSnapshot.THREAD);
+        }
+        // the system time is taken first at the start and last at the end of a span, so the response time contains both measurements
         if (logSystemTime) {
             readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_END_SYSTEM_TIME, System.nanoTime());
         }
+    }
+
+    /**
+     * This method measures the resource demand values at span start and stores them outside of the span,
+     * so that only the resource demands need to be added to the span by {@link #addResourceDemandsToSpanAttributes}.
+     * If too many spans are in progress, the values are added to the span attributes instead.
+     *
+     * @param logCPUTime         - configuration if CPU demand should be measured
+     * @param logSystemTime      - configuration if system time should be measured
+     * @param logHeapConsumption - configuration if heap should be measured
+     * @param logDiskDemand      - configuration if disk demand should be measured
+     * @param logNetworkDemand   - configuration if network demand should be measured
+     * @param readWriteSpan      - the span for which the values are measured
+     */
+    public static void storeStartResourceDemandValues(final boolean logCPUTime, final boolean logSystemTime, final boolean logHeapConsumption,
+                                                      final boolean logDiskDemand, final boolean logNetworkDemand, final ReadWriteSpan readWriteSpan) {
+        long[] startValues = START_VALUES.get();
+        startValues[StartResourceDemandTable.PRESENT] = 0;
+        if (logSystemTime) {
+            StartResourceDemandTable.set(startValues, StartResourceDemandTable.SYSTEM_TIME, System.nanoTime());
+        }
         if (!isExternalDatabaseCall(readWriteSpan)) {
-            boolean threadNameRequired = false;
-            if (logCPUTime) {
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_END_CPU_TIME, RESOURCE_DEMAND_DATA_COLLECTOR.getCurrentThreadCpuTime());
-                threadNameRequired = true;
-            }
-            if (logDiskDemand) {
-                long[] readAndWriteBytes = RESOURCE_DEMAND_DATA_COLLECTOR.getDiskBytesReadAndWritten();
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_END_DISK_READ_DEMAND, readAndWriteBytes[0]);
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_END_DISK_WRITE_DEMAND, readAndWriteBytes[1]);
-                threadNameRequired = true;
-            }
-            if (logNetworkDemand) {
-                long[] readAndWriteBytes = RESOURCE_DEMAND_DATA_COLLECTOR.getNetworkBytesReadAndWritten();
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_END_NETWORK_READ_DEMAND, readAndWriteBytes[0]);
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_END_NETWORK_WRITE_DEMAND, readAndWriteBytes[1]);
-                threadNameRequired = true;
-            }
-            if (logHeapConsumption) {
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_END_HEAP_BYTE_ALLOCATION, RESOURCE_DEMAND_DATA_COLLECTOR.getCurrentThreadAllocatedBytes());
-                threadNameRequired = true;
-            }
-            if (threadNameRequired) {
-                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_SPAN_END_THREAD, NativeFacade.getThreadId());
+            // the resource demand slots of the record match the snapshot layout
+            StartResourceDemandTable.setMeasured(startValues, RESOURCE_DEMAND_DATA_COLLECTOR.getCurrentThreadDemandSnapshot(
+                    ResourceDemandSnapshot.demands(logCPUTime, logHeapConsumption, logDiskDemand, logNetworkDemand), startValues));
+        }
+        if (!START_RESOURCE_DEMAND_TABLE.put(StartResourceDemandTable.toKey(readWriteSpan.getSpanContext().getSpanId()), startValues)) {
+            addStartValuesToSpanAttributes(startValues, readWriteSpan);
+        }
+    }
+
+    /**
+     * This method adds the resource demands between the start and the end of the span to the span.
+     * The values at span start must have been stored by {@link #storeStartResourceDemandValues}.
+     *
+     * @param logCPUTime         - configuration if CPU demand should be added to the span
+     * @param logSystemTime      - configuration if the response time should be added to the span
+     * @param logHeapConsumption - configuration if heap demand should be added to the span
+     * @param logDiskDemand      - configuration if disk demand should be added to the span
+     * @param logNetworkDemand   - configuration if network demand should be added to the span
+     * @param readWriteSpan      - the span to which the attributes should be added
+     */
+    public static void addResourceDemandsToSpanAttributes(final boolean logCPUTime,
+                                                          final boolean logSystemTime, final boolean logHeapConsumption, final boolean logDiskDemand,
+                                                          final boolean logNetworkDemand, final ReadWriteSpan readWriteSpan) {
+        long[] startValues = START_VALUES.get();
+        if (!START_RESOURCE_DEMAND_TABLE.remove(StartResourceDemandTable.toKey(readWriteSpan.getSpanContext().getSpanId()), startValues)) {
+            // the start values have been added to the span attributes
+            addEndResourceDemandValuesToSpanAttributes(logCPUTime, logSystemTime, logHeapConsumption, logDiskDemand, logNetworkDemand, readWriteSpan);
+            return;
+        }
+        readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_LOG_SYSTEM_TIME, System.currentTimeMillis());
+        if (!isExternalDatabaseCall(readWriteSpan)) {
+            int demands = ResourceDemandSnapshot.demands(
+                    logCPUTime && StartResourceDemandTable.isPresent(startValues, StartResourceDemandTable.CPU_TIME),
+                    logHeapConsumption && StartResourceDemandTable.isPresent(startValues, StartResourceDemandTable.HEAP_BYTE_ALLOCATION),
+                    logDiskDemand && StartResourceDemandTable.isPresent(startValues, StartResourceDemandTable.DISK_READ_DEMAND),
+                    logNetworkDemand && StartResourceDemandTable.isPresent(startValues, StartResourceDemandTable.NETWORK_READ_DEMAND));
+            long[] endValues = SNAPSHOT_VALUES.get();
+            int measured = RESOURCE_DEMAND_DATA_COLLECTOR.getCurrentThreadDemandSnapshot(demands | ResourceDemandSnapshot.END, endValues);
+            setDemandIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_CPU_DEMAND, startValues, endValues, measured, ResourceDemandSnapshot.CPU_TIME);
+            setDemandIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_DISK_READ_DEMAND, startValues, endValues, measured, ResourceDemandSnapshot.DISK_READ_DEMAND);
+            setDemandIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_DISK_WRITE_DEMAND, startValues, endValues, measured, ResourceDemandSnapshot.DISK_WRITE_DEMAND);
+            setDemandIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_NETWORK_READ_DEMAND, startValues, endValues, measured, ResourceDemandSnapshot.NETWORK_READ_DEMAND);
+            setDemandIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_NETWORK_WRITE_DEMAND, startValues, endValues, measured, ResourceDemandSnapshot.NETWORK_WRITE_DEMAND);
+            setDemandIfMeasured(readWriteSpan, Constants.SPAN_ATTRIBUTE_HEAP_DEMAND, startValues, endValues, measured, ResourceDemandSnapshot.HEAP_BYTE_ALLOCATION);
+            if (ResourceDemandSnapshot.contains(measured, ResourceDemandSnapshot.THREAD)) {
+                // the demands are only valid if the span started and ended on the same thread
+                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_SPAN_START_THREAD, startValues[StartResourceDemandTable.THREAD]);
+                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_SPAN_END_THREAD, endValues[ResourceDemandSnapshot.THREAD]);
             }
         }
+        // the system time is taken first at the start and last at the end of a span, so the response time contains both measurements
+        if (logSystemTime && StartResourceDemandTable.isPresent(startValues, StartResourceDemandTable.SYSTEM_TIME)) {
+            readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_RESPONSE_TIME, System.nanoTime() - startValues[StartResourceDemandTable.SYSTEM_TIME]);
+        }
+    }
+
+    private static void addStartValuesToSpanAttributes(final long[] startValues, final ReadWriteSpan readWriteSpan) {
+        setAttributeIfPresent(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_SYSTEM_TIME, startValues, StartResourceDemandTable.SYSTEM_TIME);
+        setAttributeIfPresent(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_HEAP_BYTE_ALLOCATION, startValues, StartResourceDemandTable.HEAP_BYTE_ALLOCATION);
+        setAttributeIfPresent(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_DISK_READ_DEMAND, startValues, StartResourceDemandTable.DISK_READ_DEMAND);
+        setAttributeIfPresent(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_DISK_WRITE_DEMAND, startValues, StartResourceDemandTable.DISK_WRITE_DEMAND);
+        setAttributeIfPresent(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_NETWORK_READ_DEMAND, startValues, StartResourceDemandTable.NETWORK_READ_DEMAND);
+        setAttributeIfPresent(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_NETWORK_WRITE_DEMAND, startValues, StartResourceDemandTable.NETWORK_WRITE_DEMAND);
+        setAttributeIfPresent(readWriteSpan, Constants.SPAN_ATTRIBUTE_START_CPU_TIME, startValues, StartResourceDemandTable.CPU_TIME);
+        setAttributeIfPresent(readWriteSpan, Constants.SPAN_ATTRIBUTE_SPAN_START_THREAD, startValues, StartResourceDemandTable.THREAD);
+    }
+
+    private static void setAttributeIfMeasured(final ReadWriteSpan readWriteSpan, final String attribute, final long[] snapshot,
+                                               final int measured, final int slot) {
+        if (ResourceDemandSnapshot.contains(measured, slot)) {
+            readWriteSpan.setAttribute(attribute, snapshot[slot]);
+        }
+    }
+
+    private static void setDemandIfMeasured(final ReadWriteSpan readWriteSpan, final String attribute, final long[] startValues,
+                                            final long[] endValues, final int measured, final int slot) {
+        if (ResourceDemandSnapshot.contains(measured, slot)) {
+            readWriteSpan.setAttribute(attribute, endValues[slot] - startValues[slot]);
+        }
+    }
+
+    private static void setAttributeIfPresent(final ReadWriteSpan readWriteSpan, final String attribute, final long[] startValues, final int slot) {
+        if (StartResourceDemandTable.isPresent(startValues, slot)) {
+            readWriteSpan.setAttribute(attribute, startValues[slot]);
+        }
+    }
+
+    /**
+     * Returns the resource demand of a span, either from the demand attribute added in the compact mode or
+     * as the difference of the values at span start and end.
+     *
+     * @param span            - the span.
+     * @param demandAttribute - the attribute of the demand in the compact mode.
+     * @param startAttribute  - the attribute of the value at span start.
+     * @param endAttribute    - the attribute of the value at span end.
+     * @return the resource demand or 0 if it has not been measured.
+     */
+    public static long getResourceDemand(final ReadableSpan span, final String demandAttribute, final String startAttribute, final String endAttribute) {
+        Long demand = span.getAttribute(AttributeKey.longKey(demandAttribute));
+        if (demand != null) {
+            return demand;
+        }
+        Long startDemand = span.getAttribute(AttributeKey.longKey(startAttribute));
+        Long endDemand = span.getAttribute(AttributeKey.longKey(endAttribute));
+        return startDemand != null && endDemand != null ? endDemand - startDemand : 0;
     }
 
     /**
@@ -0,0 +1,174 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.emissions;
+
+import io.retit.opentelemetry.javaagent.extension.emissions.embodied.EmbodiedEmissions;
+import io.retit.opentelemetry.javaagent.extension.energy.MemoryEnergyData;
+import io.retit.opentelemetry.javaagent.extension.energy.NetworkEnergyData;
+import io.retit.opentelemetry.javaagent.extension.energy.StorageEnergyData;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculates the energy and the software carbon intensity (SCI) of a single transaction from its resource demand vector.
+ * This is the same calculation the Grafana dashboards of the examples do based on the published coefficients:
+ * <ul>
+ *     <li>the CPU energy is the CPU time multiplied by the power of a vCPU at the current CPU utilization of the process,
+ *     interpolated between the idle and the full load power,</li>
+ *     <li>the memory, storage and network energy is the demand in GB multiplied by the energy per GB and minute,</li>
+ *     <li>the operational emissions are the energy multiplied by the PUE and the grid emissions factor and</li>
+ *     <li>the embodied emissions of a minute are shared by the transactions according to their share of the CPU time
+ *     of the process.</li>
+ * </ul>
+ */
+public final class SoftwareCarbonIntensityCalculator {
+
+    private static final double NANOSECONDS_PER_HOUR = TimeUnit.HOURS.toNanos(1);
+    private static final double NANOSECONDS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+    private static final double BYTES_PER_GB = 1_000_000_000.0;
+    private static final double WATT_HOURS_PER_KWH = 1_000.0;
+    private static final double GRAMS_PER_METRIC_TON = 1_000_000.0;
+    private static final double MILLIGRAMS_PER_GRAM = 1_000.0;
+    private static final long SAMPLING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final double cpuPowerIdle;
+    private final double cpuPowerFullLoad;
+    private final double vCpuCount;
+    private final double memoryKwhPerGBMinute;
+    private final double storageKwhPerGBMinute;
+    private final double networkKwhPerGBMinute;
+    private final double pue;
+    private final double gridEmissionsFactorMetricTonPerKwh;
+    private final double embodiedEmissionsMilliGramPerMinute;
+
+    private long lastProcessCpuTime = -1;
+    private long lastSampleTime;
+    private volatile double cpuUtilization;
+    private volatile double processCpuTimePerMinute;
+
+    /**
+     * Creates a new calculator.
+     *
+     * @param cpuPowerIdle                        - the power of a vCPU in idle in W.
+     * @param cpuPowerFullLoad                    - the power of a vCPU at 100% utilization in W.
+     * @param vCpuCount                           - the number of vCPUs of the instance.
+     * @param memoryKwhPerGBMinute                - the memory energy in kWh per GB and minute.
+     * @param storageKwhPerGBMinute               - the storage energy in kWh per GB and minute.
+     * @param networkKwhPerGBMinute               - the network energy in kWh per GB and minute.
+     * @param pue                                 - the power usage effectiveness of the datacenter.
+     * @param gridEmissionsFactorMetricTonPerKwh  - the grid emissions factor in metric tons CO2e per kWh.
+     * @param embodiedEmissionsMilliGramPerMinute - the embodied emissions of the instance in mg CO2e per minute.
+     */
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    public SoftwareCarbonIntensityCalculator(final double cpuPowerIdle, final double cpuPowerFullLoad, final double vCpuCount,
+                                             final double memoryKwhPerGBMinute, final double storageKwhPerGBMinute, final double networkKwhPerGBMinute,
+                                             final double pue, final double gridEmissionsFactorMetricTonPerKwh, final double embodiedEmissionsMilliGramPerMinute) {
+        this.cpuPowerIdle = cpuPowerIdle;
+        this.cpuPowerFullLoad = cpuPowerFullLoad;
+        this.vCpuCount = vCpuCount > 0 ? vCpuCount : Runtime.getRuntime().availableProcessors();
+        this.memoryKwhPerGBMinute = memoryKwhPerGBMinute;
+        this.storageKwhPerGBMinute = storageKwhPerGBMinute;
+        this.networkKwhPerGBMinute = networkKwhPerGBMinute;
+        this.pue = pue > 0 ? pue : 1;
+        this.gridEmissionsFactorMetricTonPerKwh = gridEmissionsFactorMetricTonPerKwh;
+        this.embodiedEmissionsMilliGramPerMinute = embodiedEmissionsMilliGramPerMinute;
+    }
+
+    /**
+     * Creates a calculator with the coefficients of the configured cloud provider, region and instance type.
+     *
+     * @return a new calculator.
+     */
+    public static SoftwareCarbonIntensityCalculator fromConfiguration() {
+        CloudCarbonFootprintData cloudCarbonFootprintData = CloudCarbonFootprintData.getConfigInstance();
+        CloudCarbonFootprintInstanceData instanceData = cloudCarbonFootprintData.getCloudInstanceDetails();
+        return new SoftwareCarbonIntensityCalculator(instanceData.getCpuPowerConsumptionIdle(), instanceData.getCpuPowerConsumption100Percent(),
+                instanceData.getInstanceVCpuCount(), MemoryEnergyData.getInstance().getKwhPerGBMinute(),
+                StorageEnergyData.getInstance().getKwhPerGBMinute(), NetworkEnergyData.getInstance().getKwhPerGBMinute(),
+                getOrZero(cloudCarbonFootprintData.getPueValue()), getOrZero(cloudCarbonFootprintData.getGridEmissionsFactor()),
+                EmbodiedEmissions.getInstance().calculateEmbodiedEmissionsInMilliGramPerMinute());
+    }
+
+    private static double getOrZero(final Double value) {
+        return value != null ? value : 0;
+    }
+
+    /**
+     * Updates the CPU utilization of the process, at most every ten seconds.
+     *
+     * @param processCpuTime - the CPU time of the process in ns.
+     * @param nanoTime       - the current {@link System#nanoTime()}.
+     */
+    public synchronized void updateProcessCpuTime(final long processCpuTime, final long nanoTime) {
+        if (lastProcessCpuTime < 0) {
+            lastProcessCpuTime = processCpuTime;
+            lastSampleTime = nanoTime;
+            return;
+        }
+        long elapsedTime = nanoTime - lastSampleTime;
+        if (elapsedTime < SAMPLING_INTERVAL_NANOS) {
+            return;
+        }
+        long usedCpuTime = Math.max(0, processCpuTime - lastProcessCpuTime);
+        cpuUtilization = Math.min(1, usedCpuTime / (elapsedTime * vCpuCount));
+        processCpuTimePerMinute = usedCpuTime * (NANOSECONDS_PER_MINUTE / elapsedTime);
+        lastProcessCpuTime = processCpuTime;
+        lastSampleTime = nanoTime;
+    }
+
+    /**
+     * Calculates the energy consumed by a transaction including the overhead of the datacenter.
+     *
+     * @param cpuTime - the CPU demand in ns.
+     * @param heap    - the heap demand in bytes.
+     * @param storage - the storage demand in bytes.
+     * @param network - the network demand in bytes.
+     * @return the energy in kWh.
+     */
+    public double calculateEnergyInKwh(final long cpuTime, final long heap, final long storage, final long network) {
+        double cpuPower = cpuPowerIdle + cpuUtilization * (cpuPowerFullLoad - cpuPowerIdle);
+        double cpuEnergy = Math.max(0, cpuTime) / NANOSECONDS_PER_HOUR * cpuPower / WATT_HOURS_PER_KWH;
+        double memoryEnergy = Math.max(0, heap) / BYTES_PER_GB * memoryKwhPerGBMinute;
+        double storageEnergy = Math.max(0, storage) / BYTES_PER_GB * storageKwhPerGBMinute;
+        double networkEnergy = Math.max(0, network) / BYTES_PER_GB * networkKwhPerGBMinute;
+        return (cpuEnergy + memoryEnergy + storageEnergy + networkEnergy) * pue;
+    }
+
+    /**
+     * Calculates the operational and embodied emissions of a transaction.
+     *
+     * @param cpuTime - the CPU demand in ns.
+     * @param heap    - the heap demand in bytes.
+     * @param storage - the storage demand in bytes.
+     * @param network - the network demand in bytes.
+     * @return the emissions in g CO2e.
+     */
+    public double calculateEmissionsInGram(final long cpuTime, final long heap, final long storage, final long network) {
+        double operationalEmissions = calculateEnergyInKwh(cpuTime, heap, storage, network) * gridEmissionsFactorMetricTonPerKwh * GRAMS_PER_METRIC_TON;
+        double cpuTimePerMinute = processCpuTimePerMinute;
+        if (cpuTimePerMinute <= 0) {
+            // until the first utilization sample, the embodied emissions are shared by the capacity of all vCPUs
+            cpuTimePerMinute = NANOSECONDS_PER_MINUTE * vCpuCount;
+        }
+        double embodiedEmissions = embodiedEmissionsMilliGramPerMinute / MILLIGRAMS_PER_GRAM * Math.min(1, Math.max(0, cpuTime) / cpuTimePerMinute);
+        return operationalEmissions + embodiedEmissions;
+    }
+
+    public double getCpuUtilization() {
+        return cpuUtilization;
+    }
+}
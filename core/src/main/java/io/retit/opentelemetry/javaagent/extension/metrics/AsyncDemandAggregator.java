@@ -0,0 +1,209 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decouples the aggregation of resource demand records from the threads producing them. Producers only add a
+ * record to a {@link DemandRecordRingBuffer}, a background daemon thread drains the ring buffer and passes the records
+ * to the consumer. If the ring buffer is full, records are dropped instead of blocking the producer and counted.
+ * The background thread parks while the ring buffer is empty and is unparked by the producer adding the next record.
+ * Records for which the consumer fails are counted as well. The queued records can be published on demand by
+ * {@link #flush(long)}, and are published before the background thread terminates on {@link #shutdown(long)}.
+ *
+ * @param <T> the type of the reference stored with every record.
+ */
+final class AsyncDemandAggregator<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncDemandAggregator.class.getName());
+
+    private static final long FLUSH_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final DemandRecordRingBuffer<T> ringBuffer;
+    private final DemandRecordRingBuffer.DemandRecordConsumer<T> consumer;
+    private final LongAdder droppedRecords = new LongAdder();
+    private final LongAdder processedRecords = new LongAdder();
+    private final LongAdder failedRecords = new LongAdder();
+    private final DemandRecordRingBuffer.DemandRecordConsumer<T> countingConsumer = this::consume;
+    private final Thread aggregatorThread;
+    private final Object drainLock = new Object();
+    private volatile boolean running = true;
+    private volatile boolean waiting;
+
+    /**
+     * Creates the aggregator and starts its background thread.
+     *
+     * @param capacity - the capacity of the ring buffer.
+     * @param consumer - the consumer of the records, called on the background thread only.
+     */
+    AsyncDemandAggregator(final int capacity, final DemandRecordRingBuffer.DemandRecordConsumer<T> consumer) {
+        this.ringBuffer = new DemandRecordRingBuffer<>(capacity);
+        this.consumer = consumer;
+        this.aggregatorThread = new Thread(this::aggregate, "retit-resource-demand-aggregator");
+        this.aggregatorThread.setDaemon(true);
+        this.aggregatorThread.start();
+    }
+
+    /**
+     * Adds a record without blocking.
+     *
+     * @param cpu       - the CPU demand.
+     * @param heap      - the heap demand.
+     * @param storage   - the storage demand.
+     * @param network   - the network demand.
+     * @param reference - the reference stored with the record.
+     * @return true if the record was added, false if it was dropped as the ring buffer is full or the aggregator has been shut down.
+     */
+    boolean submit(final long cpu, final long heap, final long storage, final long network, final T reference) {
+        if (!running || !ringBuffer.offer(cpu, heap, storage, network, reference)) {
+            droppedRecords.increment();
+            return false;
+        }
+        if (!running) {
+            // the background thread may have drained the ring buffer for the last time before the record was added
+            drain();
+        } else if (waiting) {
+            LockSupport.unpark(aggregatorThread);
+        }
+        return true;
+    }
+
+    private void aggregate() {
+        while (running) {
+            if (drain() == 0) {
+                waiting = true;
+                // a record added before the flag was set does not unpark this thread
+                if (running && ringBuffer.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            }
+        }
+        // the records added until the shutdown are still published
+        drain();
+    }
+
+    /**
+     * Drains the ring buffer, which is done by the background thread and after the shutdown by the producers, too.
+     *
+     * @return the number of drained records.
+     */
+    private int drain() {
+        synchronized (drainLock) {
+            return ringBuffer.drain(countingConsumer);
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void consume(final long cpu, final long heap, final long storage, final long network, final T reference) {
+        try {
+            consumer.accept(cpu, heap, storage, network, reference);
+            processedRecords.increment();
+        } catch (RuntimeException e) {
+            // the aggregator must survive failures of single records
+            failedRecords.increment();
+            LOGGER.log(Level.WARNING, "Could not aggregate resource demand record " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Waits until the records added before this call have been passed to the consumer.
+     *
+     * @param timeoutNanos - the maximum time to wait in ns.
+     * @return true if the records have been passed to the consumer within the timeout.
+     */
+    boolean flush(final long timeoutNanos) {
+        long addedRecords = ringBuffer.addedRecords();
+        long deadline = System.nanoTime() + timeoutNanos;
+        LockSupport.unpark(aggregatorThread);
+        while (processedRecords.sum() + failedRecords.sum() < addedRecords) {
+            if (!aggregatorThread.isAlive() || System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, FLUSH_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting records and waits until the background thread passed the queued records to the consumer
+     * and terminated.
+     *
+     * @param timeoutNanos - the maximum time to wait in ns.
+     * @return true if the background thread terminated within the timeout.
+     */
+    boolean shutdown(final long timeoutNanos) {
+        running = false;
+        LockSupport.unpark(aggregatorThread);
+        try {
+            aggregatorThread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !aggregatorThread.isAlive();
+    }
+
+    /**
+     * Returns the number of records dropped as the ring buffer was full.
+     *
+     * @return the number of dropped records.
+     */
+    long getDroppedRecords() {
+        return droppedRecords.sum();
+    }
+
+    /**
+     * Returns the number of records the consumer processed successfully.
+     *
+     * @return the number of processed records.
+     */
+    long getProcessedRecords() {
+        return processedRecords.sum();
+    }
+
+    /**
+     * Returns the number of records for which the consumer failed.
+     *
+     * @return the number of failed records.
+     */
+    long getFailedRecords() {
+        return failedRecords.sum();
+    }
+
+    /**
+     * Returns the approximate number of records waiting for the aggregation.
+     *
+     * @return the number of queued records.
+     */
+    long getQueuedRecords() {
+        return ringBuffer.size();
+    }
+
+    /**
+     * Returns the capacity of the ring buffer.
+     *
+     * @return the capacity.
+     */
+    int getCapacity() {
+        return ringBuffer.capacity();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts nanoseconds to whole milliseconds without losing the fractions. The nanoseconds which do not make up a
+ * full millisecond are carried over to the next conversion of the same key, e.g., the attributes of a metric, so the
+ * sum of the converted milliseconds of a key differs from the sum of its nanoseconds by less than one millisecond.
+ * The remainders are bounded, if too many keys are converted, the remainder of an arbitrary key is dropped.
+ *
+ * @param <K> the type of the keys.
+ */
+final class CarryOverMillisecondConverter<K> {
+
+    static final int DEFAULT_MAX_KEYS = 1024;
+
+    private static final long NANOSECONDS_PER_MILLISECOND = 1_000_000;
+
+    private final ConcurrentHashMap<K, AtomicLong> remainders = new ConcurrentHashMap<>();
+    private final int maxKeys;
+
+    /**
+     * Creates a new converter with at most {@link #DEFAULT_MAX_KEYS} remainders.
+     */
+    CarryOverMillisecondConverter() {
+        this(DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * Creates a new converter.
+     *
+     * @param maxKeys - the maximum number of keys whose remainders are kept.
+     */
+    CarryOverMillisecondConverter(final int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Adds the nanoseconds to the remainder of the key and returns the whole milliseconds of the sum.
+     *
+     * @param key         - the key, e.g., the attributes of the metric the milliseconds are added to.
+     * @param nanoseconds - the nanoseconds to convert.
+     * @return the whole milliseconds, the fraction is carried over.
+     */
+    long toMilliseconds(final K key, final long nanoseconds) {
+        AtomicLong remainder = getOrCreateRemainder(key);
+        long current;
+        long milliseconds;
+        long next;
+        do {
+            current = remainder.get();
+            long total = current + nanoseconds;
+            milliseconds = total / NANOSECONDS_PER_MILLISECOND;
+            next = total - milliseconds * NANOSECONDS_PER_MILLISECOND;
+        } while (!remainder.compareAndSet(current, next));
+        return milliseconds;
+    }
+
+    /**
+     * Returns the nanoseconds of the key which have not been converted yet.
+     *
+     * @param key - the key.
+     * @return the remainder in ns.
+     */
+    long getRemainder(final K key) {
+        AtomicLong remainder = remainders.get(key);
+        return remainder != null ? remainder.get() : 0;
+    }
+
+    private AtomicLong getOrCreateRemainder(final K key) {
+        AtomicLong remainder = remainders.get(key);
+        if (remainder != null) {
+            return remainder;
+        }
+        if (remainders.size() >= maxKeys) {
+            Iterator<K> iterator = remainders.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return remainders.computeIfAbsent(key, k -> new AtomicLong());
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi producer single consumer ring buffer of resource demand records.
+ * A record consists of the four primitive demand values and a reference, e.g., to the attributes of a transaction.
+ * Every slot carries a sequence number which tells producers and the consumer whether the slot is free or published,
+ * so producers only contend on a single compare-and-set of the producer index and never block.
+ *
+ * @param <T> the type of the reference stored with every record.
+ */
+final class DemandRecordRingBuffer<T> {
+
+    private static final int CPU = 0;
+    private static final int HEAP = 1;
+    private static final int STORAGE = 2;
+    private static final int NETWORK = 3;
+    private static final int VALUES_PER_RECORD = 4;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] values;
+    private final Object[] references;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private volatile long consumerIndex;
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param requestedCapacity - the minimum number of records, the capacity is rounded up to the next power of two.
+     */
+    DemandRecordRingBuffer(final int requestedCapacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, requestedCapacity) - 1) << 1;
+        this.mask = capacity - 1;
+        this.values = new long[capacity * VALUES_PER_RECORD];
+        this.references = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds a record to the ring buffer, can be called by any thread.
+     *
+     * @param cpu       - the CPU demand.
+     * @param heap      - the heap demand.
+     * @param storage   - the storage demand.
+     * @param network   - the network demand.
+     * @param reference - the reference stored with the record.
+     * @return true if the record was added, false if the ring buffer is full.
+     */
+    boolean offer(final long cpu, final long heap, final long storage, final long network, final T reference) {
+        long index = producerIndex.get();
+        int slot;
+        while (true) {
+            slot = (int) index & mask;
+            long difference = sequences.get(slot) - index;
+            if (difference == 0) {
+                if (producerIndex.compareAndSet(index, index + 1)) {
+                    break;
+                }
+                index = producerIndex.get();
+            } else if (difference < 0) {
+                // the slot still holds a record which has not been consumed yet
+                return false;
+            } else {
+                index = producerIndex.get();
+            }
+        }
+        int offset = slot * VALUES_PER_RECORD;
+        values[offset + CPU] = cpu;
+        values[offset + HEAP] = heap;
+        values[offset + STORAGE] = storage;
+        values[offset + NETWORK] = network;
+        references[slot] = reference;
+        // a volatile write, so a producer reading a flag of the consumer afterward cannot miss the consumer reading the slot
+        sequences.set(slot, index + 1);
+        return true;
+    }
+
+    /**
+     * Passes all published records to the given consumer, must only be called by a single thread at a time.
+     *
+     * @param consumer - the consumer of the records.
+     * @return the number of consumed records.
+     */
+    @SuppressWarnings("unchecked")
+    int drain(final DemandRecordConsumer<T> consumer) {
+        long index = consumerIndex;
+        int drained = 0;
+        while (true) {
+            int slot = (int) index & mask;
+            if (sequences.get(slot) != index + 1) {
+                break;
+            }
+            int offset = slot * VALUES_PER_RECORD;
+            T reference = (T) references[slot];
+            references[slot] = null;
+            long cpu = values[offset + CPU];
+            long heap = values[offset + HEAP];
+            long storage = values[offset + STORAGE];
+            long network = values[offset + NETWORK];
+            // release the slot before consuming the record, so producers are not blocked by the consumer
+            sequences.lazySet(slot, index + capacity);
+            index++;
+            consumerIndex = index;
+            drained++;
+            consumer.accept(cpu, heap, storage, network, reference);
+        }
+        return drained;
+    }
+
+    /**
+     * Returns whether the next record has not been published yet, must only be called by the consumer thread.
+     *
+     * @return true if there is no record to drain.
+     */
+    boolean isEmpty() {
+        long index = consumerIndex;
+        return sequences.get((int) index & mask) != index + 1;
+    }
+
+    /**
+     * Returns the number of records which have been added to the ring buffer since it has been created.
+     *
+     * @return the number of added records.
+     */
+    long addedRecords() {
+        return producerIndex.get();
+    }
+
+    /**
+     * Returns the approximate number of records in the ring buffer.
+     *
+     * @return the number of records.
+     */
+    long size() {
+        return Math.max(0, producerIndex.get() - consumerIndex);
+    }
+
+    /**
+     * Returns the capacity of the ring buffer.
+     *
+     * @return the capacity.
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Consumer of the records of a {@link DemandRecordRingBuffer}.
+     *
+     * @param <T> the type of the reference stored with every record.
+     */
+    @FunctionalInterface
+    interface DemandRecordConsumer<T> {
+
+        /**
+         * Consumes a record.
+         *
+         * @param cpu       - the CPU demand.
+         * @param heap      - the heap demand.
+         * @param storage   - the storage demand.
+         * @param network   - the network demand.
+         * @param reference - the reference stored with the record.
+         */
+        void accept(long cpu, long heap, long storage, long network, T reference);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded cache of the attributes the resource demand metrics are published with.
+ * The attributes of a span are reduced to the attributes which are not in an excluded namespace and, if an
+ * allow-list is configured, on the allow-list. Spans with the same values for these attributes share one
+ * {@link Attributes} instance, so it is only built once and the metrics SDK can reuse its aggregation handle.
+ * The cache is looked up without locking and without allocating a key, as the relevant attributes of a span are
+ * collected into a reused key of the calling thread. Only a new attribute set copies the key. If the cache is full,
+ * an arbitrary attribute set is evicted, which approximates the eviction of rarely used attribute sets as frequently
+ * used attribute sets are added again right away.
+ */
+final class FilteredAttributesCache {
+
+    private final String[] excludedNamespaces;
+    private final Set<String> allowedAttributes;
+    private final int maxSize;
+    private final ConcurrentHashMap<FilteredAttributesKey, Attributes> cache = new ConcurrentHashMap<>();
+    private final ThreadLocal<FilteredAttributesKey> lookupKey = ThreadLocal.withInitial(FilteredAttributesKey::new);
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize            - the maximum number of cached attribute sets, 0 disables the cache.
+     * @param allowedAttributes  - comma separated list of attribute names which are kept, all attributes are kept if empty.
+     * @param excludedNamespaces - the prefixes of attribute names which are never kept.
+     */
+    FilteredAttributesCache(final int maxSize, final String allowedAttributes, final String... excludedNamespaces) {
+        this.excludedNamespaces = excludedNamespaces.clone();
+        this.allowedAttributes = parseAllowedAttributes(allowedAttributes);
+        this.maxSize = maxSize;
+    }
+
+    private static Set<String> parseAllowedAttributes(final String commaSeparatedAttributes) {
+        Set<String> attributes = new HashSet<>();
+        if (commaSeparatedAttributes != null) {
+            for (String attribute : commaSeparatedAttributes.split(",")) {
+                String trimmedAttribute = attribute.trim();
+                if (!trimmedAttribute.isEmpty()) {
+                    attributes.add(trimmedAttribute);
+                }
+            }
+        }
+        return Collections.unmodifiableSet(attributes);
+    }
+
+    /**
+     * Returns the attributes of the given span attributes which are relevant for the metrics.
+     *
+     * @param spanAttributes - the attributes of the span.
+     * @return the filtered attributes, the same instance for equal filtered attributes as long as they are cached.
+     */
+    Attributes getFilteredAttributes(final Attributes spanAttributes) {
+        if (maxSize <= 0) {
+            return filter(spanAttributes);
+        }
+        FilteredAttributesKey key = lookupKey.get();
+        key.collect(this, spanAttributes);
+        Attributes filteredAttributes = cache.get(key);
+        if (filteredAttributes != null) {
+            return filteredAttributes;
+        }
+
+        filteredAttributes = filter(spanAttributes);
+        if (cache.size() >= maxSize) {
+            evictAttributeSet();
+        }
+        Attributes cachedAttributes = cache.putIfAbsent(key.copy(), filteredAttributes);
+        return cachedAttributes != null ? cachedAttributes : filteredAttributes;
+    }
+
+    private Attributes filter(final Attributes spanAttributes) {
+        AttributesBuilder attributesBuilder = Attributes.builder();
+        attributesBuilder.putAll(spanAttributes);
+        attributesBuilder.removeIf(key -> !isRelevant(key.getKey()));
+        return attributesBuilder.build();
+    }
+
+    private void evictAttributeSet() {
+        Iterator<FilteredAttributesKey> iterator = cache.keySet().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private boolean isRelevant(final String key) {
+        if (!allowedAttributes.isEmpty() && !allowedAttributes.contains(key)) {
+            return false;
+        }
+        for (String namespace : excludedNamespaces) {
+            if (key.startsWith(namespace)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of cached attribute sets.
+     *
+     * @return the number of cached attribute sets.
+     */
+    int size() {
+        return cache.size();
+    }
+
+    /**
+     * The relevant attribute keys and values of a span in the order of the {@link Attributes}, which are sorted by key.
+     * The lookup key of a thread is reset and refilled for every span, the keys in the cache are immutable copies.
+     */
+    private static final class FilteredAttributesKey implements BiConsumer<AttributeKey<?>, Object> {
+
+        private FilteredAttributesCache owner;
+        private Object[] keysAndValues;
+        private int length;
+        private int hash;
+
+        FilteredAttributesKey() {
+            this(new Object[16], 0, 1);
+        }
+
+        private FilteredAttributesKey(final Object[] keysAndValues, final int length, final int hash) {
+            this.keysAndValues = keysAndValues;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        void collect(final FilteredAttributesCache cache, final Attributes spanAttributes) {
+            owner = cache;
+            length = 0;
+            hash = 1;
+            spanAttributes.forEach(this);
+            owner = null;
+        }
+
+        @Override
+        public void accept(final AttributeKey<?> key, final Object value) {
+            if (!owner.isRelevant(key.getKey())) {
+                return;
+            }
+            if (length + 2 > keysAndValues.length) {
+                keysAndValues = Arrays.copyOf(keysAndValues, keysAndValues.length * 2);
+            }
+            keysAndValues[length++] = key;
+            keysAndValues[length++] = value;
+            hash = 31 * (31 * hash + key.hashCode()) + value.hashCode();
+        }
+
+        FilteredAttributesKey copy() {
+            return new FilteredAttributesKey(Arrays.copyOf(keysAndValues, length), length, hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof FilteredAttributesKey)) {
+                return false;
+            }
+            FilteredAttributesKey otherKey = (FilteredAttributesKey) other;
+            if (hash != otherKey.hash || length != otherKey.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (!keysAndValues[i].equals(otherKey.keysAndValues[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Attributes the cost of garbage collections to the routes whose allocations caused them. The bytes allocated by the
+ * transactions of every route are summed up in a sliding window, which consists of {@link #WINDOW_BUCKETS} time
+ * buckets per route. The cost of a collection is apportioned to the routes in proportion to their share of the bytes
+ * allocated within the window. Adding allocated bytes is lock-free, only the first addition to a new time bucket
+ * of a route resets the bucket under the lock of the route.
+ * The number of routes is bounded, the allocations of further routes are added to a shared route. Routes without
+ * allocations in the window are removed when a collection is apportioned.
+ *
+ * @param <K> the type of the route.
+ */
+final class GcCostAttribution<K> {
+
+    static final int WINDOW_BUCKETS = 6;
+
+    private final long bucketNanos;
+    private final long originNanos;
+    private final int maxRoutes;
+    private final K otherRoutes;
+    private final Map<K, RouteAllocations> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new attribution.
+     *
+     * @param windowNanos - the length of the sliding window in ns.
+     * @param maxRoutes   - the maximum number of routes which are tracked separately.
+     * @param otherRoutes - the route to which the allocations of further routes are added.
+     * @param nanoTime    - the current {@link System#nanoTime()}.
+     */
+    GcCostAttribution(final long windowNanos, final int maxRoutes, final K otherRoutes, final long nanoTime) {
+        this.bucketNanos = Math.max(1, windowNanos / WINDOW_BUCKETS);
+        this.originNanos = nanoTime;
+        this.maxRoutes = maxRoutes;
+        this.otherRoutes = otherRoutes;
+    }
+
+    /**
+     * Adds the bytes allocated by a transaction of a route.
+     *
+     * @param route          - the route of the transaction.
+     * @param allocatedBytes - the bytes allocated by the transaction.
+     * @param nanoTime       - the current {@link System#nanoTime()}.
+     */
+    void addAllocatedBytes(final K route, final long allocatedBytes, final long nanoTime) {
+        if (allocatedBytes <= 0) {
+            return;
+        }
+        RouteAllocations allocations = routes.get(route);
+        if (allocations == null) {
+            K trackedRoute = routes.size() < maxRoutes ? route : otherRoutes;
+            allocations = routes.computeIfAbsent(trackedRoute, unused -> new RouteAllocations());
+        }
+        allocations.add(getBucket(nanoTime), allocatedBytes);
+    }
+
+    /**
+     * Apportions the cost of a collection to the routes in proportion to their share of the bytes allocated within
+     * the window. The shares of all routes sum up to 1. Nothing is apportioned if no bytes have been allocated.
+     *
+     * @param nanoTime - the current {@link System#nanoTime()}.
+     * @param consumer - receives the share of every route which allocated bytes within the window.
+     * @return the number of routes to which the cost has been apportioned.
+     */
+    int apportion(final long nanoTime, final ShareConsumer<K> consumer) {
+        long bucket = getBucket(nanoTime);
+        List<K> allocatingRoutes = new ArrayList<>(routes.size());
+        long[] allocatedBytes = new long[routes.size()];
+        long totalAllocatedBytes = 0;
+
+        Iterator<Map.Entry<K, RouteAllocations>> iterator = routes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, RouteAllocations> route = iterator.next();
+            long routeAllocatedBytes = route.getValue().sum(bucket);
+            if (routeAllocatedBytes == 0) {
+                // bytes which are added while an idle route is removed are not attributed
+                iterator.remove();
+            } else if (allocatingRoutes.size() < allocatedBytes.length) {
+                allocatedBytes[allocatingRoutes.size()] = routeAllocatedBytes;
+                allocatingRoutes.add(route.getKey());
+                totalAllocatedBytes += routeAllocatedBytes;
+            }
+        }
+
+        for (int i = 0; i < allocatingRoutes.size(); i++) {
+            consumer.accept(allocatingRoutes.get(i), (double) allocatedBytes[i] / totalAllocatedBytes);
+        }
+        return allocatingRoutes.size();
+    }
+
+    private long getBucket(final long nanoTime) {
+        return Math.max(0, nanoTime - originNanos) / bucketNanos;
+    }
+
+    /**
+     * Receives the share of a route in the cost of a collection.
+     *
+     * @param <K> the type of the route.
+     */
+    @FunctionalInterface
+    interface ShareConsumer<K> {
+
+        /**
+         * Consumes the share of a route.
+         *
+         * @param route - the route.
+         * @param share - the share of the route between 0 and 1.
+         */
+        void accept(K route, double share);
+    }
+
+    /**
+     * The bytes allocated by a route in the time buckets of the sliding window. A slot holds the bytes of a bucket
+     * and the number of that bucket, so a slot of a bucket which has left the window is recognized and reset.
+     */
+    private static final class RouteAllocations {
+
+        private final AtomicLongArray allocatedBytes = new AtomicLongArray(WINDOW_BUCKETS);
+        private final AtomicLongArray buckets = new AtomicLongArray(WINDOW_BUCKETS);
+
+        RouteAllocations() {
+            for (int slot = 0; slot < WINDOW_BUCKETS; slot++) {
+                buckets.set(slot, -1);
+            }
+        }
+
+        void add(final long bucket, final long bytes) {
+            int slot = (int) (bucket % WINDOW_BUCKETS);
+            if (buckets.get(slot) < bucket) {
+                synchronized (this) {
+                    if (buckets.get(slot) < bucket) {
+                        // the bytes are reset before the bucket is published, so no addition to the new bucket is lost
+                        allocatedBytes.set(slot, 0);
+                        buckets.set(slot, bucket);
+                    }
+                }
+            }
+            // a thread which determined its bucket before the rotation adds its bytes to the newer bucket
+            allocatedBytes.addAndGet(slot, bytes);
+        }
+
+        long sum(final long currentBucket) {
+            long sum = 0;
+            for (int slot = 0; slot < WINDOW_BUCKETS; slot++) {
+                if (buckets.get(slot) > currentBucket - WINDOW_BUCKETS) {
+                    sum += allocatedBytes.get(slot);
+                }
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.retit.opentelemetry.javaagent.extension.emissions.SoftwareCarbonIntensityCalculator;
+
+/**
+ * Publishes the CPU time and energy of the garbage collections per route, apportioned by the {@link GcCostAttribution}
+ * according to the share of the bytes the transactions of a route allocated.
+ */
+final class GcCostMetricPublisher {
+
+    private static final double NANOSECONDS_PER_MILLISECOND = 1_000_000.0;
+
+    private final GcCostAttribution<Attributes> gcCostAttribution;
+    private final SoftwareCarbonIntensityCalculator softwareCarbonIntensityCalculator;
+    private final DoubleCounter gcCpuDemandMetricPublisher;
+    private final DoubleCounter gcEnergyMetricPublisher;
+
+    /**
+     * Creates the instruments of the GC cost metrics.
+     *
+     * @param meter                             - the meter of the extension.
+     * @param gcCostAttribution                 - the attribution of the allocations of the routes.
+     * @param softwareCarbonIntensityCalculator - the calculator of the energy or null if the energy is not published.
+     */
+    GcCostMetricPublisher(final Meter meter, final GcCostAttribution<Attributes> gcCostAttribution,
+                          final SoftwareCarbonIntensityCalculator softwareCarbonIntensityCalculator) {
+        this.gcCostAttribution = gcCostAttribution;
+        this.softwareCarbonIntensityCalculator = softwareCarbonIntensityCalculator;
+        gcCpuDemandMetricPublisher = meter.counterBuilder("io.retit.resource.demand.gc.cpu.ms").ofDoubles().setUnit("ms")
+                .setDescription("CPU time of the garbage collections attributed to the transactions according to their share of the allocated bytes in ms").build();
+        gcEnergyMetricPublisher = softwareCarbonIntensityCalculator == null ? null
+                : meter.counterBuilder("io.retit.emissions.gc.energy.kwh").ofDoubles().setUnit("kWh")
+                .setDescription("Energy of the garbage collections attributed to the transactions according to their share of the allocated bytes in kWh").build();
+    }
+
+    /**
+     * Adds the bytes allocated by a transaction of a route.
+     *
+     * @param route          - the filtered attributes of the transaction.
+     * @param allocatedBytes - the bytes allocated by the transaction.
+     */
+    void addAllocatedBytes(final Attributes route, final long allocatedBytes) {
+        gcCostAttribution.addAllocatedBytes(route, allocatedBytes, System.nanoTime());
+    }
+
+    /**
+     * Apportions the CPU time of a garbage collection and its energy to the routes.
+     *
+     * @param gcCpuTime - the CPU time of the garbage collection in ns.
+     */
+    void publishGcCpuTime(final long gcCpuTime) {
+        double gcCpuTimeInMilliseconds = gcCpuTime / NANOSECONDS_PER_MILLISECOND;
+        double gcEnergy = softwareCarbonIntensityCalculator != null ? softwareCarbonIntensityCalculator.calculateEnergyInKwh(gcCpuTime, 0, 0, 0) : 0;
+        gcCostAttribution.apportion(System.nanoTime(), (route, share) -> {
+            gcCpuDemandMetricPublisher.add(gcCpuTimeInMilliseconds * share, route);
+            if (gcEnergyMetricPublisher != null) {
+                gcEnergyMetricPublisher.add(gcEnergy * share, route);
+            }
+        });
+    }
+}
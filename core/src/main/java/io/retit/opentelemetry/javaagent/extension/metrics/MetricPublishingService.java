@@ -21,21 +21,31 @@ import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.metrics.DoubleHistogram;
 import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.api.metrics.Meter;
 import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
 import io.opentelemetry.api.metrics.ObservableLongMeasurement;
 import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
 import io.retit.opentelemetry.javaagent.extension.commons.Constants;
+import io.retit.opentelemetry.javaagent.extension.commons.InstanceConfiguration;
 import io.retit.opentelemetry.javaagent.extension.commons.TelemetryUtils;
 import io.retit.opentelemetry.javaagent.extension.emissions.CloudCarbonFootprintData;
+import io.retit.opentelemetry.javaagent.extension.emissions.SoftwareCarbonIntensityCalculator;
 import io.retit.opentelemetry.javaagent.extension.emissions.embodied.EmbodiedEmissions;
 import io.retit.opentelemetry.javaagent.extension.energy.MemoryEnergyData;
 import io.retit.opentelemetry.javaagent.extension.energy.NetworkEnergyData;
 import io.retit.opentelemetry.javaagent.extension.energy.StorageEnergyData;
 import io.retit.opentelemetry.javaagent.extension.resources.common.CommonResourceDemandDataCollector;
+import io.retit.opentelemetry.javaagent.extension.resources.common.VirtualThreads;
+import io.retit.opentelemetry.javaagent.extension.resources.jvm.VirtualThreadEventStream;
 
 import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -47,6 +57,12 @@ public class MetricPublishingService {
     private static final Logger LOGGER = Logger.getLogger(MetricPublishingService.class.getName());
 
     private static final long NANOSECOND_TO_MILLISECOND_CONVERSION = 1_000_000;
+    private static final long NOT_LOGGED = Long.MIN_VALUE;
+    private static final AttributeKey<String> SPAN_NAME = AttributeKey.stringKey("span.name");
+    private static final int MAX_SPAN_NAMES = 1024;
+    private static final int MAX_ACCUMULATED_TRACES = 100_000;
+    private static final long VIRTUAL_THREAD_TRANSACTION_TIME_TO_LIVE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final Attributes OTHER_SPAN_NAMES = Attributes.of(SPAN_NAME, "other");
     private static final String[] EXCLUDED_ATTRIBUTE_NAMESPACES = {
             Constants.RETIT_NAMESPACE,
             Constants.NETWORK_NAMESPACE,
@@ -62,6 +78,24 @@ public class MetricPublishingService {
     private final LongCounter memoryDemandMetricPublisher;
     private final LongCounter networkDemandMetricPublisher;
     private final LongCounter cpuDemandMetricPublisher;
+    private final LongCounter cpuNanosecondDemandMetricPublisher;
+    private final LongCounter cpuSelfDemandMetricPublisher;
+    private final LongCounter memorySelfDemandMetricPublisher;
+    private final DoubleHistogram cpuDemandDistributionPublisher;
+    private final LongHistogram memoryDemandDistributionPublisher;
+    private final LongHistogram storageDemandDistributionPublisher;
+    private final LongHistogram networkDemandDistributionPublisher;
+    private final SoftwareCarbonIntensityCalculator softwareCarbonIntensityCalculator;
+    private final DoubleHistogram energyPerTransactionPublisher;
+    private final DoubleHistogram emissionsPerTransactionPublisher;
+    private final GcCostMetricPublisher gcCostMetricPublisher;
+    private final Map<String, Attributes> spanNameAttributes = new ConcurrentHashMap<>();
+    private final CarryOverMillisecondConverter<Attributes> cpuDemandConverter = new CarryOverMillisecondConverter<>();
+    private final AsyncDemandAggregator<Attributes> asyncDemandAggregator;
+    private final TraceDemandAccumulator traceDemandAccumulator;
+    private final VirtualThreadDemandAccounting<Attributes> virtualThreadDemandAccounting;
+    private final FilteredAttributesCache filteredAttributesCache = new FilteredAttributesCache(InstanceConfiguration.getMetricsAttributesCacheSize(),
+            InstanceConfiguration.getMetricsAttributesAllowList(), EXCLUDED_ATTRIBUTE_NAMESPACES);
 
     /**
      * Returns the singleton instance of MetricPublishingService, creating it if necessary.
@@ -77,8 +111,15 @@ public class MetricPublishingService {
      * Initializes the meters for storage, CPU, embedded components, and memory emissions.
      */
     private MetricPublishingService() {
+        this(GlobalOpenTelemetry.get().getMeter("opentelemetry-javaagent-extension"));
+    }
 
-        Meter meter = GlobalOpenTelemetry.get().getMeter("opentelemetry-javaagent-extension");
+    /**
+     * Creates a MetricPublishingService which publishes its metrics with the given meter, e.g., of a test meter provider.
+     *
+     * @param meter - the meter of the metrics.
+     */
+    MetricPublishingService(final Meter meter) {
 
         // CPU time of the whole process
         meter.counterBuilder(Constants.SPAN_ATTRIBUTE_PROCESS_CPU_TIME)
@@ -133,6 +174,101 @@ public class MetricPublishingService {
 
         cpuDemandMetricPublisher = meter.counterBuilder("io.retit.resource.demand.cpu.ms").setUnit("ms")
                 .setDescription("CPU demand of a transaction in ms").build();
+
+        cpuNanosecondDemandMetricPublisher = meter.counterBuilder("io.retit.resource.demand.cpu.ns").setUnit("ns")
+                .setDescription("CPU demand of a transaction in ns").build();
+
+        cpuSelfDemandMetricPublisher = meter.counterBuilder("io.retit.resource.demand.cpu.self.ns").setUnit("ns")
+                .setDescription("CPU demand of a span without the CPU demand of its child spans in ns").build();
+
+        memorySelfDemandMetricPublisher = meter.counterBuilder("io.retit.resource.demand.memory.self.bytes").setUnit("bytes")
+                .setDescription("Memory demand of a span without the memory demand of its child spans in bytes").build();
+
+        if (InstanceConfiguration.isResourceDemandHistograms()) {
+            cpuDemandDistributionPublisher = meter.histogramBuilder("io.retit.resource.demand.cpu.distribution.ms").setUnit("ms")
+                    .setDescription("Distribution of the CPU demand per transaction in ms").build();
+            memoryDemandDistributionPublisher = meter.histogramBuilder("io.retit.resource.demand.memory.distribution.bytes").setUnit("bytes")
+                    .setDescription("Distribution of the memory demand per transaction in bytes").ofLongs().build();
+            storageDemandDistributionPublisher = meter.histogramBuilder("io.retit.resource.demand.storage.distribution.bytes").setUnit("bytes")
+                    .setDescription("Distribution of the storage demand per transaction in bytes").ofLongs().build();
+            networkDemandDistributionPublisher = meter.histogramBuilder("io.retit.resource.demand.network.distribution.bytes").setUnit("bytes")
+                    .setDescription("Distribution of the network demand per transaction in bytes").ofLongs().build();
+        } else {
+            cpuDemandDistributionPublisher = null;
+            memoryDemandDistributionPublisher = null;
+            storageDemandDistributionPublisher = null;
+            networkDemandDistributionPublisher = null;
+        }
+
+        if (InstanceConfiguration.isSoftwareCarbonIntensity()) {
+            softwareCarbonIntensityCalculator = SoftwareCarbonIntensityCalculator.fromConfiguration();
+            energyPerTransactionPublisher = meter.histogramBuilder("io.retit.emissions.sci.energy.kwh").setUnit("kWh")
+                    .setDescription("Energy consumed by a transaction in kWh").build();
+            emissionsPerTransactionPublisher = meter.histogramBuilder("io.retit.emissions.sci.gco2e").setUnit("g")
+                    .setDescription("Operational and embodied emissions of a transaction in g CO2e").build();
+        } else {
+            softwareCarbonIntensityCalculator = null;
+            energyPerTransactionPublisher = null;
+            emissionsPerTransactionPublisher = null;
+        }
+
+        if (InstanceConfiguration.isGcCostAttribution()) {
+            gcCostMetricPublisher = new GcCostMetricPublisher(meter, new GcCostAttribution<>(
+                    TimeUnit.MILLISECONDS.toNanos(InstanceConfiguration.getGcCostAttributionWindow()), MAX_SPAN_NAMES, OTHER_SPAN_NAMES, System.nanoTime()),
+                    softwareCarbonIntensityCalculator);
+        } else {
+            gcCostMetricPublisher = null;
+        }
+
+        traceDemandAccumulator = InstanceConfiguration.isTraceDemandAggregation() ? createTraceDemandAccumulator(meter) : null;
+
+        if (InstanceConfiguration.isAsyncMetrics()) {
+            asyncDemandAggregator = new AsyncDemandAggregator<>(InstanceConfiguration.getAsyncMetricsQueueCapacity(), this::publishResourceDemands);
+            registerAsyncDemandAggregatorMetrics(meter, asyncDemandAggregator);
+        } else {
+            asyncDemandAggregator = null;
+        }
+
+        virtualThreadDemandAccounting = InstanceConfiguration.isVirtualThreadAccounting() ? createVirtualThreadDemandAccounting(meter) : null;
+    }
+
+    private static TraceDemandAccumulator createTraceDemandAccumulator(final Meter meter) {
+        TraceDemandAccumulator accumulator = new TraceDemandAccumulator(TimeUnit.MILLISECONDS.toNanos(InstanceConfiguration.getTraceDemandAggregationTimeToLive()), MAX_ACCUMULATED_TRACES);
+        meter.counterBuilder("io.retit.resource.demand.trace.dropped")
+                .setDescription("Transactions whose resource demands on other threads are not included as too many transactions were in progress")
+                .buildWithCallback(measurement -> measurement.record(accumulator.getDroppedTraces()));
+        return accumulator;
+    }
+
+    private VirtualThreadDemandAccounting<Attributes> createVirtualThreadDemandAccounting(final Meter meter) {
+        // the deferred demands are published on the JFR stream thread, so they do not need the asynchronous aggregation
+        VirtualThreadDemandAccounting<Attributes> accounting = new VirtualThreadDemandAccounting<>(InstanceConfiguration.getVirtualThreadAccountingCapacity(),
+                VirtualThreadEventStream.SAMPLING_PERIOD_NANOS, VIRTUAL_THREAD_TRANSACTION_TIME_TO_LIVE_NANOS, this::publishResourceDemands);
+        if (!VirtualThreadEventStream.start(accounting)) {
+            return null;
+        }
+        meter.counterBuilder("io.retit.resource.demand.virtual.thread.dropped")
+                .setDescription("Transactions on virtual threads whose CPU and heap demand are not estimated as too many transactions were in progress")
+                .buildWithCallback(measurement -> measurement.record(accounting.getDroppedTransactions()));
+        return accounting;
+    }
+
+    private static void registerAsyncDemandAggregatorMetrics(final Meter meter, final AsyncDemandAggregator<Attributes> aggregator) {
+        meter.counterBuilder("io.retit.resource.demand.async.records.dropped")
+                .setDescription("Resource demand records dropped as the aggregation queue was full")
+                .buildWithCallback(measurement -> measurement.record(aggregator.getDroppedRecords()));
+
+        meter.counterBuilder("io.retit.resource.demand.async.records.processed")
+                .setDescription("Resource demand records published by the aggregator thread")
+                .buildWithCallback(measurement -> measurement.record(aggregator.getProcessedRecords()));
+
+        meter.counterBuilder("io.retit.resource.demand.async.records.failed")
+                .setDescription("Resource demand records which could not be published by the aggregator thread")
+                .buildWithCallback(measurement -> measurement.record(aggregator.getFailedRecords()));
+
+        meter.gaugeBuilder("io.retit.resource.demand.async.queue.size").ofLongs()
+                .setDescription("Resource demand records waiting for the aggregation")
+                .buildWithCallback(measurement -> measurement.record(aggregator.getQueuedRecords()));
     }
 
     private void publishProcessCPUTime(final ObservableLongMeasurement measurement) {
@@ -150,7 +286,11 @@ public class MetricPublishingService {
                 attributesBuilder.put("io.retit.platform.cpu.count", CloudCarbonFootprintData.getConfigInstance().getCloudInstanceDetails().getPlatformTotalVCpuCount());
             }
 
-            measurement.record(sunOSBean.getProcessCpuTime() / NANOSECOND_TO_MILLISECOND_CONVERSION, attributesBuilder.build());
+            long processCpuTime = sunOSBean.getProcessCpuTime();
+            if (softwareCarbonIntensityCalculator != null) {
+                softwareCarbonIntensityCalculator.updateProcessCpuTime(processCpuTime, System.nanoTime());
+            }
+            measurement.record(processCpuTime / NANOSECOND_TO_MILLISECOND_CONVERSION, attributesBuilder.build());
         }
     }
 
@@ -163,7 +303,13 @@ public class MetricPublishingService {
     }
 
     /**
-     * Publishes the resource demand vector for the current transaction.
+     * Publishes the resource demand vector for the current transaction. In the asynchronous mode, only the demands are
+     * calculated on the calling thread, the attribute filtering and the counter updates are done by the aggregator thread.
+     * If the trace demand aggregation is enabled, the demands of the other spans of the trace added by
+     * {@link #accumulateResourceDemandOfSpan} are included, even if the transaction did not end on the thread it started on.
+     * If the virtual thread accounting is enabled and the transaction started and ended on the current virtual thread,
+     * the CPU and heap demand of the transaction on this thread are estimated from the JFR events of the thread instead of the CPU
+     * time of the carrier thread, and the demands are published once these events have been delivered.
      *
      * @param readWriteSpan      - the current span.
      * @param logCPUTime         - configuration whether CPU time should be published.
@@ -173,98 +319,281 @@ public class MetricPublishingService {
      */
     public void publishResourceDemandVectorOfTransaction(final ReadWriteSpan readWriteSpan, final boolean logCPUTime, final boolean logHeapConsumption, final boolean logDiskDemand, final boolean logNetworkDemand) {
         if (!TelemetryUtils.isExternalDatabaseCall(readWriteSpan)) {
-            Long startThread = readWriteSpan.getAttributes().get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_SPAN_START_THREAD));
-            Long endThread = readWriteSpan.getAttributes().get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_SPAN_END_THREAD));
-
-            if (startThread != null && startThread.equals(endThread)) {
-                Attributes filteredAttributes = getAttributesWithoutRETITThreadUserAndNetworkClientAttributes(readWriteSpan.getAttributes());
-                // add resource demands to resource demand vector
-                publishCpuDemandMetricForTransaction(logCPUTime, readWriteSpan.getAttributes(), filteredAttributes);
-                publishMemoryDemandMetricForTransaction(logHeapConsumption, readWriteSpan.getAttributes(), filteredAttributes);
-                publishStorageDemandMetricForTransaction(logDiskDemand, readWriteSpan.getAttributes(), filteredAttributes);
-                publishNetworkDemandMetricForTransaction(logNetworkDemand, readWriteSpan.getAttributes(), filteredAttributes);
+            Attributes spanAttributes = readWriteSpan.getAttributes();
+            long[] demands = null;
+            boolean virtualThreadTransaction = isVirtualThreadTransaction();
+            if (virtualThreadTransaction) {
+                demands = getVirtualThreadResourceDemands(readWriteSpan, logCPUTime, logHeapConsumption, logDiskDemand, logNetworkDemand);
+            } else if (isStartedAndEndedOnSameThread(readWriteSpan)) {
+                demands = getResourceDemands(readWriteSpan, logCPUTime, logHeapConsumption, logDiskDemand, logNetworkDemand);
+            }
+            if (traceDemandAccumulator != null) {
+                long[] traceDemands = traceDemandAccumulator.remove(readWriteSpan.getSpanContext().getTraceId());
+                if (traceDemands != null) {
+                    demands = addTraceDemands(demands, traceDemands, logCPUTime, logHeapConsumption, logDiskDemand, logNetworkDemand);
+                }
+            }
+
+            if (virtualThreadTransaction && virtualThreadDemandAccounting.end(Thread.currentThread().getId(),
+                    VirtualThreadEventStream.currentEpochNanos(), demands, spanAttributes)) {
+                return;
+            }
+
+            if (demands != null) {
+                if (asyncDemandAggregator != null) {
+                    asyncDemandAggregator.submit(demands[TraceDemandAccumulator.CPU], demands[TraceDemandAccumulator.HEAP],
+                            demands[TraceDemandAccumulator.STORAGE], demands[TraceDemandAccumulator.NETWORK], spanAttributes);
+                } else {
+                    publishResourceDemands(demands[TraceDemandAccumulator.CPU], demands[TraceDemandAccumulator.HEAP],
+                            demands[TraceDemandAccumulator.STORAGE], demands[TraceDemandAccumulator.NETWORK], spanAttributes);
+                }
             }
         }
     }
 
-    private void publishStorageDemandMetricForTransaction(final boolean logDiskDemand, final Attributes spanAttributes, final Attributes filteredAttributes) {
-        if (logDiskDemand) {
-            Long startDiskReadDemand = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_START_DISK_READ_DEMAND));
-            Long endDiskReadDemand = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_END_DISK_READ_DEMAND));
-            long totalDiskReadDemand = startDiskReadDemand != null && endDiskReadDemand != null ? endDiskReadDemand - startDiskReadDemand : 0;
+    /**
+     * Starts the accumulation of the resource demands of the spans of a transaction, called when the root span of the transaction starts.
+     *
+     * @param readWriteSpan - the root span of the transaction.
+     */
+    public void startTransaction(final ReadWriteSpan readWriteSpan) {
+        if (traceDemandAccumulator != null) {
+            traceDemandAccumulator.start(readWriteSpan.getSpanContext().getTraceId(), System.nanoTime());
+        }
+        if (virtualThreadDemandAccounting != null && VirtualThreads.isCurrentThreadVirtual()) {
+            virtualThreadDemandAccounting.start(Thread.currentThread().getId(), VirtualThreadEventStream.currentEpochNanos());
+        }
+    }
 
-            Long startDiskWriteDemand = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_START_DISK_WRITE_DEMAND));
-            Long endDiskWriteDemand = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_END_DISK_WRITE_DEMAND));
-            long totalDiskWriteDemand = startDiskWriteDemand != null && endDiskWriteDemand != null ? (endDiskWriteDemand - startDiskWriteDemand) : 0;
+    /**
+     * Returns whether the resource demands of all spans of a trace are published with the root span. The option is
+     * read once when the service is created, so it does not change when the configuration of the span processor is reloaded.
+     *
+     * @return true if the trace demand aggregation is enabled.
+     */
+    public boolean isTraceDemandAggregation() {
+        return traceDemandAccumulator != null;
+    }
 
-            long totalStorageDemand = totalDiskReadDemand + totalDiskWriteDemand;
+    /**
+     * Returns whether the CPU demand of transactions on virtual threads is estimated from JFR events. The option is
+     * read once when the service is created, it is disabled if JFR event streaming of virtual threads is not available.
+     *
+     * @return true if the virtual thread accounting is enabled.
+     */
+    public boolean isVirtualThreadAccounting() {
+        return virtualThreadDemandAccounting != null;
+    }
 
-            if (totalStorageDemand > 0) {
-                storageDemandMetricPublisher.add(totalStorageDemand, filteredAttributes);
+    /**
+     * Adds the resource demands of a span which is not the root span of its trace to the demands of the trace,
+     * which are published when the root span ends. The demands are ignored if the root span of the trace has not been
+     * started in this process, see {@link #startTransaction}. Only spans which are not nested in another span of the trace on
+     * the same thread must be added, as the demands of nested spans are contained in the demands of their parent.
+     *
+     * @param readWriteSpan      - the current span.
+     * @param logCPUTime         - configuration whether CPU time should be published.
+     * @param logHeapConsumption - configuration whether heap demand should be published.
+     * @param logDiskDemand      - configuration whether disk demand should be published.
+     * @param logNetworkDemand   - configuration whether network demand should be published.
+     */
+    public void accumulateResourceDemandOfSpan(final ReadWriteSpan readWriteSpan, final boolean logCPUTime, final boolean logHeapConsumption, final boolean logDiskDemand, final boolean logNetworkDemand) {
+        if (traceDemandAccumulator != null && !TelemetryUtils.isExternalDatabaseCall(readWriteSpan)) {
+            if (isStartedAndEndedOnSameThread(readWriteSpan)) {
+                long[] demands = getResourceDemands(readWriteSpan, logCPUTime, logHeapConsumption, logDiskDemand, logNetworkDemand);
+                traceDemandAccumulator.add(readWriteSpan.getSpanContext().getTraceId(),
+                        Math.max(0, demands[TraceDemandAccumulator.CPU]), Math.max(0, demands[TraceDemandAccumulator.HEAP]),
+                        Math.max(0, demands[TraceDemandAccumulator.STORAGE]), Math.max(0, demands[TraceDemandAccumulator.NETWORK]), System.nanoTime());
             }
-
         }
     }
 
-    private void publishMemoryDemandMetricForTransaction(final boolean logHeapDemand, final Attributes spanAttributes, final Attributes filteredAttributes) {
-        if (logHeapDemand) {
-            Long startHeapByteAllocation = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_START_HEAP_BYTE_ALLOCATION));
-            Long endHeapByteAllocation = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_END_HEAP_BYTE_ALLOCATION));
-            long totalHeapDemand = startHeapByteAllocation != null && endHeapByteAllocation != null ? endHeapByteAllocation - startHeapByteAllocation : 0;
-
-            if (totalHeapDemand > 0) {
-                memoryDemandMetricPublisher.add(totalHeapDemand, filteredAttributes);
-            }
+    private static boolean isStartedAndEndedOnSameThread(final ReadableSpan span) {
+        Long startThread = span.getAttribute(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_SPAN_START_THREAD));
+        Long endThread = span.getAttribute(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_SPAN_END_THREAD));
+        return startThread != null && startThread.equals(endThread);
+    }
 
-        }
+    private static long[] getResourceDemands(final ReadableSpan span, final boolean logCPUTime, final boolean logHeapConsumption, final boolean logDiskDemand, final boolean logNetworkDemand) {
+        long[] demands = new long[4];
+        demands[TraceDemandAccumulator.CPU] = logCPUTime ? TelemetryUtils.getResourceDemand(span, Constants.SPAN_ATTRIBUTE_CPU_DEMAND,
+                Constants.SPAN_ATTRIBUTE_START_CPU_TIME, Constants.SPAN_ATTRIBUTE_END_CPU_TIME) : NOT_LOGGED;
+        demands[TraceDemandAccumulator.HEAP] = logHeapConsumption ? TelemetryUtils.getResourceDemand(span, Constants.SPAN_ATTRIBUTE_HEAP_DEMAND,
+                Constants.SPAN_ATTRIBUTE_START_HEAP_BYTE_ALLOCATION, Constants.SPAN_ATTRIBUTE_END_HEAP_BYTE_ALLOCATION) : NOT_LOGGED;
+        demands[TraceDemandAccumulator.STORAGE] = logDiskDemand ? TelemetryUtils.getResourceDemand(span, Constants.SPAN_ATTRIBUTE_DISK_READ_DEMAND,
+                Constants.SPAN_ATTRIBUTE_START_DISK_READ_DEMAND, Constants.SPAN_ATTRIBUTE_END_DISK_READ_DEMAND)
+                + TelemetryUtils.getResourceDemand(span, Constants.SPAN_ATTRIBUTE_DISK_WRITE_DEMAND,
+                Constants.SPAN_ATTRIBUTE_START_DISK_WRITE_DEMAND, Constants.SPAN_ATTRIBUTE_END_DISK_WRITE_DEMAND) : NOT_LOGGED;
+        demands[TraceDemandAccumulator.NETWORK] = logNetworkDemand ? TelemetryUtils.getResourceDemand(span, Constants.SPAN_ATTRIBUTE_NETWORK_READ_DEMAND,
+                Constants.SPAN_ATTRIBUTE_START_NETWORK_READ_DEMAND, Constants.SPAN_ATTRIBUTE_END_NETWORK_READ_DEMAND)
+                + TelemetryUtils.getResourceDemand(span, Constants.SPAN_ATTRIBUTE_NETWORK_WRITE_DEMAND,
+                Constants.SPAN_ATTRIBUTE_START_NETWORK_WRITE_DEMAND, Constants.SPAN_ATTRIBUTE_END_NETWORK_WRITE_DEMAND) : NOT_LOGGED;
+        return demands;
     }
 
-    private void publishCpuDemandMetricForTransaction(final boolean logCpuDemand, final Attributes spanAttributes, final Attributes filteredAttributes) {
-        if (logCpuDemand) {
-            Long startCpuTime = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_START_CPU_TIME));
-            Long endCpuTime = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_END_CPU_TIME));
-            long totalCpuTimeUsed = startCpuTime != null && endCpuTime != null ? endCpuTime - startCpuTime : 0;
+    private boolean isVirtualThreadTransaction() {
+        // transactions which are not accounted as too many transactions were in progress keep the carrier thread demands
+        return virtualThreadDemandAccounting != null && VirtualThreads.isCurrentThreadVirtual()
+                && virtualThreadDemandAccounting.isStarted(Thread.currentThread().getId());
+    }
 
-            long totalCpuTimeUsedInMs = totalCpuTimeUsed / NANOSECOND_TO_MILLISECOND_CONVERSION;
+    // the CPU time of the carrier thread also contains the demands of the other virtual threads mounted in between and the
+    // allocated bytes are not counted for virtual threads, both are estimated from JFR events instead, the other demands
+    // are only valid if the start and end ran on the same carrier thread
+    private static long[] getVirtualThreadResourceDemands(final ReadableSpan span, final boolean logCPUTime, final boolean logHeapConsumption, final boolean logDiskDemand, final boolean logNetworkDemand) {
+        long[] demands = isStartedAndEndedOnSameThread(span)
+                ? getResourceDemands(span, false, false, logDiskDemand, logNetworkDemand)
+                : new long[]{NOT_LOGGED, NOT_LOGGED, logDiskDemand ? 0 : NOT_LOGGED, logNetworkDemand ? 0 : NOT_LOGGED};
+        demands[TraceDemandAccumulator.CPU] = logCPUTime ? 0 : NOT_LOGGED;
+        demands[TraceDemandAccumulator.HEAP] = logHeapConsumption ? 0 : NOT_LOGGED;
+        return demands;
+    }
 
-            if (totalCpuTimeUsed > 0) {
-                cpuDemandMetricPublisher.add(totalCpuTimeUsedInMs, filteredAttributes);
+    private static long[] addTraceDemands(final long[] demands, final long[] traceDemands, final boolean logCPUTime, final boolean logHeapConsumption, final boolean logDiskDemand, final boolean logNetworkDemand) {
+        long[] totalDemands = demands != null ? demands
+                : new long[]{logCPUTime ? 0 : NOT_LOGGED, logHeapConsumption ? 0 : NOT_LOGGED, logDiskDemand ? 0 : NOT_LOGGED, logNetworkDemand ? 0 : NOT_LOGGED};
+        for (int i = 0; i < totalDemands.length; i++) {
+            if (totalDemands[i] != NOT_LOGGED) {
+                totalDemands[i] += traceDemands[i];
             }
         }
+        return totalDemands;
     }
 
-    private void publishNetworkDemandMetricForTransaction(final boolean logNetworkDemand, final Attributes spanAttributes, final Attributes filteredAttributes) {
-        if (logNetworkDemand) {
-            Long startNetworkReadDemand = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_START_NETWORK_READ_DEMAND));
-            Long endNetworkReadDemand = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_END_NETWORK_READ_DEMAND));
-            long totalNetworkReadDemand = startNetworkReadDemand != null && endNetworkReadDemand != null ? endNetworkReadDemand - startNetworkReadDemand : 0;
+    /**
+     * Publishes the self demand of a span, i.e., the demand of the span without the demand of its child spans.
+     *
+     * @param spanName       - the name of the span.
+     * @param cpuSelfDemand  - the CPU self demand in ns.
+     * @param heapSelfDemand - the heap self demand in bytes.
+     * @param samplingWeight - the weight of the span if the spans are sampled, otherwise 1.
+     */
+    public void publishSelfDemandOfSpan(final String spanName, final long cpuSelfDemand, final long heapSelfDemand, final double samplingWeight) {
+        Attributes attributes = spanNameAttributes.get(spanName);
+        if (attributes == null) {
+            attributes = spanNameAttributes.size() < MAX_SPAN_NAMES
+                    ? spanNameAttributes.computeIfAbsent(spanName, name -> Attributes.of(SPAN_NAME, name)) : OTHER_SPAN_NAMES;
+        }
+        if (cpuSelfDemand > 0) {
+            cpuSelfDemandMetricPublisher.add(scaleDemand(cpuSelfDemand, samplingWeight), attributes);
+        }
+        if (heapSelfDemand > 0) {
+            memorySelfDemandMetricPublisher.add(scaleDemand(heapSelfDemand, samplingWeight), attributes);
+        }
+    }
 
-            Long startNetworkWriteDemand = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_START_NETWORK_WRITE_DEMAND));
-            Long endNetworkWriteDemand = spanAttributes.get(AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_END_NETWORK_WRITE_DEMAND));
-            long totalNetworkWriteDemand = startNetworkWriteDemand != null && endNetworkWriteDemand != null ? (endNetworkWriteDemand - startNetworkWriteDemand) : 0;
+    private static long scaleDemand(final long demand, final double samplingWeight) {
+        return demand == NOT_LOGGED ? NOT_LOGGED : Math.round(demand * samplingWeight);
+    }
 
-            long totalNetworkDemand = totalNetworkReadDemand + totalNetworkWriteDemand;
+    /**
+     * Waits until the resource demands queued for the asynchronous aggregation have been published.
+     *
+     * @param timeoutNanos - the maximum time to wait in ns.
+     * @return true if the queued resource demands have been published within the timeout or the aggregation is synchronous.
+     */
+    public boolean flushResourceDemands(final long timeoutNanos) {
+        return asyncDemandAggregator == null || asyncDemandAggregator.flush(timeoutNanos);
+    }
 
-            networkDemandMetricPublisher.add(totalNetworkDemand, filteredAttributes);
-        }
+    /**
+     * Publishes the resource demands queued for the asynchronous aggregation and stops its background thread.
+     * Resource demands of transactions ending afterwards are dropped.
+     *
+     * @param timeoutNanos - the maximum time to wait in ns.
+     * @return true if the background thread terminated within the timeout or the aggregation is synchronous.
+     */
+    public boolean shutdownResourceDemands(final long timeoutNanos) {
+        return asyncDemandAggregator == null || asyncDemandAggregator.shutdown(timeoutNanos);
     }
 
-    private Attributes getAttributesWithoutRETITThreadUserAndNetworkClientAttributes(final Attributes spanAttributes) {
-        AttributesBuilder attributesBuilder = Attributes.builder();
+    /**
+     * Publishes the resource demands of a transaction or span as metrics with the relevant span attributes.
+     *
+     * @param cpuDemand      - the CPU demand in ns.
+     * @param heapDemand     - the heap demand in bytes.
+     * @param storageDemand  - the storage demand in bytes.
+     * @param networkDemand  - the network demand in bytes or Long.MIN_VALUE if it is not logged.
+     * @param spanAttributes - the attributes of the span.
+     */
+    void publishResourceDemands(final long cpuDemand, final long heapDemand, final long storageDemand, final long networkDemand, final Attributes spanAttributes) {
+        Attributes filteredAttributes = filteredAttributesCache.getFilteredAttributes(spanAttributes);
+        // the histograms contain the values of the measured transactions, which are not extrapolated
+        if (cpuDemandDistributionPublisher != null) {
+            publishResourceDemandDistributions(cpuDemand, heapDemand, storageDemand, networkDemand, filteredAttributes);
+        }
+        if (softwareCarbonIntensityCalculator != null) {
+            publishSoftwareCarbonIntensity(cpuDemand, heapDemand, storageDemand, networkDemand, filteredAttributes);
+        }
 
-        attributesBuilder.putAll(spanAttributes);
+        // extrapolate the demands of the spans which have not been measured
+        Double samplingWeight = spanAttributes.get(AttributeKey.doubleKey(Constants.SPAN_ATTRIBUTE_DEMAND_SAMPLING_WEIGHT));
+        double weight = samplingWeight != null ? samplingWeight : 1;
 
-        attributesBuilder.removeIf(key -> hasExcludedNamespacePrefix(key.getKey()));
+        if (gcCostMetricPublisher != null && heapDemand > 0) {
+            gcCostMetricPublisher.addAllocatedBytes(filteredAttributes, scaleDemand(heapDemand, weight));
+        }
 
-        return attributesBuilder.build();
+        // add resource demands to resource demand vector
+        if (cpuDemand > 0) {
+            long scaledCpuDemand = scaleDemand(cpuDemand, weight);
+            cpuNanosecondDemandMetricPublisher.add(scaledCpuDemand, filteredAttributes);
+            // transactions below one ms would otherwise not be counted at all, the fractions are carried over per attribute set
+            long cpuDemandInMilliseconds = cpuDemandConverter.toMilliseconds(filteredAttributes, scaledCpuDemand);
+            if (cpuDemandInMilliseconds > 0) {
+                cpuDemandMetricPublisher.add(cpuDemandInMilliseconds, filteredAttributes);
+            }
+        }
+        if (heapDemand > 0) {
+            memoryDemandMetricPublisher.add(scaleDemand(heapDemand, weight), filteredAttributes);
+        }
+        if (storageDemand > 0) {
+            storageDemandMetricPublisher.add(scaleDemand(storageDemand, weight), filteredAttributes);
+        }
+        if (networkDemand != NOT_LOGGED) {
+            networkDemandMetricPublisher.add(scaleDemand(networkDemand, weight), filteredAttributes);
+        }
     }
 
-    private static boolean hasExcludedNamespacePrefix(final String key) {
-        for (String namespace : EXCLUDED_ATTRIBUTE_NAMESPACES) {
-            if (key.startsWith(namespace)) {
-                return true;
-            }
+    /**
+     * Returns the calculator of the software carbon intensity.
+     *
+     * @return the calculator or null if the software carbon intensity is not calculated.
+     */
+    public SoftwareCarbonIntensityCalculator getSoftwareCarbonIntensityCalculator() {
+        return softwareCarbonIntensityCalculator;
+    }
+
+    /**
+     * Apportions the CPU time of a garbage collection to the routes in proportion to their share of the bytes allocated
+     * in the sliding window, if the GC cost attribution is enabled. If the software carbon intensity is calculated as
+     * well, the energy of the CPU time is apportioned, too.
+     *
+     * @param gcCpuTime - the CPU time of the garbage collection in ns.
+     */
+    public void publishGcCpuTime(final long gcCpuTime) {
+        if (gcCostMetricPublisher != null && gcCpuTime > 0) {
+            gcCostMetricPublisher.publishGcCpuTime(gcCpuTime);
+        }
+    }
+
+    private void publishResourceDemandDistributions(final long cpuDemand, final long heapDemand, final long storageDemand, final long networkDemand, final Attributes filteredAttributes) {
+        if (cpuDemand >= 0) {
+            cpuDemandDistributionPublisher.record((double) cpuDemand / NANOSECOND_TO_MILLISECOND_CONVERSION, filteredAttributes);
+        }
+        if (heapDemand >= 0) {
+            memoryDemandDistributionPublisher.record(heapDemand, filteredAttributes);
+        }
+        if (storageDemand >= 0) {
+            storageDemandDistributionPublisher.record(storageDemand, filteredAttributes);
         }
-        return false;
+        if (networkDemand >= 0) {
+            networkDemandDistributionPublisher.record(networkDemand, filteredAttributes);
+        }
+    }
+
+    private void publishSoftwareCarbonIntensity(final long cpuDemand, final long heapDemand, final long storageDemand, final long networkDemand, final Attributes filteredAttributes) {
+        energyPerTransactionPublisher.record(softwareCarbonIntensityCalculator.calculateEnergyInKwh(cpuDemand, heapDemand, storageDemand, networkDemand), filteredAttributes);
+        emissionsPerTransactionPublisher.record(softwareCarbonIntensityCalculator.calculateEmissionsInGram(cpuDemand, heapDemand, storageDemand, networkDemand), filteredAttributes);
     }
 }
@@ -0,0 +1,152 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sums up the resource demands of the spans of a trace which ran on different threads from the start until the end of
+ * the root span of the trace. Traces whose root span does not end within the time to live after the last added demand are
+ * evicted, the number of traces is bounded.
+ */
+final class TraceDemandAccumulator {
+
+    static final int CPU = 0;
+    static final int HEAP = 1;
+    static final int STORAGE = 2;
+    static final int NETWORK = 3;
+
+    private final Map<String, TraceDemand> traceDemands = new ConcurrentHashMap<>();
+    private final long timeToLiveNanos;
+    private final int maxTraces;
+    private final AtomicLong lastEviction = new AtomicLong();
+    private final LongAdder droppedTraces = new LongAdder();
+
+    /**
+     * Creates a new accumulator.
+     *
+     * @param timeToLiveNanos - the time after the last demand of a trace after which the trace is evicted.
+     * @param maxTraces       - the maximum number of traces which are accumulated at the same time.
+     */
+    TraceDemandAccumulator(final long timeToLiveNanos, final int maxTraces) {
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.maxTraces = maxTraces;
+    }
+
+    /**
+     * Starts the accumulation of the demands of a trace, called when its root span starts.
+     *
+     * @param traceId  - the trace id.
+     * @param nanoTime - the current {@link System#nanoTime()}.
+     */
+    void start(final String traceId, final long nanoTime) {
+        evictExpiredTraces(nanoTime);
+        if (traceDemands.size() >= maxTraces) {
+            droppedTraces.increment();
+            return;
+        }
+        traceDemands.computeIfAbsent(traceId, id -> new TraceDemand()).add(0, 0, 0, 0, nanoTime);
+    }
+
+    /**
+     * Adds the demands of a span to its trace, if the accumulation of the trace has been started.
+     *
+     * @param traceId  - the trace id of the span.
+     * @param cpu      - the CPU demand in ns.
+     * @param heap     - the heap demand in bytes.
+     * @param storage  - the storage demand in bytes.
+     * @param network  - the network demand in bytes.
+     * @param nanoTime - the current {@link System#nanoTime()}.
+     */
+    void add(final String traceId, final long cpu, final long heap, final long storage, final long network, final long nanoTime) {
+        TraceDemand traceDemand = traceDemands.get(traceId);
+        if (traceDemand != null) {
+            traceDemand.add(cpu, heap, storage, network, nanoTime);
+        }
+    }
+
+    /**
+     * Removes a trace and returns its summed up demands.
+     *
+     * @param traceId - the trace id.
+     * @return the demands indexed by the constants of this class or null if the accumulation of the trace has not been started.
+     */
+    long[] remove(final String traceId) {
+        TraceDemand traceDemand = traceDemands.remove(traceId);
+        return traceDemand != null ? traceDemand.getDemands() : null;
+    }
+
+    private void evictExpiredTraces(final long nanoTime) {
+        long previousEviction = lastEviction.get();
+        if (nanoTime - previousEviction < timeToLiveNanos / 2 || !lastEviction.compareAndSet(previousEviction, nanoTime)) {
+            return;
+        }
+        Iterator<TraceDemand> iterator = traceDemands.values().iterator();
+        while (iterator.hasNext()) {
+            if (nanoTime - iterator.next().getLastUpdate() > timeToLiveNanos) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of traces which are currently accumulated.
+     *
+     * @return the number of traces.
+     */
+    int size() {
+        return traceDemands.size();
+    }
+
+    /**
+     * Returns the number of traces which have not been accumulated as too many traces were in progress.
+     *
+     * @return the number of dropped traces.
+     */
+    long getDroppedTraces() {
+        return droppedTraces.sum();
+    }
+
+    /**
+     * Summed up demands of a single trace.
+     */
+    private static final class TraceDemand {
+
+        private final long[] demands = new long[4];
+        private long lastUpdate;
+
+        synchronized void add(final long cpu, final long heap, final long storage, final long network, final long nanoTime) {
+            demands[CPU] += cpu;
+            demands[HEAP] += heap;
+            demands[STORAGE] += storage;
+            demands[NETWORK] += network;
+            lastUpdate = nanoTime;
+        }
+
+        synchronized long[] getDemands() {
+            return demands.clone();
+        }
+
+        synchronized long getLastUpdate() {
+            return lastUpdate;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import io.retit.opentelemetry.javaagent.extension.resources.jvm.VirtualThreadEventStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Estimates the CPU and heap demand of transactions which start and end on the same virtual thread from the JFR execution
+ * and allocation samples of the virtual thread, as the CPU time of the carrier thread also contains the demand of the other
+ * virtual threads mounted in between and the JVM does not count the allocated bytes of virtual threads. The CPU time the carrier threads consumed in a chunk of events is apportioned to the
+ * samples of the virtual threads in this chunk, so every sample of a transaction adds its share of the carrier CPU time.
+ * If the CPU time of the carrier threads is not available, every sample adds the sampling period. Every allocation
+ * sample adds the bytes the thread allocated since its previous allocation sample. The estimates are statistical:
+ * transactions which are shorter than the sampling period often do not get any sample, and an allocation sample
+ * taken at the start of a transaction also contains the bytes allocated before.
+ * As the events are delivered in chunks about once per second, the resource demands of a transaction are passed to
+ * the consumer after the first chunk which contains events recorded after the transaction ended, i.e., up to about two
+ * seconds after the end of the transaction. The number of transactions in progress is bounded, if it is exceeded the
+ * transaction is not accounted and counted as dropped. Transactions which are not ended on the thread they started on
+ * are evicted after the time to live.
+ * The start and end of a transaction are called on the virtual thread, all other methods are called on the JFR stream thread.
+ *
+ * @param <T> the type of the reference stored with every transaction.
+ */
+final class VirtualThreadDemandAccounting<T> implements VirtualThreadEventStream.Listener {
+
+    private static final long OPEN = Long.MAX_VALUE;
+
+    private final int maxTransactions;
+    private final long samplingPeriodNanos;
+    private final long timeToLiveNanos;
+    private final DemandRecordRingBuffer.DemandRecordConsumer<T> consumer;
+    private final Map<Long, Transaction<T>> openTransactions = new ConcurrentHashMap<>();
+    private final Queue<Transaction<T>> endedTransactions = new ConcurrentLinkedQueue<>();
+    private final LongAdder droppedTransactions = new LongAdder();
+    /**
+     * The ended transactions whose demands have not been passed to the consumer yet by thread id, only accessed by the stream thread.
+     */
+    private final Map<Long, List<Transaction<T>>> pendingTransactions = new HashMap<>();
+    private long chunkSamples;
+
+    /**
+     * Creates a new accounting.
+     *
+     * @param maxTransactions     - the maximum number of transactions in progress.
+     * @param samplingPeriodNanos - the period of the execution samples in ns.
+     * @param timeToLiveNanos     - the time after which a transaction which has not been ended is evicted.
+     * @param consumer            - the consumer of the resource demands of the ended transactions, called on the stream thread.
+     */
+    VirtualThreadDemandAccounting(final int maxTransactions, final long samplingPeriodNanos, final long timeToLiveNanos,
+                                  final DemandRecordRingBuffer.DemandRecordConsumer<T> consumer) {
+        this.maxTransactions = maxTransactions;
+        this.samplingPeriodNanos = samplingPeriodNanos;
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Starts a transaction on the given virtual thread. A transaction of the thread which has not been ended is replaced.
+     *
+     * @param threadId  - the id of the current virtual thread.
+     * @param startTime - the current time in ns since the epoch.
+     */
+    void start(final long threadId, final long startTime) {
+        if (openTransactions.size() >= maxTransactions) {
+            droppedTransactions.increment();
+            return;
+        }
+        openTransactions.put(threadId, new Transaction<>(startTime));
+    }
+
+    /**
+     * Returns whether a transaction has been started on the given virtual thread and not been ended yet.
+     *
+     * @param threadId - the id of the current virtual thread.
+     * @return true if the transaction is accounted.
+     */
+    boolean isStarted(final long threadId) {
+        return openTransactions.containsKey(threadId);
+    }
+
+    /**
+     * Ends the transaction of the given virtual thread. The CPU and heap demand of the transaction are added to the given demands,
+     * which are then passed to the consumer once the events until the end of the transaction have been delivered.
+     *
+     * @param threadId  - the id of the current virtual thread.
+     * @param endTime   - the current time in ns since the epoch.
+     * @param demands   - the demands of the transaction without the demands estimated from the events, indexed by
+     *                  the constants of {@link TraceDemandAccumulator}, negative if a demand is not published.
+     * @param reference - the reference passed to the consumer.
+     * @return true if the demands are passed to the consumer later, false if the transaction has not been started
+     * on this thread and the demands must be published directly.
+     */
+    boolean end(final long threadId, final long endTime, final long[] demands, final T reference) {
+        Transaction<T> transaction = openTransactions.remove(threadId);
+        if (transaction == null) {
+            return false;
+        }
+        transaction.threadId = threadId;
+        transaction.endTime = endTime;
+        transaction.demands = demands;
+        transaction.reference = reference;
+        // the queue publishes the end of the transaction to the stream thread
+        endedTransactions.add(transaction);
+        return true;
+    }
+
+    @Override
+    public void onExecutionSample(final long threadId, final long eventTime) {
+        chunkSamples++;
+        Transaction<T> transaction = getTransaction(threadId, eventTime);
+        if (transaction != null) {
+            transaction.chunkSamples++;
+        }
+    }
+
+    @Override
+    public void onAllocationSample(final long threadId, final long eventTime, final long bytes) {
+        Transaction<T> transaction = getTransaction(threadId, eventTime);
+        if (transaction != null && bytes > 0) {
+            transaction.allocatedBytes += bytes;
+        }
+    }
+
+    @Override
+    public void onFlush(final long latestEventTime, final long carrierCpuTimeDelta) {
+        drainEndedTransactions();
+        long cpuTimePerSample = carrierCpuTimeDelta > 0 && chunkSamples > 0 ? carrierCpuTimeDelta / chunkSamples : samplingPeriodNanos;
+        chunkSamples = 0;
+
+        Iterator<Map.Entry<Long, Transaction<T>>> openIterator = openTransactions.entrySet().iterator();
+        while (openIterator.hasNext()) {
+            Transaction<T> transaction = openIterator.next().getValue();
+            transaction.addChunkCpuTime(cpuTimePerSample);
+            if (latestEventTime - transaction.startTime > timeToLiveNanos) {
+                openIterator.remove();
+            }
+        }
+
+        Iterator<List<Transaction<T>>> pendingIterator = pendingTransactions.values().iterator();
+        while (pendingIterator.hasNext()) {
+            List<Transaction<T>> transactions = pendingIterator.next();
+            Iterator<Transaction<T>> transactionIterator = transactions.iterator();
+            while (transactionIterator.hasNext()) {
+                Transaction<T> transaction = transactionIterator.next();
+                transaction.addChunkCpuTime(cpuTimePerSample);
+                // later events of the transaction are not expected any more
+                if (transaction.endTime <= latestEventTime) {
+                    transactionIterator.remove();
+                    publish(transaction);
+                }
+            }
+            if (transactions.isEmpty()) {
+                pendingIterator.remove();
+            }
+        }
+    }
+
+    private Transaction<T> getTransaction(final long threadId, final long eventTime) {
+        Transaction<T> openTransaction = openTransactions.get(threadId);
+        if (openTransaction != null && eventTime >= openTransaction.startTime) {
+            return openTransaction;
+        }
+        drainEndedTransactions();
+        List<Transaction<T>> transactions = pendingTransactions.get(threadId);
+        if (transactions != null) {
+            for (Transaction<T> transaction : transactions) {
+                if (eventTime >= transaction.startTime && eventTime < transaction.endTime) {
+                    return transaction;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void drainEndedTransactions() {
+        Transaction<T> transaction = endedTransactions.poll();
+        while (transaction != null) {
+            pendingTransactions.computeIfAbsent(transaction.threadId, id -> new ArrayList<>(1)).add(transaction);
+            transaction = endedTransactions.poll();
+        }
+    }
+
+    private void publish(final Transaction<T> transaction) {
+        long[] demands = transaction.demands;
+        if (demands[TraceDemandAccumulator.CPU] >= 0) {
+            demands[TraceDemandAccumulator.CPU] += transaction.cpuTime;
+        }
+        if (demands[TraceDemandAccumulator.HEAP] >= 0) {
+            demands[TraceDemandAccumulator.HEAP] += transaction.allocatedBytes;
+        }
+        consumer.accept(demands[TraceDemandAccumulator.CPU], demands[TraceDemandAccumulator.HEAP],
+                demands[TraceDemandAccumulator.STORAGE], demands[TraceDemandAccumulator.NETWORK], transaction.reference);
+    }
+
+    /**
+     * Returns the number of transactions which have not been accounted as too many transactions were in progress.
+     *
+     * @return the number of dropped transactions.
+     */
+    long getDroppedTransactions() {
+        return droppedTransactions.sum();
+    }
+
+    /**
+     * A transaction on a virtual thread. The start time is set on creation, the end is set once by the virtual thread
+     * before the transaction is handed over to the stream thread, which updates the samples, the CPU time and the allocated bytes.
+     *
+     * @param <T> the type of the reference.
+     */
+    private static final class Transaction<T> {
+
+        private final long startTime;
+        private long threadId;
+        private long endTime = OPEN;
+        private long[] demands;
+        private T reference;
+        private long chunkSamples;
+        private long cpuTime;
+        private long allocatedBytes;
+
+        Transaction(final long startTime) {
+            this.startTime = startTime;
+        }
+
+        void addChunkCpuTime(final long cpuTimePerSample) {
+            cpuTime += chunkSamples * cpuTimePerSample;
+            chunkSamples = 0;
+        }
+    }
+}
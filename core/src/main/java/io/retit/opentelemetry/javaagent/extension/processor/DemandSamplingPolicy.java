@@ -0,0 +1,185 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.processor;
+
+import io.retit.opentelemetry.javaagent.extension.commons.ResourceDemandConfiguration;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which spans are measured by the {@link RETITSpanProcessor}. When a span starts, it is measured if it passes
+ * all configured conditions, i.e., it is a root span, it is sampled by the trace sampler and its trace id falls into
+ * the configured ratio. The configured number of measured transactions per route and second is checked when the root
+ * span starts, so the route is taken from the attributes the span has been started with or from its name.
+ * For every measured span, the policy returns the weight the demands have to be multiplied with to extrapolate
+ * the demands of all spans, i.e., the inverse of the probability that a span is measured. The conditions on root and
+ * sampled spans are filters and not extrapolated.
+ */
+final class DemandSamplingPolicy {
+
+    static final double NOT_MEASURED = 0;
+
+    private static final int MAX_ROUTES = 1024;
+    private static final String OTHER_ROUTES = "";
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double ratio;
+    private final long traceIdUpperBound;
+    private final boolean rootSpansOnly;
+    private final boolean sampledSpansOnly;
+    private final int routeRateLimit;
+    private final Map<String, RouteWindow> routeWindows = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the policy of the given configuration.
+     *
+     * @param configuration - the resource demand configuration.
+     */
+    DemandSamplingPolicy(final ResourceDemandConfiguration configuration) {
+        this(configuration.getDemandSamplingRatio(), configuration.isDemandSamplingRootSpansOnly(),
+                configuration.isDemandSamplingSampledSpansOnly(), configuration.getDemandSamplingRouteRateLimit());
+    }
+
+    /**
+     * Creates a new policy.
+     *
+     * @param ratio            - the ratio of traces which are measured, between 0 and 1.
+     * @param rootSpansOnly    - whether only root spans are measured.
+     * @param sampledSpansOnly - whether only spans sampled by the trace sampler are measured.
+     * @param routeRateLimit   - the maximum number of published transactions per route and second, 0 for no limit.
+     */
+    DemandSamplingPolicy(final double ratio, final boolean rootSpansOnly, final boolean sampledSpansOnly, final int routeRateLimit) {
+        this.ratio = Math.max(0, Math.min(1, ratio));
+        this.traceIdUpperBound = this.ratio >= 1 ? Long.MAX_VALUE : (long) (this.ratio * Long.MAX_VALUE);
+        this.rootSpansOnly = rootSpansOnly;
+        this.sampledSpansOnly = sampledSpansOnly;
+        this.routeRateLimit = routeRateLimit;
+    }
+
+    /**
+     * Returns whether the policy measures all spans when they start, so the decision does not need to be recorded.
+     *
+     * @return true if all spans are measured.
+     */
+    boolean isMeasuringAllSpans() {
+        return ratio >= 1 && !rootSpansOnly && !sampledSpansOnly && routeRateLimit <= 0;
+    }
+
+    /**
+     * Returns whether the number of published transactions per route is limited, see {@link #sampleRoute}.
+     *
+     * @return true if the number of transactions per route is limited.
+     */
+    boolean isRouteRateLimited() {
+        return routeRateLimit > 0;
+    }
+
+    /**
+     * Decides whether a span is measured, called when the span starts.
+     *
+     * @param rootSpan    - whether the span is a root span.
+     * @param sampledSpan - whether the span is sampled by the trace sampler.
+     * @param traceId     - the hex encoded trace id of the span.
+     * @return the weight of the span or {@link #NOT_MEASURED}.
+     */
+    double sample(final boolean rootSpan, final boolean sampledSpan, final String traceId) {
+        if (rootSpansOnly && !rootSpan || sampledSpansOnly && !sampledSpan) {
+            return NOT_MEASURED;
+        }
+        if (ratio < 1) {
+            if (ratio <= 0 || getTraceIdRandomness(traceId) >= traceIdUpperBound) {
+                return NOT_MEASURED;
+            }
+            return 1 / ratio;
+        }
+        return 1;
+    }
+
+    /**
+     * Decides whether a transaction is measured, called when its root span starts and has passed {@link #sample}.
+     *
+     * @param route    - the route of the span, e.g., the http.route or the span name.
+     * @param nanoTime - the current {@link System#nanoTime()}.
+     * @return the factor the weight of the span has to be multiplied with or {@link #NOT_MEASURED}.
+     */
+    double sampleRoute(final String route, final long nanoTime) {
+        if (routeRateLimit <= 0) {
+            return 1;
+        }
+        return getRouteWindow(route).sample(nanoTime, routeRateLimit);
+    }
+
+    /**
+     * Parses the lower 63 bits of the trace id, which are random for W3C trace ids, the same bits the
+     * TraceIdRatioBased sampler of the SDK uses, so that all spans of a trace get the same decision.
+     *
+     * @param traceId - the hex encoded trace id.
+     * @return the lower 63 bits of the trace id.
+     */
+    private static long getTraceIdRandomness(final String traceId) {
+        long randomness = 0;
+        int start = Math.max(0, traceId.length() - 16);
+        for (int i = start; i < traceId.length(); i++) {
+            randomness = (randomness << 4) | (Character.digit(traceId.charAt(i), 16) & 0xF);
+        }
+        return randomness & Long.MAX_VALUE;
+    }
+
+    private RouteWindow getRouteWindow(final String route) {
+        RouteWindow routeWindow = routeWindows.get(route);
+        if (routeWindow == null) {
+            String key = routeWindows.size() < MAX_ROUTES ? route : OTHER_ROUTES;
+            routeWindow = routeWindows.computeIfAbsent(key, k -> new RouteWindow());
+        }
+        return routeWindow;
+    }
+
+    /**
+     * Counts the transactions of a route in fixed windows of one second. Once the limit of a window is reached, further
+     * transactions are not measured. As the number of transactions of a window is only known when the window is over,
+     * the transactions which have not been measured are carried over and added to the weights of the measured
+     * transactions of the next window, also after an idle gap. So the sum of the weights equals the number of seen
+     * transactions, except for the transactions of the last window which are not measured, and the extrapolated totals
+     * lag behind by up to one window.
+     */
+    private static final class RouteWindow {
+
+        private long windowStart = Long.MIN_VALUE;
+        private long measuredTransactions;
+        // the number of seen transactions minus the sum of the weights of the measured transactions
+        private double unweightedTransactions;
+        private double weight = 1;
+
+        synchronized double sample(final long nanoTime, final int limit) {
+            if (windowStart == Long.MIN_VALUE || nanoTime - windowStart >= WINDOW_NANOS) {
+                // at most limit transactions are measured in the new window, so they cannot get more than the carried over weight
+                weight = 1 + unweightedTransactions / limit;
+                windowStart = nanoTime;
+                measuredTransactions = 0;
+            }
+            unweightedTransactions++;
+            if (measuredTransactions >= limit) {
+                return NOT_MEASURED;
+            }
+            measuredTransactions++;
+            unweightedTransactions -= weight;
+            return weight;
+        }
+    }
+}
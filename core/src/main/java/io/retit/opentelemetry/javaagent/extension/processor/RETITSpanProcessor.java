@@ -16,35 +16,95 @@
 
 package io.retit.opentelemetry.javaagent.extension.processor;
 
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.context.Context;
 import io.opentelemetry.sdk.common.CompletableResultCode;
 import io.opentelemetry.sdk.trace.ReadWriteSpan;
 import io.opentelemetry.sdk.trace.ReadableSpan;
 import io.opentelemetry.sdk.trace.internal.ExtendedSpanProcessor;
-import io.retit.opentelemetry.javaagent.extension.commons.InstanceConfiguration;
+import io.retit.opentelemetry.javaagent.extension.commons.Constants;
+import io.retit.opentelemetry.javaagent.extension.commons.ResourceDemandConfiguration;
 import io.retit.opentelemetry.javaagent.extension.commons.TelemetryUtils;
 import io.retit.opentelemetry.javaagent.extension.metrics.MetricPublishingService;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * This is the core of the RETIT OpenTelemetry Extension and measures resource demand at the start and end of each span.
  */
 public class RETITSpanProcessor implements ExtendedSpanProcessor {
 
+    private static final AttributeKey<String> HTTP_ROUTE = AttributeKey.stringKey("http.route");
+    private static final AttributeKey<Double> DEMAND_SAMPLING_WEIGHT = AttributeKey.doubleKey(Constants.SPAN_ATTRIBUTE_DEMAND_SAMPLING_WEIGHT);
+    private static final AttributeKey<Long> SPAN_START_THREAD = AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_SPAN_START_THREAD);
+    private static final AttributeKey<Long> SPAN_END_THREAD = AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_SPAN_END_THREAD);
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private volatile ResourceDemandConfiguration configuration = ResourceDemandConfiguration.load();
+    private volatile DemandSamplingPolicy samplingPolicy = new DemandSamplingPolicy(configuration);
+    private final SpanDemandHierarchy spanDemandHierarchy = new SpanDemandHierarchy();
+    private final ThreadEntrySpans threadEntrySpans = new ThreadEntrySpans();
+    // the trace demand accumulator and the virtual thread accounting of the MetricPublishingService are only created once, so these options are not reloadable
+    private final boolean traceDemandAggregation = MetricPublishingService.getInstance().isTraceDemandAggregation();
+    private final boolean virtualThreadAccounting = MetricPublishingService.getInstance().isVirtualThreadAccounting();
+
+    /**
+     * Resolves the configuration from the System properties and environment variables again.
+     * The configuration is only resolved when the processor is created and when this method is called,
+     * so changes to the configuration are not visible to the processor before calling this method.
+     * The options of the metrics, e.g., the trace demand aggregation, are not reloaded, see {@link ResourceDemandConfiguration}.
+     */
+    public void reloadConfiguration() {
+        ResourceDemandConfiguration newConfiguration = ResourceDemandConfiguration.load();
+        samplingPolicy = new DemandSamplingPolicy(newConfiguration);
+        configuration = newConfiguration;
+    }
+
+    public ResourceDemandConfiguration getConfiguration() {
+        return configuration;
+    }
+
     @Override
     public void onStart(final Context parentContext, final ReadWriteSpan readWriteSpan) {
-        boolean logCPUDemand = InstanceConfiguration.isLogCpuDemandDefaultTrue();
-        boolean logHeapDemand = InstanceConfiguration.isLogHeapDemandDefaultTrue();
-        boolean logResponseTime = InstanceConfiguration.isLogResponseTime();
-        boolean logDiskDemand = InstanceConfiguration.isLogDiskDemand();
-        boolean logNetworkDemand = InstanceConfiguration.isLogNetworkDemand();
+        ResourceDemandConfiguration currentConfiguration = configuration;
+        DemandSamplingPolicy currentSamplingPolicy = samplingPolicy;
+
+        if (!currentSamplingPolicy.isMeasuringAllSpans()) {
+            double weight = sampleSpan(parentContext, readWriteSpan, currentSamplingPolicy);
+            if (weight == DemandSamplingPolicy.NOT_MEASURED) {
+                return;
+            }
+            readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_DEMAND_SAMPLING_WEIGHT, weight);
+        }
+
+        if (currentConfiguration.isLogSelfDemand()) {
+            spanDemandHierarchy.onStart(readWriteSpan);
+        }
+        if ((traceDemandAggregation || virtualThreadAccounting) && isRootSpan(readWriteSpan)) {
+            MetricPublishingService.getInstance().startTransaction(readWriteSpan);
+        }
+        if (traceDemandAggregation) {
+            threadEntrySpans.onStart(readWriteSpan);
+        }
 
-        TelemetryUtils.addStartResourceDemandValuesToSpanAttributes(
-                logCPUDemand,
-                logResponseTime,
-                logHeapDemand,
-                logDiskDemand,
-                logNetworkDemand,
-                readWriteSpan);
+        if (currentConfiguration.isCompactSpanAttributes()) {
+            TelemetryUtils.storeStartResourceDemandValues(
+                    currentConfiguration.isLogCpuDemand(),
+                    currentConfiguration.isLogResponseTime(),
+                    currentConfiguration.isLogHeapDemand(),
+                    currentConfiguration.isLogDiskDemand(),
+                    currentConfiguration.isLogNetworkDemand(),
+                    readWriteSpan);
+        } else {
+            TelemetryUtils.addStartResourceDemandValuesToSpanAttributes(
+                    currentConfiguration.isLogCpuDemand(),
+                    currentConfiguration.isLogResponseTime(),
+                    currentConfiguration.isLogHeapDemand(),
+                    currentConfiguration.isLogDiskDemand(),
+                    currentConfiguration.isLogNetworkDemand(),
+                    readWriteSpan);
+        }
     }
 
     @Override
@@ -63,12 +123,19 @@ public class RETITSpanProcessor implements ExtendedSpanProcessor {
 
     @Override
     public CompletableResultCode shutdown() {
-        return CompletableResultCode.ofSuccess();
+        // the resource demands queued for the asynchronous aggregation are published before the SDK shuts down
+        if (MetricPublishingService.getInstance().shutdownResourceDemands(FLUSH_TIMEOUT_NANOS)) {
+            return CompletableResultCode.ofSuccess();
+        }
+        return CompletableResultCode.ofFailure();
     }
 
     @Override
     public CompletableResultCode forceFlush() {
-        return CompletableResultCode.ofSuccess();
+        if (MetricPublishingService.getInstance().flushResourceDemands(FLUSH_TIMEOUT_NANOS)) {
+            return CompletableResultCode.ofSuccess();
+        }
+        return CompletableResultCode.ofFailure();
     }
 
     @Override
@@ -78,23 +145,48 @@ public class RETITSpanProcessor implements ExtendedSpanProcessor {
 
     @Override
     public void onEnding(final ReadWriteSpan readWriteSpan) {
-        boolean logCPUDemand = InstanceConfiguration.isLogCpuDemandDefaultTrue();
-        boolean logHeapDemand = InstanceConfiguration.isLogHeapDemandDefaultTrue();
-        boolean logResponseTime = InstanceConfiguration.isLogResponseTime();
-        boolean logDiskDemand = InstanceConfiguration.isLogDiskDemand();
-        boolean logNetworkDemand = InstanceConfiguration.isLogNetworkDemand();
-
-        TelemetryUtils.addEndResourceDemandValuesToSpanAttributes(
-                logCPUDemand,
-                logResponseTime,
-                logHeapDemand,
-                logDiskDemand,
-                logNetworkDemand,
-                readWriteSpan);
-
-        if (readWriteSpan.getParentSpanContext() != null && !readWriteSpan.getParentSpanContext().isValid()) {
+        ResourceDemandConfiguration currentConfiguration = configuration;
+        DemandSamplingPolicy currentSamplingPolicy = samplingPolicy;
+
+        if (!currentSamplingPolicy.isMeasuringAllSpans() && !isMeasured(readWriteSpan)) {
+            // the span has not been measured at its start
+            return;
+        }
+
+        if (currentConfiguration.isCompactSpanAttributes()) {
+            TelemetryUtils.addResourceDemandsToSpanAttributes(
+                    currentConfiguration.isLogCpuDemand(),
+                    currentConfiguration.isLogResponseTime(),
+                    currentConfiguration.isLogHeapDemand(),
+                    currentConfiguration.isLogDiskDemand(),
+                    currentConfiguration.isLogNetworkDemand(),
+                    readWriteSpan);
+        } else {
+            TelemetryUtils.addEndResourceDemandValuesToSpanAttributes(
+                    currentConfiguration.isLogCpuDemand(),
+                    currentConfiguration.isLogResponseTime(),
+                    currentConfiguration.isLogHeapDemand(),
+                    currentConfiguration.isLogDiskDemand(),
+                    currentConfiguration.isLogNetworkDemand(),
+                    readWriteSpan);
+        }
+
+        if (currentConfiguration.isLogSelfDemand()) {
+            addSelfDemand(readWriteSpan, currentConfiguration);
+        }
+
+        boolean threadEntry = traceDemandAggregation && threadEntrySpans.onEnd(readWriteSpan);
+
+        if (isRootSpan(readWriteSpan)) {
             // publish resource demand vector for top level transactions as metric for SCI calculations in Grafana
-            MetricPublishingService.getInstance().publishResourceDemandVectorOfTransaction(readWriteSpan, logCPUDemand, logHeapDemand, logDiskDemand, logNetworkDemand);
+            MetricPublishingService.getInstance().publishResourceDemandVectorOfTransaction(readWriteSpan,
+                    currentConfiguration.isLogCpuDemand(), currentConfiguration.isLogHeapDemand(),
+                    currentConfiguration.isLogDiskDemand(), currentConfiguration.isLogNetworkDemand());
+        } else if (threadEntry) {
+            // the demands of spans on other threads than the root span are published with the root span
+            MetricPublishingService.getInstance().accumulateResourceDemandOfSpan(readWriteSpan,
+                    currentConfiguration.isLogCpuDemand(), currentConfiguration.isLogHeapDemand(),
+                    currentConfiguration.isLogDiskDemand(), currentConfiguration.isLogNetworkDemand());
         }
     }
 
@@ -102,4 +194,79 @@ public class RETITSpanProcessor implements ExtendedSpanProcessor {
     public boolean isOnEndingRequired() {
         return true;
     }
+
+    private void addSelfDemand(final ReadWriteSpan readWriteSpan, final ResourceDemandConfiguration currentConfiguration) {
+        long cpuDemand = 0;
+        long heapDemand = 0;
+        Long startThread = readWriteSpan.getAttribute(SPAN_START_THREAD);
+        // the demands are only valid if the span started and ended on the same thread
+        boolean validDemands = startThread != null && startThread.equals(readWriteSpan.getAttribute(SPAN_END_THREAD));
+        if (validDemands && currentConfiguration.isLogCpuDemand()) {
+            cpuDemand = TelemetryUtils.getResourceDemand(readWriteSpan, Constants.SPAN_ATTRIBUTE_CPU_DEMAND,
+                    Constants.SPAN_ATTRIBUTE_START_CPU_TIME, Constants.SPAN_ATTRIBUTE_END_CPU_TIME);
+        }
+        if (validDemands && currentConfiguration.isLogHeapDemand()) {
+            heapDemand = TelemetryUtils.getResourceDemand(readWriteSpan, Constants.SPAN_ATTRIBUTE_HEAP_DEMAND,
+                    Constants.SPAN_ATTRIBUTE_START_HEAP_BYTE_ALLOCATION, Constants.SPAN_ATTRIBUTE_END_HEAP_BYTE_ALLOCATION);
+        }
+
+        long[] selfDemand = spanDemandHierarchy.onEnd(readWriteSpan, cpuDemand, heapDemand);
+        if (selfDemand != null && validDemands) {
+            long cpuSelfDemand = selfDemand[SpanDemandHierarchy.SELF_CPU_DEMAND];
+            long heapSelfDemand = selfDemand[SpanDemandHierarchy.SELF_HEAP_DEMAND];
+            if (currentConfiguration.isLogCpuDemand()) {
+                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_CPU_SELF_DEMAND, cpuSelfDemand);
+            }
+            if (currentConfiguration.isLogHeapDemand()) {
+                readWriteSpan.setAttribute(Constants.SPAN_ATTRIBUTE_HEAP_SELF_DEMAND, heapSelfDemand);
+            }
+            Double samplingWeight = readWriteSpan.getAttribute(DEMAND_SAMPLING_WEIGHT);
+            MetricPublishingService.getInstance().publishSelfDemandOfSpan(readWriteSpan.getName(), cpuSelfDemand, heapSelfDemand,
+                    samplingWeight != null ? samplingWeight : 1);
+        }
+    }
+
+    // the route rate limit is applied when the root span starts, so the transactions over the limit are not measured
+    // at all, and the other spans of a transaction get the weight of their parent span
+    private static double sampleSpan(final Context parentContext, final ReadWriteSpan readWriteSpan,
+                                     final DemandSamplingPolicy currentSamplingPolicy) {
+        boolean rootSpan = isRootSpan(readWriteSpan);
+        double weight = currentSamplingPolicy.sample(rootSpan, readWriteSpan.getSpanContext().isSampled(),
+                readWriteSpan.getSpanContext().getTraceId());
+        if (weight == DemandSamplingPolicy.NOT_MEASURED || !currentSamplingPolicy.isRouteRateLimited()) {
+            return weight;
+        }
+        if (rootSpan) {
+            weight *= currentSamplingPolicy.sampleRoute(getRoute(readWriteSpan), System.nanoTime());
+        } else {
+            Double parentWeight = getParentSamplingWeight(parentContext);
+            if (parentWeight != null) {
+                weight = parentWeight;
+            }
+        }
+        if (weight == DemandSamplingPolicy.NOT_MEASURED) {
+            // marks the span as not measured for its child spans
+            readWriteSpan.setAttribute(DEMAND_SAMPLING_WEIGHT, DemandSamplingPolicy.NOT_MEASURED);
+        }
+        return weight;
+    }
+
+    private static Double getParentSamplingWeight(final Context parentContext) {
+        Span parentSpan = Span.fromContext(parentContext);
+        return parentSpan instanceof ReadableSpan ? ((ReadableSpan) parentSpan).getAttribute(DEMAND_SAMPLING_WEIGHT) : null;
+    }
+
+    private static boolean isMeasured(final ReadableSpan readableSpan) {
+        Double samplingWeight = readableSpan.getAttribute(DEMAND_SAMPLING_WEIGHT);
+        return samplingWeight != null && samplingWeight != DemandSamplingPolicy.NOT_MEASURED;
+    }
+
+    private static boolean isRootSpan(final ReadableSpan readableSpan) {
+        return readableSpan.getParentSpanContext() != null && !readableSpan.getParentSpanContext().isValid();
+    }
+
+    private static String getRoute(final ReadableSpan readableSpan) {
+        String route = readableSpan.getAttribute(HTTP_ROUTE);
+        return route != null ? route : readableSpan.getName();
+    }
 }
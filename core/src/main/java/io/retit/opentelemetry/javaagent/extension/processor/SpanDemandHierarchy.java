@@ -0,0 +1,131 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.processor;
+
+import io.opentelemetry.sdk.trace.ReadableSpan;
+
+/**
+ * Tracks the spans in progress on every thread to split the inclusive ("total") CPU and heap demand of a span into
+ * the demand of the span itself ("self") and the demand of its child spans which ran on the same thread.
+ * When a span ends, its total demand is added to the children demand of the span below it on the stack, the self
+ * demand of a span is its total demand minus the total demand of its children.
+ * Spans which have been started on a thread but ended on another thread are removed from the top of the stack when
+ * the next span starts or ends on the thread, so they neither hold on to the span nor count unrelated spans as children.
+ */
+final class SpanDemandHierarchy {
+
+    static final int MAX_DEPTH = 128;
+    static final int SELF_CPU_DEMAND = 0;
+    static final int SELF_HEAP_DEMAND = 1;
+
+    private final ThreadLocal<SpanStack> spanStack = ThreadLocal.withInitial(SpanStack::new);
+
+    /**
+     * Marks the start of a span on the current thread.
+     *
+     * @param span - the span, compared by identity.
+     */
+    void onStart(final ReadableSpan span) {
+        spanStack.get().push(span);
+    }
+
+    /**
+     * Marks the end of a span on the current thread and calculates its self demand. Spans which have been started
+     * above the span on the stack but have not been ended on this thread are discarded.
+     *
+     * @param span       - the span, compared by identity.
+     * @param cpuDemand  - the total CPU demand of the span in ns.
+     * @param heapDemand - the total heap demand of the span in bytes.
+     * @return the self CPU demand at {@link #SELF_CPU_DEMAND} and the self heap demand at {@link #SELF_HEAP_DEMAND}
+     * in an array of the current thread, which is overwritten by the next call on the thread, or null if the span has not
+     * been started on this thread.
+     */
+    long[] onEnd(final ReadableSpan span, final long cpuDemand, final long heapDemand) {
+        return spanStack.get().pop(span, cpuDemand, heapDemand);
+    }
+
+    /**
+     * Returns the number of spans in progress on the current thread.
+     *
+     * @return the depth of the span stack of the current thread.
+     */
+    int getDepth() {
+        return spanStack.get().size;
+    }
+
+    /**
+     * Primitive stack of the spans in progress on a thread and the total demands of their ended child spans.
+     */
+    private static final class SpanStack {
+
+        private final ReadableSpan[] spans = new ReadableSpan[MAX_DEPTH];
+        private final long[] childrenCpuDemand = new long[MAX_DEPTH];
+        private final long[] childrenHeapDemand = new long[MAX_DEPTH];
+        private final long[] selfDemand = new long[2];
+        private int size;
+
+        void push(final ReadableSpan span) {
+            pruneEndedSpans();
+            if (size == MAX_DEPTH) {
+                // deeper spans are not tracked, their demand remains part of the self demand of their parent
+                return;
+            }
+            spans[size] = span;
+            childrenCpuDemand[size] = 0;
+            childrenHeapDemand[size] = 0;
+            size++;
+        }
+
+        long[] pop(final ReadableSpan span, final long cpuDemand, final long heapDemand) {
+            int index = size - 1;
+            while (index >= 0 && spans[index] != span) {
+                index--;
+            }
+            if (index < 0) {
+                pruneEndedSpans();
+                return null;
+            }
+            selfDemand[SELF_CPU_DEMAND] = cpuDemand - childrenCpuDemand[index];
+            selfDemand[SELF_HEAP_DEMAND] = heapDemand - childrenHeapDemand[index];
+            for (int i = index; i < size; i++) {
+                spans[i] = null;
+            }
+            size = index;
+            if (index > 0) {
+                childrenCpuDemand[index - 1] += cpuDemand;
+                childrenHeapDemand[index - 1] += heapDemand;
+            }
+            pruneEndedSpans();
+            return selfDemand;
+        }
+
+        /**
+         * Removes the spans which have been ended on another thread from the top of the stack. Their child spans
+         * ran on this thread and are therefore counted as the children of the span below.
+         */
+        private void pruneEndedSpans() {
+            while (size > 0 && spans[size - 1].hasEnded()) {
+                size--;
+                spans[size] = null;
+                if (size > 0) {
+                    childrenCpuDemand[size - 1] += childrenCpuDemand[size];
+                    childrenHeapDemand[size - 1] += childrenHeapDemand[size];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.processor;
+
+import io.opentelemetry.sdk.trace.ReadableSpan;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks the outermost span in progress on every thread per trace. The demands of this entry span contain the
+ * demands of all spans of the same trace nested in it on the thread. As a thread may run spans of several traces
+ * interleaved, e.g., a span of a new trace started within a span of another trace, the entry spans are kept per
+ * trace id. Entry spans which have been ended on another thread are removed once a new entry span is added.
+ * The number of entry spans per thread is bounded, so spans which are never ended cannot exhaust the heap. If a
+ * thread has {@link #MAX_TRACES} entry spans in progress, the span which has been added first is dropped, its demands
+ * are then not added to the demands of its trace.
+ */
+final class ThreadEntrySpans {
+
+    static final int MAX_TRACES = 64;
+
+    // the insertion order of the traces is kept to drop the oldest entry span
+    private final ThreadLocal<Map<String, ReadableSpan>> entrySpans = ThreadLocal.withInitial(LinkedHashMap::new);
+
+    /**
+     * Marks the start of a span on the current thread.
+     *
+     * @param span - the span, which becomes the entry span of its trace if no span of the trace is in progress on this thread.
+     */
+    void onStart(final ReadableSpan span) {
+        Map<String, ReadableSpan> spans = entrySpans.get();
+        String traceId = span.getSpanContext().getTraceId();
+        ReadableSpan entrySpan = spans.get(traceId);
+        if (entrySpan == null || entrySpan.hasEnded()) {
+            removeEndedSpans(spans);
+            if (spans.size() >= MAX_TRACES) {
+                Iterator<ReadableSpan> iterator = spans.values().iterator();
+                iterator.next();
+                iterator.remove();
+            }
+            spans.put(traceId, span);
+        }
+    }
+
+    /**
+     * Marks the end of a span on the current thread.
+     *
+     * @param span - the span, compared by identity.
+     * @return true if the span is the entry span of its trace on this thread.
+     */
+    boolean onEnd(final ReadableSpan span) {
+        Map<String, ReadableSpan> spans = entrySpans.get();
+        String traceId = span.getSpanContext().getTraceId();
+        if (spans.get(traceId) == span) {
+            spans.remove(traceId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of traces with an entry span on the current thread.
+     *
+     * @return the number of entry spans of the current thread.
+     */
+    int size() {
+        return entrySpans.get().size();
+    }
+
+    private static void removeEndedSpans(final Map<String, ReadableSpan> spans) {
+        Iterator<ReadableSpan> iterator = spans.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().hasEnded()) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -18,7 +18,9 @@ package io.retit.opentelemetry.javaagent.extension.resources.common;
 
 import com.sun.jna.Platform;
 import io.opentelemetry.api.internal.StringUtils;
+import io.retit.opentelemetry.javaagent.extension.commons.InstanceConfiguration;
 import io.retit.opentelemetry.javaagent.extension.commons.TelemetryUtils;
+import io.retit.opentelemetry.javaagent.extension.resources.jvm.JfrEventStreamDataCollector;
 import io.retit.opentelemetry.javaagent.extension.resources.linux.LinuxDataCollector;
 import io.retit.opentelemetry.javaagent.extension.resources.macos.MacOSDataCollector;
 import io.retit.opentelemetry.javaagent.extension.resources.windows.WindowsDataCollector;
@@ -42,6 +44,7 @@ public abstract class CommonResourceDemandDataCollector implements IResourceDema
     private static final String MAC_NAME = "mac";
     private static final String HOTSPOT_NAME = "HotSpot";
     private static final String IBM_JVM_NAME = "IBM";
+    private static final String JFR_IO_DEMAND_COLLECTOR = "JFR";
 
     private static final String OS_NAME_PROPERTY = "os.name";
 
@@ -56,7 +59,9 @@ public abstract class CommonResourceDemandDataCollector implements IResourceDema
     /**
      * Gets an instance of {@link IResourceDemandDataCollector} that is applicable for this system.
      * The returned instance will be a collector for the current OS which also
-     * has a reference to a JVM-specific collector.
+     * has a reference to a JVM-specific collector. If the JFR IO demand collector is configured,
+     * the disk demand is taken from a JFR event stream instead of the OS. The network demand is only taken from the
+     * socket events of a JFR event stream if the socket demand accounting is enabled, otherwise it is read from the OS.
      *
      * @return - an instance of {@link IResourceDemandDataCollector} that is applicable for the current OS and JVM.
      */
@@ -88,6 +93,20 @@ public abstract class CommonResourceDemandDataCollector implements IResourceDema
         }
 
         osCollector.setJvmCollector(jvmCollector);
+
+        int jfrIoDemands = 0;
+        if (JFR_IO_DEMAND_COLLECTOR.equalsIgnoreCase(InstanceConfiguration.getIoDemandCollector())) {
+            jfrIoDemands |= ResourceDemandSnapshot.DISK;
+        }
+        if (InstanceConfiguration.isSocketDemandAccounting()) {
+            jfrIoDemands |= ResourceDemandSnapshot.NETWORK;
+        }
+        if (jfrIoDemands != 0) {
+            IResourceDemandDataCollector jfrCollector = JfrEventStreamDataCollector.create(osCollector, jfrIoDemands);
+            if (jfrCollector != null) {
+                return jfrCollector;
+            }
+        }
         return osCollector;
     }
 
@@ -202,6 +221,29 @@ public abstract class CommonResourceDemandDataCollector implements IResourceDema
         this.jvmCollector = jvmCollector;
     }
 
+    @Override
+    public int getCurrentThreadDemandSnapshot(final int demands, final long[] snapshot) {
+        // the CPU time is measured last at the start and first at the end of a span and the allocated bytes the other
+        // way round, so the overhead of the other measurements is not accounted to the span
+        boolean end = (demands & ResourceDemandSnapshot.END) != 0;
+        int measured = ResourceDemandSnapshot.fill(this, demands & (end ? ResourceDemandSnapshot.CPU : ResourceDemandSnapshot.HEAP), snapshot);
+        measured |= getIoDemandSnapshot(demands & (ResourceDemandSnapshot.DISK | ResourceDemandSnapshot.NETWORK), snapshot);
+        measured |= ResourceDemandSnapshot.fill(this, demands & (end ? ResourceDemandSnapshot.HEAP : ResourceDemandSnapshot.CPU), snapshot);
+        return ResourceDemandSnapshot.withThread(measured, snapshot);
+    }
+
+    /**
+     * Writes the requested disk and network demand of the current thread into the snapshot.
+     * Platforms which read both from the same source override this method to avoid the intermediate arrays.
+     *
+     * @param demands  - the bit mask of the requested demands, only contains the disk and network demand.
+     * @param snapshot - the array which receives the values.
+     * @return the bit mask of the slots which have been measured.
+     */
+    protected int getIoDemandSnapshot(final int demands, final long[] snapshot) {
+        return ResourceDemandSnapshot.fill(this, demands, snapshot);
+    }
+
     @Override
     public long[] getDiskBytesReadAndWritten() {
         return new long[]{0, 0};
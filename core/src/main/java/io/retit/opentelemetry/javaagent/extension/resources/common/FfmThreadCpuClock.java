@@ -0,0 +1,174 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link ThreadCpuClock} using a downcall handle of the Foreign Function &amp; Memory API for clock_gettime.
+ * The timespec is written into a reused per-thread memory segment. As this extension is compiled for JDK 8,
+ * the API is resolved once using reflection and the resulting {@link MethodHandle}s are held in constants, so they
+ * can be inlined by the JIT compiler. The API is final since JDK 22, older JDKs use one of the JNA implementations.
+ * On JDK 22 and higher, the JVM prints a warning for the native access unless the agent is started
+ * with --enable-native-access=ALL-UNNAMED, therefore, this clock is only used if it is configured.
+ */
+final class FfmThreadCpuClock extends ThreadCpuClock {
+
+    private static final Logger LOGGER = Logger.getLogger(FfmThreadCpuClock.class.getName());
+
+    private static final int MINIMUM_JAVA_VERSION = 22;
+
+    private static final long TIME_SPEC_SIZE = 2L * Long.BYTES;
+
+    /**
+     * The handles are clock_gettime as (int, Object)int, MemorySegment.get(JAVA_LONG, long) as (Object, long)long
+     * and the allocation of a timespec in a new automatic arena as ()Object.
+     */
+    private static final MethodHandle[] HANDLES = lookupHandles();
+
+    private static final MethodHandle CLOCK_GETTIME = HANDLES[0];
+    private static final MethodHandle GET_LONG = HANDLES[1];
+    private static final MethodHandle ALLOCATE_TIME_SPEC = HANDLES[2];
+
+    private static final ThreadLocal<Object> THREAD_LOCAL_TIME_SPEC = ThreadLocal.withInitial(FfmThreadCpuClock::allocateTimeSpec);
+
+    private final int clockId;
+
+    private FfmThreadCpuClock(final int clockId) {
+        this.clockId = clockId;
+    }
+
+    /**
+     * Creates the clock.
+     *
+     * @param clockId - the id of the thread CPU time clock on this platform.
+     * @return the clock or null if the Foreign Function &amp; Memory API is not available.
+     */
+    static ThreadCpuClock create(final int clockId) {
+        if (CLOCK_GETTIME == null) {
+            return null;
+        }
+        FfmThreadCpuClock clock = new FfmThreadCpuClock(clockId);
+        return clock.getCurrentThreadCpuTime() > 0 ? clock : null;
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private static MethodHandle[] lookupHandles() {
+        MethodHandle[] handles = new MethodHandle[3];
+        if (getJavaVersion() < MINIMUM_JAVA_VERSION) {
+            return handles;
+        }
+        try {
+            Class<?> linkerClass = Class.forName("java.lang.foreign.Linker");
+            Class<?> linkerOptionClass = Class.forName("java.lang.foreign.Linker$Option");
+            Class<?> symbolLookupClass = Class.forName("java.lang.foreign.SymbolLookup");
+            Class<?> functionDescriptorClass = Class.forName("java.lang.foreign.FunctionDescriptor");
+            Class<?> memoryLayoutClass = Class.forName("java.lang.foreign.MemoryLayout");
+            Class<?> valueLayoutClass = Class.forName("java.lang.foreign.ValueLayout");
+            Class<?> ofLongClass = Class.forName("java.lang.foreign.ValueLayout$OfLong");
+            Class<?> memorySegmentClass = Class.forName("java.lang.foreign.MemorySegment");
+            Class<?> arenaClass = Class.forName("java.lang.foreign.Arena");
+
+            Object linker = linkerClass.getMethod("nativeLinker").invoke(null);
+            Object defaultLookup = linkerClass.getMethod("defaultLookup").invoke(linker);
+            Optional<?> symbol = (Optional<?>) symbolLookupClass.getMethod("find", String.class).invoke(defaultLookup, "clock_gettime");
+            if (!symbol.isPresent()) {
+                return handles;
+            }
+
+            Object argumentLayouts = Array.newInstance(memoryLayoutClass, 2);
+            Array.set(argumentLayouts, 0, valueLayoutClass.getField("JAVA_INT").get(null));
+            Array.set(argumentLayouts, 1, valueLayoutClass.getField("ADDRESS").get(null));
+            Object functionDescriptor = functionDescriptorClass.getMethod("of", memoryLayoutClass, argumentLayouts.getClass())
+                    .invoke(null, valueLayoutClass.getField("JAVA_INT").get(null), argumentLayouts);
+            Object noOptions = Array.newInstance(linkerOptionClass, 0);
+            MethodHandle clockGettime = (MethodHandle) linkerClass
+                    .getMethod("downcallHandle", memorySegmentClass, functionDescriptorClass, noOptions.getClass())
+                    .invoke(linker, symbol.get(), functionDescriptor, noOptions);
+
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodHandle getLong = MethodHandles.insertArguments(
+                    lookup.findVirtual(memorySegmentClass, "get", MethodType.methodType(long.class, ofLongClass, long.class)),
+                    1, valueLayoutClass.getField("JAVA_LONG").get(null));
+            MethodHandle allocate = MethodHandles.insertArguments(
+                    lookup.findVirtual(arenaClass, "allocate", MethodType.methodType(memorySegmentClass, long.class, long.class)),
+                    1, TIME_SPEC_SIZE, (long) Long.BYTES);
+            MethodHandle allocateInNewArena = MethodHandles.filterReturnValue(
+                    lookup.findStatic(arenaClass, "ofAuto", MethodType.methodType(arenaClass)), allocate);
+
+            handles[0] = clockGettime.asType(MethodType.methodType(int.class, int.class, Object.class));
+            handles[1] = getLong.asType(MethodType.methodType(long.class, Object.class, long.class));
+            handles[2] = allocateInNewArena.asType(MethodType.methodType(Object.class));
+        } catch (Throwable e) {
+            LOGGER.log(Level.FINE, "Foreign Function & Memory API is not available " + e.getMessage(), e);
+            return new MethodHandle[3];
+        }
+        return handles;
+    }
+
+    private static int getJavaVersion() {
+        String version = System.getProperty("java.specification.version");
+        try {
+            // 1.8 for JDK 8, the feature version for JDK 9 and higher
+            return version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Allocates a timespec in an automatic arena, so that the memory is released when the thread terminates.
+     *
+     * @return the MemorySegment of the timespec.
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private static Object allocateTimeSpec() {
+        try {
+            return (Object) ALLOCATE_TIME_SPEC.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not allocate timespec", e);
+        }
+    }
+
+    @Override
+    public Type getType() {
+        return Type.FFM;
+    }
+
+    @Override
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    public long getCurrentThreadCpuTime() {
+        Object timeSpec = THREAD_LOCAL_TIME_SPEC.get();
+        try {
+            if ((int) CLOCK_GETTIME.invokeExact(clockId, timeSpec) != 0) {
+                return 0L;
+            }
+            long seconds = (long) GET_LONG.invokeExact(timeSpec, 0L);
+            long nanoseconds = (long) GET_LONG.invokeExact(timeSpec, (long) Long.BYTES);
+            return (seconds * 1_000_000_000L) + nanoseconds;
+        } catch (Throwable e) {
+            LOGGER.log(Level.SEVERE, "Could not read thread cpu time " + e.getMessage(), e);
+            return 0L;
+        }
+    }
+}
@@ -50,4 +50,17 @@ public interface IResourceDemandDataCollector {
      * the second element depicts the amount of bytes written to the network.
      */
     long[] getNetworkBytesReadAndWritten();
+
+    /**
+     * Measures all requested resource demands of the current thread in one pass and writes them into the given array,
+     * which avoids a call and an intermediate array per demand at every span boundary. The thread id is added if any
+     * demand has been measured. Collectors which can read several demands from the same source override this method.
+     *
+     * @param demands  - the bit mask of the requested {@link ResourceDemandSnapshot} demands.
+     * @param snapshot - the array of at least {@link ResourceDemandSnapshot#SIZE} elements which receives the values.
+     * @return the bit mask of the {@link ResourceDemandSnapshot} slots which have been measured.
+     */
+    default int getCurrentThreadDemandSnapshot(final int demands, final long[] snapshot) {
+        return ResourceDemandSnapshot.withThread(ResourceDemandSnapshot.fill(this, demands, snapshot), snapshot);
+    }
 }
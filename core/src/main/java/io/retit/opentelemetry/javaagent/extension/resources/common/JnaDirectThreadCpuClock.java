@@ -0,0 +1,94 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.common;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link ThreadCpuClock} using a JNA direct mapping of clock_gettime. Direct mapped native methods are bound once
+ * and pass primitive arrays without reflection, the timespec is written into a reused per-thread long array.
+ * As tv_sec and tv_nsec are mapped to two longs, this implementation is only used on 64-bit platforms.
+ */
+final class JnaDirectThreadCpuClock extends ThreadCpuClock {
+
+    private static final Logger LOGGER = Logger.getLogger(JnaDirectThreadCpuClock.class.getName());
+
+    private static final ThreadLocal<long[]> THREAD_LOCAL_TIME_SPEC = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final int clockId;
+
+    private JnaDirectThreadCpuClock(final int clockId) {
+        this.clockId = clockId;
+    }
+
+    /**
+     * Registers the direct mapping and creates the clock.
+     *
+     * @param clockId - the id of the thread CPU time clock on this platform.
+     * @return the clock or null if the direct mapping could not be registered.
+     */
+    static ThreadCpuClock create(final int clockId) {
+        try {
+            Native.register(DirectCLibrary.class, Platform.C_LIBRARY_NAME);
+            JnaDirectThreadCpuClock clock = new JnaDirectThreadCpuClock(clockId);
+            if (clock.getCurrentThreadCpuTime() > 0) {
+                return clock;
+            }
+        } catch (LinkageError e) {
+            LOGGER.log(Level.FINE, "JNA direct mapping of clock_gettime is not available " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.JNA_DIRECT;
+    }
+
+    @Override
+    public long getCurrentThreadCpuTime() {
+        long[] timeSpec = THREAD_LOCAL_TIME_SPEC.get();
+        if (DirectCLibrary.clock_gettime(clockId, timeSpec) != 0) {
+            return 0L;
+        }
+        return (timeSpec[0] * 1_000_000_000L) + timeSpec[1];
+    }
+
+    /**
+     * Direct mapping of the c library, the native methods are bound by {@link Native#register(Class, String)}.
+     */
+    @SuppressWarnings("checkstyle:MethodName")
+    private static final class DirectCLibrary {
+
+        private DirectCLibrary() {
+            // Native methods only
+        }
+
+        /**
+         * Retrieves the time specified by the clock id.
+         *
+         * @param clockId  - the clock for which the time needs to be fetched.
+         * @param timeSpec - array of two longs receiving tv_sec and tv_nsec.
+         * @return - return 0 for success, -1 on error
+         */
+        static native int clock_gettime(int clockId, long[] timeSpec);
+    }
+}
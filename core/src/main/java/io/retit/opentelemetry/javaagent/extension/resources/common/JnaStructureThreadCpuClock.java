@@ -0,0 +1,44 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.common;
+
+/**
+ * {@link ThreadCpuClock} using the JNA library interface mapping of clock_gettime. A new {@link CLibrary.TimeSpec}
+ * is allocated for every call, the arguments are converted using reflection. This is the fallback on all platforms.
+ */
+final class JnaStructureThreadCpuClock extends ThreadCpuClock {
+
+    private final CLibrary cLibrary;
+    private final int clockId;
+
+    JnaStructureThreadCpuClock(final CLibrary cLibrary, final int clockId) {
+        this.cLibrary = cLibrary;
+        this.clockId = clockId;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.JNA_STRUCTURE;
+    }
+
+    @Override
+    public long getCurrentThreadCpuTime() {
+        CLibrary.TimeSpec timeSpec = new CLibrary.TimeSpec();
+        cLibrary.clock_gettime(clockId, timeSpec);
+        return (timeSpec.tv_sec.longValue() * 1_000_000_000L) + timeSpec.tv_nsec;
+    }
+}
@@ -19,6 +19,8 @@ import io.retit.opentelemetry.javaagent.extension.resources.windows.WindowsKerne
  */
 public class NativeFacade {
 
+    private static final ThreadLocal<ThreadIdHolder> THREAD_LOCAL_THREAD_ID = ThreadLocal.withInitial(ThreadIdHolder::new);
+
     private NativeFacade() {
         // Utility class
     }
@@ -27,10 +29,19 @@ public class NativeFacade {
      * Gets the id of the current thread (tid).
      * This method only provides platform specific tids for Windows, Linux and Mac.
      * For other platforms it falls back on the Java tid.
+     * As the tid of a platform thread never changes, it is resolved once per thread. For virtual threads,
+     * the tid of the carrier thread the virtual thread is currently mounted on is resolved on every call.
      *
      * @return the tid of the thread
      */
     public static long getThreadId() {
+        if (VirtualThreads.isCurrentThreadVirtual()) {
+            return resolveThreadId();
+        }
+        return THREAD_LOCAL_THREAD_ID.get().threadId;
+    }
+
+    private static long resolveThreadId() {
         if (Platform.isWindows()) {
             return WindowsKernel32Library.INSTANCE.GetCurrentThreadId();
         } else if (Platform.isLinux() && Platform.isIntel()) {
@@ -64,18 +75,18 @@ public class NativeFacade {
             // https://learn.microsoft.com/en-us/windows/win32/api/processthreadsapi/nf-processthreadsapi-getthreadtimes
             long cpuTime = lpKernelTime.toDWordLong().longValue() + lpUserTime.toDWordLong().longValue();
             return cpuTime * 100;
-        } else if (Platform.isLinux()) {
-            return getTotalClockTime(LinuxCLibrary.INSTANCE, LinuxCLibrary.CLOCK_THREAD_CPUTIME_ID);
-        } else if (Platform.isMac()) {
-            return getTotalClockTime(MacOSSystemLibrary.INSTANCE, MacOSSystemLibrary.CLOCK_THREAD_CPUTIME_ID);
+        } else if (Platform.isLinux() || Platform.isMac()) {
+            return ThreadCpuClock.getInstance().getCurrentThreadCpuTime();
         }
 
         return 0L;
     }
 
-    private static long getTotalClockTime(final CLibrary cLibrary, final int clockId) {
-        CLibrary.TimeSpec timeSpecBefore = new CLibrary.TimeSpec();
-        cLibrary.clock_gettime(clockId, timeSpecBefore);
-        return (timeSpecBefore.tv_sec.longValue() * 1_000_000_000L) + timeSpecBefore.tv_nsec;
+    /**
+     * Holds the resolved tid of a platform thread as a primitive, so reading it does not unbox a {@link Long}.
+     */
+    private static final class ThreadIdHolder {
+
+        private final long threadId = resolveThreadId();
     }
 }
@@ -0,0 +1,183 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.common;
+
+/**
+ * Defines the layout of the primitive array which is filled by
+ * {@link IResourceDemandDataCollector#getCurrentThreadDemandSnapshot(int, long[])}.
+ * Every value has a slot index, the demands to measure are requested and reported as a bit mask of the slots,
+ * so a caller can keep its own bookkeeping of measured values in the same bit positions.
+ */
+public final class ResourceDemandSnapshot {
+
+    /**
+     * Slot of the CPU time of the thread in ns.
+     */
+    public static final int CPU_TIME = 0;
+
+    /**
+     * Slot of the bytes allocated by the thread.
+     */
+    public static final int HEAP_BYTE_ALLOCATION = 1;
+
+    /**
+     * Slot of the bytes read from the storage by the thread.
+     */
+    public static final int DISK_READ_DEMAND = 2;
+
+    /**
+     * Slot of the bytes written to the storage by the thread.
+     */
+    public static final int DISK_WRITE_DEMAND = 3;
+
+    /**
+     * Slot of the bytes read from the network by the thread.
+     */
+    public static final int NETWORK_READ_DEMAND = 4;
+
+    /**
+     * Slot of the bytes written to the network by the thread.
+     */
+    public static final int NETWORK_WRITE_DEMAND = 5;
+
+    /**
+     * Slot of the thread id, it is measured together with any other demand.
+     */
+    public static final int THREAD = 6;
+
+    /**
+     * The minimum length of a snapshot array.
+     */
+    public static final int SIZE = 7;
+
+    /**
+     * Requests the CPU time.
+     */
+    public static final int CPU = 1 << CPU_TIME;
+
+    /**
+     * Requests the allocated bytes.
+     */
+    public static final int HEAP = 1 << HEAP_BYTE_ALLOCATION;
+
+    /**
+     * Requests the bytes read from and written to the storage.
+     */
+    public static final int DISK = 1 << DISK_READ_DEMAND | 1 << DISK_WRITE_DEMAND;
+
+    /**
+     * Requests the bytes read from and written to the network.
+     */
+    public static final int NETWORK = 1 << NETWORK_READ_DEMAND | 1 << NETWORK_WRITE_DEMAND;
+
+    /**
+     * Marks a snapshot at the end of a measured interval. The CPU time is measured first and the allocated bytes last
+     * instead of the other way round, so the overhead of measuring the other demands is not accounted to the interval.
+     */
+    public static final int END = 1 << SIZE;
+
+    private static final int THREAD_BIT = 1 << THREAD;
+
+    private ResourceDemandSnapshot() {
+    }
+
+    /**
+     * Returns the bit mask of the given demands.
+     *
+     * @param cpu     - if the CPU time is requested.
+     * @param heap    - if the allocated bytes are requested.
+     * @param disk    - if the disk demand is requested.
+     * @param network - if the network demand is requested.
+     * @return the bit mask of the requested demands.
+     */
+    public static int demands(final boolean cpu, final boolean heap, final boolean disk, final boolean network) {
+        return (cpu ? CPU : 0) | (heap ? HEAP : 0) | (disk ? DISK : 0) | (network ? NETWORK : 0);
+    }
+
+    /**
+     * Returns whether the given slot is contained in a bit mask.
+     *
+     * @param mask - the bit mask of slots.
+     * @param slot - the slot index.
+     * @return true if the slot is contained.
+     */
+    public static boolean contains(final int mask, final int slot) {
+        return (mask & (1 << slot)) != 0;
+    }
+
+    /**
+     * Writes the values of all requested demands of the current thread into the snapshot using the single value
+     * methods of the collector. The thread id is not added.
+     *
+     * @param collector - the collector.
+     * @param demands   - the bit mask of the requested demands.
+     * @param snapshot  - the array which receives the values.
+     * @return the bit mask of the slots which have been measured.
+     */
+    public static int fill(final IResourceDemandDataCollector collector, final int demands, final long[] snapshot) {
+        boolean end = (demands & END) != 0;
+        int measured = 0;
+        if (end && (demands & CPU) != 0) {
+            snapshot[CPU_TIME] = collector.getCurrentThreadCpuTime();
+            measured |= CPU;
+        }
+        if (!end && (demands & HEAP) != 0) {
+            snapshot[HEAP_BYTE_ALLOCATION] = collector.getCurrentThreadAllocatedBytes();
+            measured |= HEAP;
+        }
+        if ((demands & DISK) != 0) {
+            measured |= setReadAndWritten(collector.getDiskBytesReadAndWritten(), snapshot, DISK_READ_DEMAND, DISK);
+        }
+        if ((demands & NETWORK) != 0) {
+            measured |= setReadAndWritten(collector.getNetworkBytesReadAndWritten(), snapshot, NETWORK_READ_DEMAND, NETWORK);
+        }
+        if (end && (demands & HEAP) != 0) {
+            snapshot[HEAP_BYTE_ALLOCATION] = collector.getCurrentThreadAllocatedBytes();
+            measured |= HEAP;
+        }
+        if (!end && (demands & CPU) != 0) {
+            snapshot[CPU_TIME] = collector.getCurrentThreadCpuTime();
+            measured |= CPU;
+        }
+        return measured;
+    }
+
+    /**
+     * Adds the thread id to a snapshot in which any demand has been measured, unless it has already been added.
+     *
+     * @param measured - the bit mask of the slots which have been measured.
+     * @param snapshot - the array which receives the thread id.
+     * @return the bit mask of the measured slots including the thread id.
+     */
+    public static int withThread(final int measured, final long[] snapshot) {
+        if (measured == 0 || (measured & THREAD_BIT) != 0) {
+            return measured;
+        }
+        snapshot[THREAD] = NativeFacade.getThreadId();
+        return measured | THREAD_BIT;
+    }
+
+    private static int setReadAndWritten(final long[] readAndWritten, final long[] snapshot, final int readSlot, final int bits) {
+        // the collectors return null or an empty array if the values could not be read
+        if (readAndWritten == null || readAndWritten.length < 2) {
+            return 0;
+        }
+        snapshot[readSlot] = readAndWritten[0];
+        snapshot[readSlot + 1] = readAndWritten[1];
+        return bits;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.common;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import io.retit.opentelemetry.javaagent.extension.commons.InstanceConfiguration;
+import io.retit.opentelemetry.javaagent.extension.resources.linux.LinuxCLibrary;
+import io.retit.opentelemetry.javaagent.extension.resources.macos.MacOSSystemLibrary;
+
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the CPU time of the current thread using clock_gettime with CLOCK_THREAD_CPUTIME_ID on Linux and Mac.
+ * The implementation is selected once at startup using the following fallback chain:
+ * <ol>
+ *     <li>{@link Type#FFM}: a downcall handle of the Foreign Function &amp; Memory API (JDK 22 and higher)
+ *     writing into a reused per-thread memory segment.</li>
+ *     <li>{@link Type#JNA_DIRECT}: a JNA direct mapped native method writing into a reused per-thread long array
+ *     (64-bit platforms only).</li>
+ *     <li>{@link Type#JNA_STRUCTURE}: the JNA library interface with a {@link CLibrary.TimeSpec} structure per call.</li>
+ * </ol>
+ * The chain can be started at a specific type using the property io.retit.thread.cpu.clock. By default, the chain
+ * starts at {@link Type#JNA_DIRECT}, as the JVM prints a warning for the restricted methods of the FFM API unless
+ * native access is enabled for the agent, and future JDKs deny the access instead, so {@link Type#FFM} is opt-in.
+ */
+public abstract class ThreadCpuClock {
+
+    private static final Logger LOGGER = Logger.getLogger(ThreadCpuClock.class.getName());
+
+    private static final Type DEFAULT_TYPE = Type.JNA_DIRECT;
+
+    private static final ThreadCpuClock INSTANCE = select(InstanceConfiguration.getThreadCpuClock());
+
+    /**
+     * Returns the thread CPU clock selected at startup.
+     *
+     * @return the selected clock or null if the platform provides no clock_gettime, e.g., on Windows.
+     */
+    public static ThreadCpuClock getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates a thread CPU clock of the given type.
+     *
+     * @param type - the type of the clock.
+     * @return the clock or null if the type is not supported on this platform or JVM.
+     */
+    public static ThreadCpuClock create(final Type type) {
+        int clockId;
+        CLibrary cLibrary;
+        if (Platform.isLinux()) {
+            clockId = LinuxCLibrary.CLOCK_THREAD_CPUTIME_ID;
+            cLibrary = LinuxCLibrary.INSTANCE;
+        } else if (Platform.isMac()) {
+            clockId = MacOSSystemLibrary.CLOCK_THREAD_CPUTIME_ID;
+            cLibrary = MacOSSystemLibrary.INSTANCE;
+        } else {
+            return null;
+        }
+        // the FFM and direct implementations read the timespec as two 64-bit values
+        boolean is64Bit = Native.LONG_SIZE == Long.BYTES;
+        switch (type) {
+            case FFM:
+                return is64Bit ? FfmThreadCpuClock.create(clockId) : null;
+            case JNA_DIRECT:
+                return is64Bit ? JnaDirectThreadCpuClock.create(clockId) : null;
+            case JNA_STRUCTURE:
+                return new JnaStructureThreadCpuClock(cLibrary, clockId);
+            default:
+                return null;
+        }
+    }
+
+    private static ThreadCpuClock select(final String configuredType) {
+        Type[] types = Type.values();
+        int firstType = DEFAULT_TYPE.ordinal();
+        try {
+            if (!"AUTO".equalsIgnoreCase(configuredType)) {
+                firstType = Type.valueOf(configuredType.toUpperCase(Locale.ENGLISH)).ordinal();
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Unknown thread cpu clock {0}, falling back to AUTO", configuredType);
+            firstType = DEFAULT_TYPE.ordinal();
+        }
+        for (int i = firstType; i < types.length; i++) {
+            ThreadCpuClock clock = create(types[i]);
+            if (clock != null) {
+                LOGGER.log(Level.FINE, "Using thread cpu clock {0}", types[i]);
+                return clock;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the type of this clock.
+     *
+     * @return the type of this clock.
+     */
+    public abstract Type getType();
+
+    /**
+     * Gets the amount of CPU time in ns consumed by the current thread.
+     *
+     * @return the CPU time in ns consumed by the current thread or 0 if the time could not be read.
+     */
+    public abstract long getCurrentThreadCpuTime();
+
+    /**
+     * The available implementations in the order of the fallback chain.
+     */
+    public enum Type {
+        /**
+         * Foreign Function &amp; Memory API downcall, requires JDK 22 or higher and is only used if configured,
+         * the JVM should be started with --enable-native-access=ALL-UNNAMED.
+         */
+        FFM,
+        /**
+         * JNA direct mapping.
+         */
+        JNA_DIRECT,
+        /**
+         * JNA library interface mapping.
+         */
+        JNA_STRUCTURE
+    }
+}
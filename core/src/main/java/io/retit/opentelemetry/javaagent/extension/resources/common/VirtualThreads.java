@@ -0,0 +1,75 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Utility class to detect virtual threads.
+ * As this extension is compiled for JDK 8, Thread.isVirtual() is resolved once via a {@link MethodHandle}
+ * when it is available (JDK 21 and higher). On older JDKs every thread is considered to be a platform thread.
+ */
+public final class VirtualThreads {
+
+    private static final Logger LOGGER = Logger.getLogger(VirtualThreads.class.getName());
+
+    private static final MethodHandle IS_VIRTUAL = findIsVirtualMethod();
+
+    private VirtualThreads() {
+        // Utility class
+    }
+
+    private static MethodHandle findIsVirtualMethod() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            LOGGER.log(Level.FINE, "Thread.isVirtual() is not available, all threads are treated as platform threads");
+            return null;
+        }
+    }
+
+    /**
+     * Determines if the current thread is a virtual thread.
+     *
+     * @return true if the current thread is a virtual thread, false otherwise.
+     */
+    public static boolean isCurrentThreadVirtual() {
+        return isVirtual(Thread.currentThread());
+    }
+
+    /**
+     * Determines if the given thread is a virtual thread.
+     *
+     * @param thread - the thread to check.
+     * @return true if the thread is a virtual thread, false otherwise.
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    public static boolean isVirtual(final Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.retit.opentelemetry.javaagent.extension.emissions.SoftwareCarbonIntensityCalculator;
+import io.retit.opentelemetry.javaagent.extension.resources.linux.GcThreadCpuTimeSampler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Publishes the CPU time of the threads of the garbage collector sampled by the {@link GcThreadCpuTimeSampler}.
+ * The CPU time per {@link GcThreadPhase} is sampled whenever the metrics are collected, so it contains the concurrent
+ * phases which are still running. With every collection notification, the CPU time of the GC threads since the
+ * previous notification is recorded as the CPU time of the cycle. If the software carbon intensity is calculated,
+ * the energy of the CPU time is published per phase as a separate component of the emissions.
+ */
+final class GcCpuTimeMetrics {
+
+    private static final AttributeKey<String> GC_NAME = AttributeKey.stringKey("jvm.gc.name");
+    private static final AttributeKey<String> GC_THREAD_PHASE = AttributeKey.stringKey("jvm.gc.thread.phase");
+    private static final double NANOSECONDS_PER_MILLISECOND = 1_000_000.0;
+    private static final GcThreadPhase[] PHASES = GcThreadPhase.values();
+
+    private final GcThreadCpuTimeSampler sampler;
+    private final SoftwareCarbonIntensityCalculator softwareCarbonIntensityCalculator;
+    private final Attributes[] phaseAttributes = new Attributes[PHASES.length];
+    private final DoubleHistogram cycleCpuTimePublisher;
+    private final Map<String, Attributes> collectorAttributes = new HashMap<>();
+    private final long[] energyCpuTimes = new long[PHASES.length];
+    private final double[] energy = new double[PHASES.length];
+    private long lastCollectionCpuTime;
+
+    /**
+     * Creates the instruments of the GC CPU time metrics.
+     *
+     * @param meter                             - the meter of the extension.
+     * @param sampler                           - the sampler of the CPU time of the GC threads.
+     * @param softwareCarbonIntensityCalculator - the calculator of the energy or null if the energy is not published.
+     */
+    GcCpuTimeMetrics(final Meter meter, final GcThreadCpuTimeSampler sampler, final SoftwareCarbonIntensityCalculator softwareCarbonIntensityCalculator) {
+        this.sampler = sampler;
+        this.softwareCarbonIntensityCalculator = softwareCarbonIntensityCalculator;
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            phaseAttributes[phase] = Attributes.of(GC_THREAD_PHASE, PHASES[phase].getAttributeValue());
+        }
+
+        meter.counterBuilder("io.retit.gc.cpu.time.ms").ofDoubles().setUnit("ms")
+                .setDescription("CPU time of the threads of the garbage collector per phase in ms")
+                .buildWithCallback(measurement -> {
+                    sampler.sample();
+                    for (int phase = 0; phase < PHASES.length; phase++) {
+                        measurement.record(sampler.getCpuTime(PHASES[phase]) / NANOSECONDS_PER_MILLISECOND, phaseAttributes[phase]);
+                    }
+                });
+
+        cycleCpuTimePublisher = meter.histogramBuilder("io.retit.gc.cycle.cpu.time.ms").setUnit("ms")
+                .setDescription("CPU time of the threads of the garbage collector since the previous collection in ms").build();
+
+        if (softwareCarbonIntensityCalculator != null) {
+            meter.counterBuilder("io.retit.emissions.gc.cpu.energy.kwh").ofDoubles().setUnit("kWh")
+                    .setDescription("Energy consumed by the threads of the garbage collector per phase in kWh")
+                    .buildWithCallback(this::publishEnergy);
+        }
+    }
+
+    /**
+     * Samples the CPU time of the GC threads at the end of a collection and records the CPU time since the previous
+     * collection. Must only be called by the thread which delivers the collection notifications.
+     *
+     * @param gcName - the name of the collector, e.g., G1 Young Generation or ZGC Cycles.
+     * @return the CPU time of the GC threads since the previous collection in ns.
+     */
+    long recordCollection(final String gcName) {
+        sampler.sample();
+        long totalCpuTime = sampler.getTotalCpuTime();
+        long cycleCpuTime = totalCpuTime - lastCollectionCpuTime;
+        lastCollectionCpuTime = totalCpuTime;
+        cycleCpuTimePublisher.record(cycleCpuTime / NANOSECONDS_PER_MILLISECOND,
+                collectorAttributes.computeIfAbsent(gcName, name -> Attributes.of(GC_NAME, name)));
+        return cycleCpuTime;
+    }
+
+    private synchronized void publishEnergy(final ObservableDoubleMeasurement measurement) {
+        sampler.sample();
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            // the energy is accumulated with the CPU utilization at the time of the sample
+            long cpuTime = sampler.getCpuTime(PHASES[phase]);
+            energy[phase] += softwareCarbonIntensityCalculator.calculateEnergyInKwh(cpuTime - energyCpuTimes[phase], 0, 0, 0);
+            energyCpuTimes[phase] = cpuTime;
+            measurement.record(energy[phase], phaseAttributes[phase]);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.Meter;
+
+/**
+ * Publishes the garbage collections aggregated by the {@link GcStatistics} as metrics per collector, action and cause.
+ * The durations are recorded in a histogram, the reclaimed bytes and the committed heap are read from the
+ * accumulators when the metrics are collected. The promoted, reclaimed and committed bytes of the
+ * {@link GcPoolStatistics} are published per memory pool, so their rates show, e.g., whether the promotion into the
+ * old generation drives the major collections.
+ */
+final class GcMetrics {
+
+    private static final AttributeKey<String> MEMORY_POOL_NAME = AttributeKey.stringKey("jvm.memory.pool.name");
+
+    private final GcStatistics statistics = new GcStatistics();
+    private final DoubleHistogram durationPublisher;
+
+    /**
+     * Creates the instruments of the garbage collection metrics.
+     *
+     * @param meter          - the meter of the extension.
+     * @param poolStatistics - the statistics of the memory pools, which are recorded by the notification listener.
+     */
+    GcMetrics(final Meter meter, final GcPoolStatistics poolStatistics) {
+        durationPublisher = meter.histogramBuilder("io.retit.gc.duration.ms").setUnit("ms")
+                .setDescription("Duration of the garbage collections in ms").build();
+
+        meter.counterBuilder("io.retit.gc.reclaimed.bytes").setUnit("bytes")
+                .setDescription("Used bytes before minus used bytes after the garbage collections")
+                .buildWithCallback(measurement -> {
+                    for (GcStatistics.Entry entry : statistics.getEntries()) {
+                        measurement.record(entry.getReclaimedBytes(), entry.getAttributes());
+                    }
+                });
+
+        meter.gaugeBuilder("io.retit.gc.heap.committed.bytes").ofLongs().setUnit("bytes")
+                .setDescription("Committed bytes of all memory pools after the last garbage collection")
+                .buildWithCallback(measurement -> {
+                    for (GcStatistics.Entry entry : statistics.getEntries()) {
+                        measurement.record(entry.getCommittedBytes(), entry.getAttributes());
+                    }
+                });
+
+        Attributes[] poolAttributes = new Attributes[poolStatistics.getPoolCount()];
+        for (int pool = 0; pool < poolAttributes.length; pool++) {
+            poolAttributes[pool] = Attributes.of(MEMORY_POOL_NAME, poolStatistics.getPoolName(pool));
+        }
+
+        meter.counterBuilder("io.retit.gc.pool.promoted.bytes").setUnit("bytes")
+                .setDescription("Bytes by which the used bytes of the memory pools grew during the garbage collections")
+                .buildWithCallback(measurement -> {
+                    for (int pool = 0; pool < poolAttributes.length; pool++) {
+                        measurement.record(poolStatistics.getPromotedBytes(pool), poolAttributes[pool]);
+                    }
+                });
+
+        meter.counterBuilder("io.retit.gc.pool.reclaimed.bytes").setUnit("bytes")
+                .setDescription("Bytes by which the used bytes of the memory pools shrank during the garbage collections")
+                .buildWithCallback(measurement -> {
+                    for (int pool = 0; pool < poolAttributes.length; pool++) {
+                        measurement.record(poolStatistics.getReclaimedBytes(pool), poolAttributes[pool]);
+                    }
+                });
+
+        meter.gaugeBuilder("io.retit.gc.pool.committed.bytes").ofLongs().setUnit("bytes")
+                .setDescription("Committed bytes of the memory pools after the last garbage collection")
+                .buildWithCallback(measurement -> {
+                    for (int pool = 0; pool < poolAttributes.length; pool++) {
+                        measurement.record(poolStatistics.getCommittedBytes(pool), poolAttributes[pool]);
+                    }
+                });
+    }
+
+    /**
+     * Records a garbage collection.
+     *
+     * @param gcName         - the name of the collector.
+     * @param gcAction       - the action of the collection.
+     * @param gcCause        - the cause of the collection.
+     * @param durationMillis - the duration of the collection in ms.
+     * @param reclaimedBytes - the used bytes before the collection minus the used bytes after the collection.
+     * @param committedBytes - the committed bytes after the collection.
+     */
+    void record(final String gcName, final String gcAction, final String gcCause, final long durationMillis,
+                final long reclaimedBytes, final long committedBytes) {
+        GcStatistics.Entry entry = statistics.record(gcName, gcAction, gcCause, durationMillis, reclaimedBytes, committedBytes);
+        durationPublisher.record(durationMillis, entry.getAttributes());
+    }
+}
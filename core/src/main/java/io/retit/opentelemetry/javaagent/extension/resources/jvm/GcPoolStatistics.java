@@ -0,0 +1,170 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Aggregates garbage collections per memory pool, e.g., Eden, Survivor, Old Gen or Metaspace. The names of the pools
+ * are resolved once into an index, the usage of the pools before and after a collection is read into preallocated
+ * arrays by looking up the pools by name, so recording a collection does not allocate in the notification thread.
+ * The growth of a pool during a collection is counted as promoted bytes, e.g., the objects which are copied from the
+ * young generation into the old generation, and the shrinkage as reclaimed bytes. The totals are only written by
+ * the single JMX notification thread and read by the metric reader.
+ */
+final class GcPoolStatistics {
+
+    private final String[] poolNames;
+    private final long[] usedBeforeGc;
+    private final long[] usedAfterGc;
+    private final long[] committedAfterGc;
+    private final AtomicLongArray promotedBytes;
+    private final AtomicLongArray reclaimedBytes;
+    private final AtomicLongArray committedBytes;
+
+    private long totalUsedBeforeGc;
+    private long totalUsedAfterGc;
+    private long totalCommittedAfterGc;
+
+    /**
+     * Creates the statistics of the given memory pools.
+     *
+     * @param poolNames - the names of the memory pools as reported by the MemoryPoolMXBeans.
+     */
+    GcPoolStatistics(final String[] poolNames) {
+        this.poolNames = poolNames.clone();
+        this.usedBeforeGc = new long[poolNames.length];
+        this.usedAfterGc = new long[poolNames.length];
+        this.committedAfterGc = new long[poolNames.length];
+        this.promotedBytes = new AtomicLongArray(poolNames.length);
+        this.reclaimedBytes = new AtomicLongArray(poolNames.length);
+        this.committedBytes = new AtomicLongArray(poolNames.length);
+    }
+
+    /**
+     * Records the memory usage of a garbage collection. Pools which are missing in the usage are counted with
+     * zero bytes, pools which are not known are ignored.
+     *
+     * @param memoryUsageBeforeGc - the memory usage of the pools before the collection.
+     * @param memoryUsageAfterGc  - the memory usage of the pools after the collection.
+     */
+    void record(final Map<String, MemoryUsage> memoryUsageBeforeGc, final Map<String, MemoryUsage> memoryUsageAfterGc) {
+        totalUsedBeforeGc = 0;
+        totalUsedAfterGc = 0;
+        totalCommittedAfterGc = 0;
+        for (int pool = 0; pool < poolNames.length; pool++) {
+            MemoryUsage before = memoryUsageBeforeGc.get(poolNames[pool]);
+            MemoryUsage after = memoryUsageAfterGc.get(poolNames[pool]);
+            usedBeforeGc[pool] = before != null ? before.getUsed() : 0;
+            usedAfterGc[pool] = after != null ? after.getUsed() : 0;
+            committedAfterGc[pool] = after != null ? after.getCommitted() : 0;
+
+            long growth = usedAfterGc[pool] - usedBeforeGc[pool];
+            if (growth > 0) {
+                promotedBytes.addAndGet(pool, growth);
+            } else if (growth < 0) {
+                reclaimedBytes.addAndGet(pool, -growth);
+            }
+            committedBytes.set(pool, committedAfterGc[pool]);
+
+            totalUsedBeforeGc += usedBeforeGc[pool];
+            totalUsedAfterGc += usedAfterGc[pool];
+            totalCommittedAfterGc += committedAfterGc[pool];
+        }
+    }
+
+    /**
+     * Returns the used bytes of all pools before the last recorded collection. Must only be called by the thread
+     * which records the collections.
+     *
+     * @return the used bytes.
+     */
+    long getTotalUsedBeforeGc() {
+        return totalUsedBeforeGc;
+    }
+
+    /**
+     * Returns the used bytes of all pools after the last recorded collection. Must only be called by the thread
+     * which records the collections.
+     *
+     * @return the used bytes.
+     */
+    long getTotalUsedAfterGc() {
+        return totalUsedAfterGc;
+    }
+
+    /**
+     * Returns the committed bytes of all pools after the last recorded collection. Must only be called by the thread
+     * which records the collections.
+     *
+     * @return the committed bytes.
+     */
+    long getTotalCommittedAfterGc() {
+        return totalCommittedAfterGc;
+    }
+
+    /**
+     * Returns the number of memory pools.
+     *
+     * @return the number of pools.
+     */
+    int getPoolCount() {
+        return poolNames.length;
+    }
+
+    /**
+     * Returns the name of a memory pool.
+     *
+     * @param pool - the index of the pool.
+     * @return the name of the pool.
+     */
+    String getPoolName(final int pool) {
+        return poolNames[pool];
+    }
+
+    /**
+     * Returns the bytes by which the used bytes of a pool grew during all recorded collections.
+     *
+     * @param pool - the index of the pool.
+     * @return the promoted bytes.
+     */
+    long getPromotedBytes(final int pool) {
+        return promotedBytes.get(pool);
+    }
+
+    /**
+     * Returns the bytes by which the used bytes of a pool shrank during all recorded collections.
+     *
+     * @param pool - the index of the pool.
+     * @return the reclaimed bytes.
+     */
+    long getReclaimedBytes(final int pool) {
+        return reclaimedBytes.get(pool);
+    }
+
+    /**
+     * Returns the committed bytes of a pool after the last recorded collection.
+     *
+     * @param pool - the index of the pool.
+     * @return the committed bytes.
+     */
+    long getCommittedBytes(final int pool) {
+        return committedBytes.get(pool);
+    }
+}
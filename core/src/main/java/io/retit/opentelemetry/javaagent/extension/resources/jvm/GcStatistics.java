@@ -0,0 +1,144 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates garbage collections per collector, action and cause. The notifications of all collectors are delivered
+ * by a single JMX thread, whereas the totals are read by the metric reader, so the totals are held in lock-free
+ * accumulators. An entry is only created for the first collection of a combination, afterwards, recording a collection
+ * only looks up the entry and adds to its accumulators.
+ */
+final class GcStatistics {
+
+    private static final AttributeKey<String> GC_NAME = AttributeKey.stringKey("jvm.gc.name");
+    private static final AttributeKey<String> GC_ACTION = AttributeKey.stringKey("jvm.gc.action");
+    private static final AttributeKey<String> GC_CAUSE = AttributeKey.stringKey("jvm.gc.cause");
+
+    private final Map<String, Map<String, Map<String, Entry>>> entries = new ConcurrentHashMap<>();
+    private final Collection<Entry> allEntries = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Records a garbage collection.
+     *
+     * @param gcName         - the name of the collector, e.g., G1 Young Generation.
+     * @param gcAction       - the action of the collection, e.g., end of minor GC.
+     * @param gcCause        - the cause of the collection, e.g., G1 Evacuation Pause.
+     * @param durationMillis - the duration of the collection in ms.
+     * @param reclaimedBytes - the used bytes before the collection minus the used bytes after the collection.
+     * @param committedBytes - the committed bytes after the collection.
+     * @return the entry of the collector, action and cause.
+     */
+    Entry record(final String gcName, final String gcAction, final String gcCause, final long durationMillis,
+                 final long reclaimedBytes, final long committedBytes) {
+        Entry entry = getEntry(gcName, gcAction, gcCause);
+        entry.collections.increment();
+        entry.durationMillis.add(durationMillis);
+        // concurrent collectors may report more used bytes after the collection than before due to allocations
+        // during the collection, the reclaimed bytes are a monotonic counter
+        if (reclaimedBytes > 0) {
+            entry.reclaimedBytes.add(reclaimedBytes);
+        }
+        entry.committedBytes = committedBytes;
+        return entry;
+    }
+
+    private Entry getEntry(final String gcName, final String gcAction, final String gcCause) {
+        Map<String, Map<String, Entry>> actions = entries.computeIfAbsent(gcName, name -> new ConcurrentHashMap<>());
+        Map<String, Entry> causes = actions.computeIfAbsent(gcAction, action -> new ConcurrentHashMap<>());
+        Entry entry = causes.get(gcCause);
+        if (entry == null) {
+            entry = causes.computeIfAbsent(gcCause, cause -> {
+                Entry newEntry = new Entry(gcName, gcAction, cause);
+                allEntries.add(newEntry);
+                return newEntry;
+            });
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the entries of all combinations of collector, action and cause which have been recorded.
+     *
+     * @return the entries.
+     */
+    Collection<Entry> getEntries() {
+        return allEntries;
+    }
+
+    /**
+     * The totals of the collections of a collector with the same action and cause.
+     */
+    static final class Entry {
+
+        private final String gcName;
+        private final String gcAction;
+        private final String gcCause;
+        private final LongAdder collections = new LongAdder();
+        private final LongAdder durationMillis = new LongAdder();
+        private final LongAdder reclaimedBytes = new LongAdder();
+        private final Attributes attributes;
+        private volatile long committedBytes;
+
+        Entry(final String gcName, final String gcAction, final String gcCause) {
+            this.gcName = gcName;
+            this.gcAction = gcAction;
+            this.gcCause = gcCause;
+            this.attributes = Attributes.of(GC_NAME, gcName, GC_ACTION, gcAction, GC_CAUSE, gcCause);
+        }
+
+        String getGcName() {
+            return gcName;
+        }
+
+        String getGcAction() {
+            return gcAction;
+        }
+
+        String getGcCause() {
+            return gcCause;
+        }
+
+        long getCollections() {
+            return collections.sum();
+        }
+
+        long getDurationMillis() {
+            return durationMillis.sum();
+        }
+
+        long getReclaimedBytes() {
+            return reclaimedBytes.sum();
+        }
+
+        long getCommittedBytes() {
+            return committedBytes;
+        }
+
+        Attributes getAttributes() {
+            return attributes;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+/**
+ * The kind of work done by a thread of the garbage collector, classified by the name of the thread. The names are
+ * the ones of the operating system, which are truncated to 15 characters on Linux, and differ between the JDK versions,
+ * e.g., the workers of Parallel are named GC task thread#0 on JDK 8, ParGC Thread#0 on JDK 11 and GC Thread#0 on JDK 17.
+ * The VM Thread, which runs the collections of the Serial collector, is not classified as it executes other safepoint
+ * operations as well.
+ */
+public enum GcThreadPhase {
+
+    /**
+     * The parallel workers, which run the pauses of G1, Parallel and CMS and most of the concurrent work of ZGC and
+     * Shenandoah, e.g., GC Thread#0, Gang worker#0 (Parallel GC Threads), ZWorker#0, ZWorkerYoung#0 or Shenandoah GC Threads#0.
+     */
+    WORKER("worker"),
+
+    /**
+     * The concurrent marking of G1 and CMS, e.g., G1 Main Marker, G1 Conc#0, G1 Main Concurrent Mark GC Thread or CMS Main Thread.
+     */
+    CONCURRENT_MARK("concurrent_mark"),
+
+    /**
+     * The concurrent refinement of the remembered sets of G1, e.g., G1 Refine#0 or G1 Concurrent Refinement Thread#0.
+     */
+    REFINEMENT("refinement"),
+
+    /**
+     * The threads which control the cycles, e.g., G1 Service, ZDriver, ZDirector or Shenandoah Control Thread.
+     */
+    CONTROL("control");
+
+    private static final String[] WORKER_PREFIXES = {"GC Thread#", "GC task thread#", "ParGC Thread#", "Gang worker#",
+        "ZWorker", "RuntimeWorker#", "Shenandoah GC"};
+    private static final String[] CONCURRENT_MARK_PREFIXES = {"G1 Main Marker", "G1 Conc#", "G1 Main Concurr", "Concurrent Mark",
+        "CMS Main Thread"};
+    private static final String[] REFINEMENT_PREFIXES = {"G1 Refine", "G1 Primary Refi", "G1 Concurrent R", "G1 Young RemSet"};
+    // the matching is ordered, so the remaining threads of G1 and Shenandoah control the cycles
+    private static final String[] CONTROL_PREFIXES = {"G1 ", "Shenandoah", "ZDriver", "ZDirector", "ZStat", "ZUn"};
+
+    private final String attributeValue;
+
+    GcThreadPhase(final String attributeValue) {
+        this.attributeValue = attributeValue;
+    }
+
+    /**
+     * Returns the value of the phase used as metric attribute.
+     *
+     * @return the attribute value.
+     */
+    public String getAttributeValue() {
+        return attributeValue;
+    }
+
+    /**
+     * Classifies a thread by its name.
+     *
+     * @param threadName - the name of the thread.
+     * @return the phase of the thread or null if the thread is not a thread of the garbage collector.
+     */
+    public static GcThreadPhase of(final String threadName) {
+        if (threadName == null) {
+            return null;
+        }
+        if (startsWithAny(threadName, WORKER_PREFIXES)) {
+            return WORKER;
+        }
+        if (startsWithAny(threadName, CONCURRENT_MARK_PREFIXES)) {
+            return CONCURRENT_MARK;
+        }
+        if (startsWithAny(threadName, REFINEMENT_PREFIXES)) {
+            return REFINEMENT;
+        }
+        if (startsWithAny(threadName, CONTROL_PREFIXES)) {
+            return CONTROL;
+        }
+        return null;
+    }
+
+    private static boolean startsWithAny(final String threadName, final String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (threadName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
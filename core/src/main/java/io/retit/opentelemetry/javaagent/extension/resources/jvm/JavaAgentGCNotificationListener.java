@@ -20,18 +20,28 @@ import com.sun.management.GarbageCollectionNotificationInfo;
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.trace.Span;
 import io.retit.opentelemetry.javaagent.extension.commons.Constants;
+import io.retit.opentelemetry.javaagent.extension.commons.InstanceConfiguration;
+import io.retit.opentelemetry.javaagent.extension.metrics.MetricPublishingService;
+import io.retit.opentelemetry.javaagent.extension.resources.linux.GcThreadCpuTimeSampler;
 
 import javax.management.Notification;
 import javax.management.NotificationListener;
 import javax.management.openmbean.CompositeData;
-import java.lang.management.MemoryUsage;
-import java.util.Map;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
  * A {@link NotificationListener} which triggers on garbage collection invocations.
  * This notification listener is registered by the {@link JavaAgentGCHandler} and then waits for garbage collection notifications.
  * Once such a notification arrives, handleGCNotification(Notification) is called.
+ * If the GC metrics are enabled, every collection is aggregated into the {@link GcMetrics}, per memory pool as well.
+ * A span is only created for collections which take at least the configured span threshold. If the GC cost attribution
+ * is enabled, the CPU time of every collection is apportioned to the routes by the {@link MetricPublishingService}.
+ * If the GC CPU time is enabled, the CPU time of the collections is sampled from the GC threads by the
+ * {@link GcThreadCpuTimeSampler}, otherwise, or if no GC thread is known, it is estimated from the duration of the collections.
  */
 public class JavaAgentGCNotificationListener implements NotificationListener {
 
@@ -40,6 +50,27 @@ public class JavaAgentGCNotificationListener implements NotificationListener {
 
     private static final Logger LOGGER = Logger.getLogger(JavaAgentGCNotificationListener.class.getName());
 
+    private final boolean gcMetricsEnabled = InstanceConfiguration.isGcMetrics();
+    private final long spanThresholdMillis = InstanceConfiguration.getGcSpanThreshold();
+    private final boolean gcCostAttributionEnabled = InstanceConfiguration.isGcCostAttribution();
+    private final GcPoolStatistics poolStatistics = new GcPoolStatistics(getMemoryPoolNames());
+    private final GcThreadCpuTimeSampler gcCpuTimeSampler = InstanceConfiguration.isGcCpuTime() ? GcThreadCpuTimeSampler.create() : null;
+
+    /**
+     * Created with the first collection, as the OpenTelemetry SDK is not available when the listener is registered.
+     */
+    private volatile GcMetrics gcMetrics;
+    private volatile GcCpuTimeMetrics gcCpuTimeMetrics;
+
+    private static String[] getMemoryPoolNames() {
+        List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+        String[] poolNames = new String[memoryPools.size()];
+        for (int i = 0; i < poolNames.length; i++) {
+            poolNames[i] = memoryPools.get(i).getName();
+        }
+        return poolNames;
+    }
+
     private static String determineOperationName(final String garbageCollectionType) {
         if (END_OF_MINOR_GC.equals(garbageCollectionType)) {
             return Constants.JAVA_AGENT_GC_OPERATION_NAME_MINOR_FREE;
@@ -64,24 +95,33 @@ public class JavaAgentGCNotificationListener implements NotificationListener {
         final String operationName = determineOperationName(garbageCollectionType);
         final long duration = garbageCollectionInfo.getGcInfo().getDuration();
 
-        // Get the information about each memory space
-        Map<String, MemoryUsage> memorySpaceBefore = garbageCollectionInfo.getGcInfo().getMemoryUsageBeforeGc();
-        Map<String, MemoryUsage> memory = garbageCollectionInfo.getGcInfo().getMemoryUsageAfterGc();
-
-        long totalMemBeforeGC = 0;
-        long totalMemAfterGC = 0;
-        long memCommitted = 0;
-        for (Map.Entry<String, MemoryUsage> entry : memory.entrySet()) {
-            String name = entry.getKey();
-            MemoryUsage memdetail = entry.getValue();
-            MemoryUsage before = memorySpaceBefore.get(name);
-
-            totalMemBeforeGC += before.getUsed();
-            totalMemAfterGC += memdetail.getUsed();
-            memCommitted += memdetail.getCommitted();
-        }
+        // the usage of the memory pools is read into the preallocated arrays of the pool statistics
+        poolStatistics.record(garbageCollectionInfo.getGcInfo().getMemoryUsageBeforeGc(), garbageCollectionInfo.getGcInfo().getMemoryUsageAfterGc());
+        final long totalMemBeforeGC = poolStatistics.getTotalUsedBeforeGc();
+        final long totalMemAfterGC = poolStatistics.getTotalUsedAfterGc();
+        final long memCommitted = poolStatistics.getTotalCommittedAfterGc();
 
-        if (GlobalOpenTelemetry.isSet()) {
+        if (!GlobalOpenTelemetry.isSet()) {
+            LOGGER.warning("OpenTelemetry is not set. Cannot publish GC event.");
+            return;
+        }
+        if (gcMetricsEnabled) {
+            getGcMetrics().record(garbageCollectionInfo.getGcName(), garbageCollectionType, garbageCollectionInfo.getGcCause(), duration,
+                    totalMemBeforeGC - totalMemAfterGC, memCommitted);
+        }
+        long gcCpuTime = TimeUnit.MILLISECONDS.toNanos(duration);
+        if (gcCpuTimeSampler != null) {
+            long sampledGcCpuTime = getGcCpuTimeMetrics().recordCollection(garbageCollectionInfo.getGcName());
+            // without any classified GC thread, e.g., for the Serial collector, the duration is used instead
+            if (gcCpuTimeSampler.hasGcThreads()) {
+                gcCpuTime = sampledGcCpuTime;
+            }
+        }
+        if (gcCostAttributionEnabled) {
+            // without the sampled CPU time of the GC threads, the collection is assumed to occupy one CPU for its duration
+            MetricPublishingService.getInstance().publishGcCpuTime(gcCpuTime);
+        }
+        if (duration >= spanThresholdMillis) {
             Span span =
                     GlobalOpenTelemetry.getTracer(Constants.JAVA_AGENT_INSTRUMENTATION_NAME_GC_LISTENER).spanBuilder(operationName).setNoParent().startSpan();
             span.setAttribute(Constants.SPAN_ATTRIBUTE_START_SYSTEM_TIME, 0);
@@ -90,8 +130,26 @@ public class JavaAgentGCNotificationListener implements NotificationListener {
             span.setAttribute(Constants.SPAN_ATTRIBUTE_END_HEAP_BYTE_ALLOCATION, totalMemAfterGC);
             span.setAttribute(Constants.SPAN_ATTRIBUTE_TOTAL_HEAP_SIZE, memCommitted);
             span.end();
-        } else {
-            LOGGER.warning("OpenTelemetry is not set. Cannot create span for GC event.");
         }
     }
+
+    private GcMetrics getGcMetrics() {
+        // the notifications are delivered by a single thread
+        GcMetrics metrics = gcMetrics;
+        if (metrics == null) {
+            metrics = new GcMetrics(GlobalOpenTelemetry.get().getMeter("opentelemetry-javaagent-extension"), poolStatistics);
+            gcMetrics = metrics;
+        }
+        return metrics;
+    }
+
+    private GcCpuTimeMetrics getGcCpuTimeMetrics() {
+        GcCpuTimeMetrics metrics = gcCpuTimeMetrics;
+        if (metrics == null) {
+            metrics = new GcCpuTimeMetrics(GlobalOpenTelemetry.get().getMeter("opentelemetry-javaagent-extension"), gcCpuTimeSampler,
+                    MetricPublishingService.getInstance().getSoftwareCarbonIntensityCalculator());
+            gcCpuTimeMetrics = metrics;
+        }
+        return metrics;
+    }
 }
@@ -0,0 +1,295 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+import io.retit.opentelemetry.javaagent.extension.resources.common.IResourceDemandDataCollector;
+import io.retit.opentelemetry.javaagent.extension.resources.common.ResourceDemandSnapshot;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link IResourceDemandDataCollector} which takes the disk and network demand of a thread from a JFR event stream
+ * (jdk.jfr.consumer.RecordingStream, JDK 14 and higher) instead of the operating system, so they are available on every OS.
+ * The jdk.FileRead, jdk.FileWrite, jdk.SocketRead and jdk.SocketWrite events are consumed asynchronously by the
+ * JFR stream thread, which sums them up per thread. Reading the totals at a span boundary only costs a volatile load.
+ * The demands are only meaningful in aggregate, e.g., summed up over many transactions of a route, but not for a single
+ * span: JFR delivers the events in chunks about once per second, so the totals of a span contain the IO which has been
+ * delivered while the span was running, which mostly stems from earlier spans of the thread. Moreover, the default
+ * threshold of the events is kept, so only IO operations taking at least 20 ms are recorded, as recording every IO
+ * operation would add the cost of a JFR event to every read and write of the application. The CPU and heap demand are still read from the per-thread counters of the
+ * given collector, which are exact, whereas the jdk.ThreadCPULoad and jdk.ObjectAllocationSample events only provide
+ * periodic load fractions and throttled samples. For the socket demand accounting, only the jdk.SocketRead and
+ * jdk.SocketWrite events are consumed and the disk demand is read from the given collector as well.
+ * As this extension is compiled for JDK 8, the JFR API is resolved once using reflection.
+ */
+public final class JfrEventStreamDataCollector implements IResourceDemandDataCollector {
+
+    private static final Logger LOGGER = Logger.getLogger(JfrEventStreamDataCollector.class.getName());
+
+    private static final int DISK_READ = 0;
+    private static final int DISK_WRITE = 1;
+    private static final int NETWORK_READ = 2;
+    private static final int NETWORK_WRITE = 3;
+
+    private static final String[] EVENT_NAMES = {"jdk.FileRead", "jdk.FileWrite", "jdk.SocketRead", "jdk.SocketWrite"};
+    private static final String[] BYTES_FIELDS = {"bytesRead", "bytesWritten", "bytesRead", "bytesWritten"};
+    /**
+     * The default threshold of the IO events of JFR, IO operations which take less time are not recorded.
+     */
+    static final Duration DEFAULT_THRESHOLD = Duration.ofMillis(20);
+
+    private final IResourceDemandDataCollector delegate;
+    /**
+     * The demands of {@link ResourceDemandSnapshot} which are taken from the JFR events.
+     */
+    private final int ioDemands;
+    private final Duration threshold;
+    private final Map<Long, ThreadIoTotals> threadIoTotals = new ConcurrentHashMap<>();
+    private final ThreadLocal<ThreadIoTotals> currentThreadIoTotals = ThreadLocal.withInitial(this::registerCurrentThread);
+
+    /**
+     * The handles are RecordedEvent.getThread() as (Object)Object, RecordedThread.getJavaThreadId() as (Object)long
+     * and RecordedEvent.getLong(String) as (Object, String)long.
+     */
+    private MethodHandle getThread;
+    private MethodHandle getJavaThreadId;
+    private MethodHandle getLong;
+
+    private JfrEventStreamDataCollector(final IResourceDemandDataCollector delegate, final int ioDemands, final Duration threshold) {
+        this.delegate = delegate;
+        this.ioDemands = ioDemands;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Creates the collector and starts the JFR event stream.
+     *
+     * @param delegate  - the collector of the demands which are not taken from the JFR events.
+     * @param ioDemands - the demands of {@link ResourceDemandSnapshot} which are taken from the JFR events,
+     *                  i.e., {@link ResourceDemandSnapshot#DISK} and/or {@link ResourceDemandSnapshot#NETWORK}.
+     * @return the collector or null if JFR event streaming is not available.
+     */
+    public static IResourceDemandDataCollector create(final IResourceDemandDataCollector delegate, final int ioDemands) {
+        return create(delegate, ioDemands, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Creates the collector with the given threshold of the IO events and starts the JFR event stream.
+     *
+     * @param delegate  - the collector of the demands which are not taken from the JFR events.
+     * @param ioDemands - the demands of {@link ResourceDemandSnapshot} which are taken from the JFR events.
+     * @param threshold - the minimum duration of the recorded IO operations.
+     * @return the collector or null if JFR event streaming is not available.
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    static IResourceDemandDataCollector create(final IResourceDemandDataCollector delegate, final int ioDemands, final Duration threshold) {
+        JfrEventStreamDataCollector collector = new JfrEventStreamDataCollector(delegate, ioDemands, threshold);
+        try {
+            collector.startRecordingStream();
+            return collector;
+        } catch (Throwable e) {
+            LOGGER.log(Level.WARNING, "JFR event streaming is not available, using the disk and network demand of the OS " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private boolean isCollected(final int counter) {
+        int demand = counter < NETWORK_READ ? ResourceDemandSnapshot.DISK : ResourceDemandSnapshot.NETWORK;
+        return (ioDemands & demand) != 0;
+    }
+
+    private void startRecordingStream() throws ReflectiveOperationException {
+        Class<?> recordingStreamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+        Class<?> eventSettingsClass = Class.forName("jdk.jfr.EventSettings");
+        Class<?> recordedEventClass = Class.forName("jdk.jfr.consumer.RecordedEvent");
+        Class<?> recordedThreadClass = Class.forName("jdk.jfr.consumer.RecordedThread");
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        getThread = lookup.findVirtual(recordedEventClass, "getThread", MethodType.methodType(recordedThreadClass))
+                .asType(MethodType.methodType(Object.class, Object.class));
+        getJavaThreadId = lookup.findVirtual(recordedThreadClass, "getJavaThreadId", MethodType.methodType(long.class))
+                .asType(MethodType.methodType(long.class, Object.class));
+        getLong = lookup.findVirtual(recordedEventClass, "getLong", MethodType.methodType(long.class, String.class))
+                .asType(MethodType.methodType(long.class, Object.class, String.class));
+
+        Object recordingStream = recordingStreamClass.getConstructor().newInstance();
+        recordingStreamClass.getMethod("setReuse", boolean.class).invoke(recordingStream, true);
+        recordingStreamClass.getMethod("setOrdered", boolean.class).invoke(recordingStream, false);
+        for (int i = 0; i < EVENT_NAMES.length; i++) {
+            if (!isCollected(i)) {
+                continue;
+            }
+            // the default threshold of 20 ms is kept, so fast IO operations do not pay for an event
+            Object eventSettings = recordingStreamClass.getMethod("enable", String.class).invoke(recordingStream, EVENT_NAMES[i]);
+            eventSettings = eventSettingsClass.getMethod("withThreshold", Duration.class).invoke(eventSettings, threshold);
+            eventSettingsClass.getMethod("withoutStackTrace").invoke(eventSettings);
+
+            final int counter = i;
+            Consumer<Object> eventConsumer = event -> onEvent(event, counter);
+            recordingStreamClass.getMethod("onEvent", String.class, Consumer.class).invoke(recordingStream, EVENT_NAMES[i], eventConsumer);
+        }
+        Runnable flushAction = this::removeTerminatedThreads;
+        recordingStreamClass.getMethod("onFlush", Runnable.class).invoke(recordingStream, flushAction);
+
+        // the thread of RecordingStream.startAsync() is not a daemon thread and would keep the JVM alive
+        Method start = recordingStreamClass.getMethod("start");
+        Thread streamThread = new Thread(() -> runRecordingStream(start, recordingStream), "retit-jfr-event-stream");
+        streamThread.setDaemon(true);
+        streamThread.start();
+    }
+
+    private static void runRecordingStream(final Method start, final Object recordingStream) {
+        try {
+            start.invoke(recordingStream);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.log(Level.WARNING, "JFR event stream stopped " + e.getMessage(), e);
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void onEvent(final Object event, final int counter) {
+        try {
+            Object thread = (Object) getThread.invokeExact(event);
+            if (thread == null) {
+                return;
+            }
+            ThreadIoTotals totals = threadIoTotals.get((long) getJavaThreadId.invokeExact(thread));
+            long bytes = (long) getLong.invokeExact(event, BYTES_FIELDS[counter]);
+            // reads at the end of a file or stream are recorded with -1 bytes
+            if (totals != null && bytes > 0) {
+                totals.add(counter, bytes);
+            }
+        } catch (Throwable e) {
+            LOGGER.log(Level.FINE, "Could not read JFR event " + e.getMessage(), e);
+        }
+    }
+
+    private ThreadIoTotals registerCurrentThread() {
+        Thread thread = Thread.currentThread();
+        ThreadIoTotals totals = new ThreadIoTotals(thread);
+        threadIoTotals.put(thread.getId(), totals);
+        return totals;
+    }
+
+    private void removeTerminatedThreads() {
+        Iterator<ThreadIoTotals> iterator = threadIoTotals.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isTerminated()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public long getCurrentThreadAllocatedBytes() {
+        return delegate.getCurrentThreadAllocatedBytes();
+    }
+
+    @Override
+    public long getCurrentThreadCpuTime() {
+        return delegate.getCurrentThreadCpuTime();
+    }
+
+    @Override
+    public long[] getDiskBytesReadAndWritten() {
+        if (!isCollected(DISK_READ)) {
+            return delegate.getDiskBytesReadAndWritten();
+        }
+        long[] totals = currentThreadIoTotals.get().getTotals();
+        return new long[]{totals[DISK_READ], totals[DISK_WRITE]};
+    }
+
+    @Override
+    public long[] getNetworkBytesReadAndWritten() {
+        if (!isCollected(NETWORK_READ)) {
+            return delegate.getNetworkBytesReadAndWritten();
+        }
+        long[] totals = currentThreadIoTotals.get().getTotals();
+        return new long[]{totals[NETWORK_READ], totals[NETWORK_WRITE]};
+    }
+
+    @Override
+    public int getCurrentThreadDemandSnapshot(final int demands, final long[] snapshot) {
+        int jfrDemands = demands & ioDemands;
+        // the IO totals are read before the demands of the delegate at the start and after them at the end of a span,
+        // which mirrors the order of the delegate, so the CPU time stays the innermost measurement
+        boolean end = (demands & ResourceDemandSnapshot.END) != 0;
+        int measured = end ? 0 : getIoDemandSnapshot(jfrDemands, snapshot);
+        measured |= delegate.getCurrentThreadDemandSnapshot(demands & ~jfrDemands, snapshot);
+        if (end) {
+            measured |= getIoDemandSnapshot(jfrDemands, snapshot);
+        }
+        return ResourceDemandSnapshot.withThread(measured, snapshot);
+    }
+
+    private int getIoDemandSnapshot(final int jfrDemands, final long[] snapshot) {
+        if (jfrDemands == 0) {
+            return 0;
+        }
+        // the disk and network totals are published together and are read with a single volatile load
+        long[] totals = currentThreadIoTotals.get().getTotals();
+        if ((jfrDemands & ResourceDemandSnapshot.DISK) != 0) {
+            snapshot[ResourceDemandSnapshot.DISK_READ_DEMAND] = totals[DISK_READ];
+            snapshot[ResourceDemandSnapshot.DISK_WRITE_DEMAND] = totals[DISK_WRITE];
+        }
+        if ((jfrDemands & ResourceDemandSnapshot.NETWORK) != 0) {
+            snapshot[ResourceDemandSnapshot.NETWORK_READ_DEMAND] = totals[NETWORK_READ];
+            snapshot[ResourceDemandSnapshot.NETWORK_WRITE_DEMAND] = totals[NETWORK_WRITE];
+        }
+        return jfrDemands;
+    }
+
+    /**
+     * IO totals of a single thread. They are only written by the JFR stream thread, which publishes a new array
+     * with every update, so the reading thread gets consistent totals with a single volatile load.
+     */
+    private static final class ThreadIoTotals {
+
+        private final WeakReference<Thread> thread;
+        private volatile long[] totals = new long[EVENT_NAMES.length];
+
+        ThreadIoTotals(final Thread thread) {
+            this.thread = new WeakReference<>(thread);
+        }
+
+        void add(final int counter, final long bytes) {
+            long[] updatedTotals = totals.clone();
+            updatedTotals[counter] += bytes;
+            totals = updatedTotals;
+        }
+
+        long[] getTotals() {
+            return totals;
+        }
+
+        boolean isTerminated() {
+            Thread referencedThread = thread.get();
+            return referencedThread == null || !referencedThread.isAlive();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Consumes the JFR events which are used to estimate the resource demands of virtual threads from a JFR event stream
+ * (jdk.jfr.consumer.RecordingStream, JDK 21 and higher, as RecordedThread.isVirtual() is required). The per-thread
+ * counters of the OS only know the carrier threads, whereas JFR attributes the jdk.ExecutionSample events to the
+ * virtual thread which was mounted when the sample was taken, and the jdk.ObjectAllocationSample events to the virtual
+ * thread which allocated the sampled object. The events are passed to a {@link Listener} on the
+ * stream thread with the time at which they were recorded. After each chunk of events, which JFR delivers about once
+ * per second, the listener is called with the latest event time seen and with the CPU time the carrier threads
+ * consumed since the previous chunk. A periodic jdk.CPULoad event makes the event time advance when no virtual thread
+ * is running. As this extension is compiled for JDK 8, the JFR API is resolved once using reflection.
+ */
+public final class VirtualThreadEventStream {
+
+    /**
+     * The period of the jdk.ExecutionSample events in ns.
+     */
+    public static final long SAMPLING_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private static final Logger LOGGER = Logger.getLogger(VirtualThreadEventStream.class.getName());
+
+    private static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+    private static final String ALLOCATION_SAMPLE = "jdk.ObjectAllocationSample";
+    /**
+     * The default configuration of JFR records at most 150 allocation samples per second.
+     */
+    private static final String ALLOCATION_SAMPLE_THROTTLE = "1000/s";
+    private static final String HEARTBEAT = "jdk.CPULoad";
+    private static final String CARRIER_THREAD_CLASS = "jdk.internal.misc.CarrierThread";
+    private static final long NOT_AVAILABLE = -1;
+
+    private final Listener listener;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    /**
+     * The CPU time of the carrier threads at the previous chunk, only accessed by the stream thread.
+     */
+    private Map<Long, Long> carrierCpuTimes = new HashMap<>();
+    private long latestEventTime = Long.MIN_VALUE;
+
+    /**
+     * The handles are RecordedEvent.getStartTime() as (Object)Object, RecordedEvent.getThread(String) as (Object, String)Object,
+     * RecordedEvent.getThread() as (Object)Object, RecordedEvent.getLong(String) as (Object, String)long,
+     * RecordedThread.getJavaThreadId() as (Object)long and RecordedThread.isVirtual() as (Object)boolean.
+     */
+    private MethodHandle getStartTime;
+    private MethodHandle getThread;
+    private MethodHandle getEventThread;
+    private MethodHandle getLong;
+    private MethodHandle getJavaThreadId;
+    private MethodHandle isVirtual;
+
+    private VirtualThreadEventStream(final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the JFR event stream which passes the events of virtual threads to the given listener.
+     *
+     * @param listener - the listener, called on the stream thread only.
+     * @return true if the stream has been started, false if JFR event streaming of virtual threads is not available.
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    public static boolean start(final Listener listener) {
+        try {
+            new VirtualThreadEventStream(listener).startRecordingStream();
+            return true;
+        } catch (Throwable e) {
+            LOGGER.log(Level.WARNING, "JFR event streaming of virtual threads is not available, the virtual thread accounting is disabled " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the current time as the number of ns since the epoch, the time base of the events passed to the {@link Listener}.
+     *
+     * @return the current time in ns since the epoch.
+     */
+    public static long currentEpochNanos() {
+        return toEpochNanos(Instant.now());
+    }
+
+    private static long toEpochNanos(final Instant instant) {
+        return TimeUnit.SECONDS.toNanos(instant.getEpochSecond()) + instant.getNano();
+    }
+
+    private void startRecordingStream() throws ReflectiveOperationException {
+        Class<?> recordingStreamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+        Class<?> eventSettingsClass = Class.forName("jdk.jfr.EventSettings");
+        Class<?> recordedEventClass = Class.forName("jdk.jfr.consumer.RecordedEvent");
+        Class<?> recordedThreadClass = Class.forName("jdk.jfr.consumer.RecordedThread");
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        getStartTime = lookup.findVirtual(recordedEventClass, "getStartTime", MethodType.methodType(Instant.class))
+                .asType(MethodType.methodType(Object.class, Object.class));
+        getThread = lookup.findVirtual(recordedEventClass, "getThread", MethodType.methodType(recordedThreadClass, String.class))
+                .asType(MethodType.methodType(Object.class, Object.class, String.class));
+        getEventThread = lookup.findVirtual(recordedEventClass, "getThread", MethodType.methodType(recordedThreadClass))
+                .asType(MethodType.methodType(Object.class, Object.class));
+        getLong = lookup.findVirtual(recordedEventClass, "getLong", MethodType.methodType(long.class, String.class))
+                .asType(MethodType.methodType(long.class, Object.class, String.class));
+        getJavaThreadId = lookup.findVirtual(recordedThreadClass, "getJavaThreadId", MethodType.methodType(long.class))
+                .asType(MethodType.methodType(long.class, Object.class));
+        isVirtual = lookup.findVirtual(recordedThreadClass, "isVirtual", MethodType.methodType(boolean.class))
+                .asType(MethodType.methodType(boolean.class, Object.class));
+
+        Object recordingStream = recordingStreamClass.getConstructor().newInstance();
+        recordingStreamClass.getMethod("setReuse", boolean.class).invoke(recordingStream, true);
+        recordingStreamClass.getMethod("setOrdered", boolean.class).invoke(recordingStream, false);
+        Method enable = recordingStreamClass.getMethod("enable", String.class);
+        Method withPeriod = eventSettingsClass.getMethod("withPeriod", Duration.class);
+        Method onEvent = recordingStreamClass.getMethod("onEvent", String.class, Consumer.class);
+
+        withPeriod.invoke(enable.invoke(recordingStream, EXECUTION_SAMPLE), Duration.ofNanos(SAMPLING_PERIOD_NANOS));
+        Consumer<Object> executionSampleConsumer = this::onExecutionSample;
+        onEvent.invoke(recordingStream, EXECUTION_SAMPLE, executionSampleConsumer);
+
+        Object allocationSampleSettings = enable.invoke(recordingStream, ALLOCATION_SAMPLE);
+        eventSettingsClass.getMethod("with", String.class, String.class).invoke(allocationSampleSettings, "throttle", ALLOCATION_SAMPLE_THROTTLE);
+        eventSettingsClass.getMethod("withoutStackTrace").invoke(allocationSampleSettings);
+        Consumer<Object> allocationSampleConsumer = this::onAllocationSample;
+        onEvent.invoke(recordingStream, ALLOCATION_SAMPLE, allocationSampleConsumer);
+
+        withPeriod.invoke(enable.invoke(recordingStream, HEARTBEAT), Duration.ofSeconds(1));
+        Consumer<Object> heartbeatConsumer = this::onHeartbeat;
+        onEvent.invoke(recordingStream, HEARTBEAT, heartbeatConsumer);
+
+        Runnable flushAction = this::onFlush;
+        recordingStreamClass.getMethod("onFlush", Runnable.class).invoke(recordingStream, flushAction);
+
+        // only the CPU time the carrier threads consume after the start of the stream is apportioned
+        getCarrierCpuTimeDelta();
+
+        // the thread of RecordingStream.startAsync() is not a daemon thread and would keep the JVM alive
+        Method start = recordingStreamClass.getMethod("start");
+        Thread streamThread = new Thread(() -> runRecordingStream(start, recordingStream), "retit-jfr-virtual-thread-stream");
+        streamThread.setDaemon(true);
+        streamThread.start();
+    }
+
+    private static void runRecordingStream(final Method start, final Object recordingStream) {
+        try {
+            start.invoke(recordingStream);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.log(Level.WARNING, "JFR virtual thread event stream stopped " + e.getMessage(), e);
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void onExecutionSample(final Object event) {
+        try {
+            long eventTime = toEpochNanos((Instant) (Object) getStartTime.invokeExact(event));
+            latestEventTime = Math.max(latestEventTime, eventTime);
+            Object thread = (Object) getThread.invokeExact(event, "sampledThread");
+            if (thread != null && (boolean) isVirtual.invokeExact(thread)) {
+                listener.onExecutionSample((long) getJavaThreadId.invokeExact(thread), eventTime);
+            }
+        } catch (Throwable e) {
+            LOGGER.log(Level.FINE, "Could not read JFR event " + e.getMessage(), e);
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void onAllocationSample(final Object event) {
+        try {
+            long eventTime = toEpochNanos((Instant) (Object) getStartTime.invokeExact(event));
+            latestEventTime = Math.max(latestEventTime, eventTime);
+            Object thread = (Object) getEventThread.invokeExact(event);
+            if (thread != null && (boolean) isVirtual.invokeExact(thread)) {
+                // the weight is the number of bytes the thread allocated since the previous sample of the thread
+                listener.onAllocationSample((long) getJavaThreadId.invokeExact(thread), eventTime, (long) getLong.invokeExact(event, "weight"));
+            }
+        } catch (Throwable e) {
+            LOGGER.log(Level.FINE, "Could not read JFR event " + e.getMessage(), e);
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void onHeartbeat(final Object event) {
+        try {
+            latestEventTime = Math.max(latestEventTime, toEpochNanos((Instant) (Object) getStartTime.invokeExact(event)));
+        } catch (Throwable e) {
+            LOGGER.log(Level.FINE, "Could not read JFR event " + e.getMessage(), e);
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void onFlush() {
+        if (latestEventTime == Long.MIN_VALUE) {
+            return;
+        }
+        try {
+            listener.onFlush(latestEventTime, getCarrierCpuTimeDelta());
+        } catch (Throwable e) {
+            LOGGER.log(Level.WARNING, "Could not account the resource demands of virtual threads " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the CPU time the carrier threads consumed since the previous call. Carrier threads which terminated
+     * in between are not included.
+     *
+     * @return the CPU time in ns or -1 if the CPU time of the carrier threads is not available.
+     */
+    private long getCarrierCpuTimeDelta() {
+        if (!threadMXBean.isThreadCpuTimeSupported() || !threadMXBean.isThreadCpuTimeEnabled()) {
+            return NOT_AVAILABLE;
+        }
+        ThreadGroup rootGroup = Thread.currentThread().getThreadGroup();
+        while (rootGroup.getParent() != null) {
+            rootGroup = rootGroup.getParent();
+        }
+        Thread[] threads = new Thread[rootGroup.activeCount() * 2 + 16];
+        int threadCount = rootGroup.enumerate(threads, true);
+        Map<Long, Long> currentCarrierCpuTimes = new HashMap<>();
+        long delta = 0;
+        for (int i = 0; i < threadCount; i++) {
+            if (CARRIER_THREAD_CLASS.equals(threads[i].getClass().getName())) {
+                long threadId = threads[i].getId();
+                long cpuTime = threadMXBean.getThreadCpuTime(threadId);
+                if (cpuTime >= 0) {
+                    currentCarrierCpuTimes.put(threadId, cpuTime);
+                    Long previousCpuTime = carrierCpuTimes.get(threadId);
+                    delta += cpuTime - (previousCpuTime != null ? previousCpuTime : 0);
+                }
+            }
+        }
+        carrierCpuTimes = currentCarrierCpuTimes;
+        return currentCarrierCpuTimes.isEmpty() ? NOT_AVAILABLE : delta;
+    }
+
+    /**
+     * Receives the events of virtual threads. All times are in ns since the epoch, see {@link #currentEpochNanos()}.
+     */
+    public interface Listener {
+
+        /**
+         * Called for every jdk.ExecutionSample event of a virtual thread, i.e., the thread was running Java code
+         * on a carrier thread at the given time.
+         *
+         * @param threadId  - the id of the virtual thread.
+         * @param eventTime - the time of the sample.
+         */
+        void onExecutionSample(long threadId, long eventTime);
+
+        /**
+         * Called for every jdk.ObjectAllocationSample event of a virtual thread.
+         *
+         * @param threadId  - the id of the virtual thread.
+         * @param eventTime - the time of the allocation.
+         * @param bytes     - the bytes allocated since the previous sample of the thread.
+         */
+        void onAllocationSample(long threadId, long eventTime, long bytes);
+
+        /**
+         * Called after a chunk of events has been delivered.
+         *
+         * @param latestEventTime    - the latest time of all events delivered so far.
+         * @param carrierCpuTimeDelta - the CPU time in ns the carrier threads consumed since the previous call or -1 if it is not available.
+         */
+        void onFlush(long latestEventTime, long carrierCpuTimeDelta);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.linux;
+
+import io.retit.opentelemetry.javaagent.extension.resources.jvm.GcThreadPhase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples the CPU time of the threads of the garbage collector from /proc/self/task/[tid]/schedstat, whose first
+ * field is the time the thread spent on a CPU in ns. The threads of the garbage collector are not Java threads,
+ * so their CPU time is neither available from the ThreadMXBean nor contained in the duration of the collections, which
+ * misses the concurrent phases of, e.g., ZGC and Shenandoah.
+ * The threads are classified once by their name into a {@link GcThreadPhase}, afterwards, a sample only lists the
+ * tasks of the process and re-reads the schedstat files of the GC threads on their open channels. The CPU time of
+ * the phases is accumulated from the differences between the samples, so it does not decrease if a thread terminates.
+ */
+public final class GcThreadCpuTimeSampler {
+
+    private static final Logger LOGGER = Logger.getLogger(GcThreadCpuTimeSampler.class.getName());
+
+    private static final Path PROC_FS_SELF_TASK = FileSystems.getDefault().getPath("/proc/self/task");
+    private static final Path PROC_FS_THREAD_SELF_SCHEDSTAT = FileSystems.getDefault().getPath("/proc/thread-self/schedstat");
+    private static final int PROC_FS_SCHEDSTAT_BUFFER_SIZE = 64;
+
+    private final Map<String, GcThread> gcThreads = new HashMap<>();
+    private final Set<String> otherThreads = new HashSet<>();
+    private final Set<String> liveThreads = new HashSet<>();
+    private final long[] cpuTimes = new long[GcThreadPhase.values().length];
+
+    private GcThreadCpuTimeSampler() {
+    }
+
+    /**
+     * Creates the sampler.
+     *
+     * @return the sampler or null if the schedstat files are not available, e.g., on other operating systems.
+     */
+    public static GcThreadCpuTimeSampler create() {
+        if (!Files.isReadable(PROC_FS_SELF_TASK) || !Files.isReadable(PROC_FS_THREAD_SELF_SCHEDSTAT)) {
+            LOGGER.warning("The CPU time of the garbage collector threads is not available as " + PROC_FS_THREAD_SELF_SCHEDSTAT + " is not readable");
+            return null;
+        }
+        GcThreadCpuTimeSampler sampler = new GcThreadCpuTimeSampler();
+        try {
+            sampler.sample();
+        } catch (LinkageError e) {
+            // the sampler is created while the extension starts, which must not fail
+            LOGGER.log(Level.WARNING, "The CPU time of the garbage collector threads is not available " + e.getMessage(), e);
+            return null;
+        }
+        return sampler;
+    }
+
+    /**
+     * Samples the CPU time of the threads of the garbage collector and adds it to the CPU time of their phases.
+     */
+    public synchronized void sample() {
+        liveThreads.clear();
+        try (DirectoryStream<Path> tasks = Files.newDirectoryStream(PROC_FS_SELF_TASK)) {
+            for (Path task : tasks) {
+                String threadId = task.getFileName().toString();
+                liveThreads.add(threadId);
+                if (!otherThreads.contains(threadId)) {
+                    sampleThread(task, threadId);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not list the threads of the process " + e.getMessage(), e);
+            return;
+        }
+
+        otherThreads.retainAll(liveThreads);
+        Iterator<Map.Entry<String, GcThread>> iterator = gcThreads.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, GcThread> gcThread = iterator.next();
+            if (!liveThreads.contains(gcThread.getKey())) {
+                gcThread.getValue().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void sampleThread(final Path task, final String threadId) {
+        GcThread gcThread = gcThreads.get(threadId);
+        if (gcThread == null) {
+            GcThreadPhase phase = GcThreadPhase.of(readThreadName(task));
+            if (phase == null) {
+                otherThreads.add(threadId);
+                return;
+            }
+            gcThread = new GcThread(task.resolve("schedstat"), phase);
+            gcThreads.put(threadId, gcThread);
+        }
+        gcThread.sample(cpuTimes);
+    }
+
+    private static String readThreadName(final Path task) {
+        try {
+            return new String(Files.readAllBytes(task.resolve("comm")), StandardCharsets.US_ASCII).trim();
+        } catch (IOException e) {
+            // the thread terminated, it is removed with the next sample
+            return null;
+        }
+    }
+
+    /**
+     * Returns the CPU time of the threads of a phase, which has been sampled until the last sample.
+     *
+     * @param phase - the phase.
+     * @return the CPU time in ns.
+     */
+    public synchronized long getCpuTime(final GcThreadPhase phase) {
+        return cpuTimes[phase.ordinal()];
+    }
+
+    /**
+     * Returns whether threads of the garbage collector have been found, which is not the case, e.g., for the Serial
+     * collector, which runs in the VM Thread, or for thread names which are not known.
+     *
+     * @return true if the last sample found threads of the garbage collector.
+     */
+    public synchronized boolean hasGcThreads() {
+        return !gcThreads.isEmpty();
+    }
+
+    /**
+     * Returns the CPU time of all threads of the garbage collector, which has been sampled until the last sample.
+     *
+     * @return the CPU time in ns.
+     */
+    public synchronized long getTotalCpuTime() {
+        long totalCpuTime = 0;
+        for (long cpuTime : cpuTimes) {
+            totalCpuTime += cpuTime;
+        }
+        return totalCpuTime;
+    }
+
+    /**
+     * A thread of the garbage collector with the reader of its schedstat file and the CPU time of the last sample.
+     */
+    private static final class GcThread {
+
+        private final ProcFsFileReader schedstatReader;
+        private final GcThreadPhase phase;
+        private long lastCpuTime;
+
+        GcThread(final Path schedstat, final GcThreadPhase phase) {
+            this.schedstatReader = new ProcFsFileReader(schedstat, PROC_FS_SCHEDSTAT_BUFFER_SIZE, true);
+            this.phase = phase;
+        }
+
+        void sample(final long[] cpuTimes) {
+            try {
+                ByteBuffer content = schedstatReader.read(true);
+                long cpuTime = ProcFsFileReader.parseDigits(content, 0, content.limit());
+                // the CPU time before the first sample is counted as well, as the threads are started with the JVM
+                if (cpuTime > lastCpuTime) {
+                    cpuTimes[phase.ordinal()] += cpuTime - lastCpuTime;
+                    lastCpuTime = cpuTime;
+                }
+            } catch (IOException e) {
+                // the thread terminated, it is removed with the next sample
+                LOGGER.log(Level.FINE, "Could not read the CPU time of a garbage collector thread " + e.getMessage(), e);
+            }
+        }
+
+        void close() {
+            schedstatReader.close();
+        }
+    }
+}
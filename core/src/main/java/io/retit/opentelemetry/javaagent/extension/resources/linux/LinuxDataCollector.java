@@ -16,16 +16,24 @@
 
 package io.retit.opentelemetry.javaagent.extension.resources.linux;
 
+import io.retit.opentelemetry.javaagent.extension.commons.InstanceConfiguration;
+import io.retit.opentelemetry.javaagent.extension.resources.common.CommonResourceDemandDataCollector;
 import io.retit.opentelemetry.javaagent.extension.resources.common.IResourceDemandDataCollector;
 import io.retit.opentelemetry.javaagent.extension.resources.common.NativeFacade;
-import io.retit.opentelemetry.javaagent.extension.resources.common.CommonResourceDemandDataCollector;
+import io.retit.opentelemetry.javaagent.extension.resources.common.ResourceDemandSnapshot;
+import io.retit.opentelemetry.javaagent.extension.resources.common.VirtualThreads;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,22 +46,65 @@ public class LinuxDataCollector extends CommonResourceDemandDataCollector {
 
     private static final Logger LOGGER = Logger.getLogger(LinuxDataCollector.class.getName());
 
-    private static final ThreadLocal<Long> THREAD_LOCAL_PROC_FS_READ_OVERHEAD = ThreadLocal.withInitial(() -> 0L);
-
     /**
      * Uses the symbolic link /proc/thread-self to avoid native calls for process and thread ID.
      * This symbolic link requires a linux kernel version higher than 3.14.
      */
     private static final Path PROC_FS_THREAD_SELF_IO = FileSystems.getDefault().getPath("/proc/thread-self/io");
 
+    private static final boolean PROC_FS_THREAD_SELF_IO_AVAILABLE = Files.exists(PROC_FS_THREAD_SELF_IO);
+
+    /**
+     * The io file has about 100 bytes, the buffer is large enough to read it with a single pread call.
+     */
+    private static final int PROC_FS_IO_BUFFER_SIZE = 256;
+
     /**
      * Uses the symbolic link /proc/thread-self to avoid native calls for process and thread ID.
      * This symbolic link requires a linux kernel version higher than 3.14.
      */
     private static final Path PROC_FS_THREAD_SELF_NET = FileSystems.getDefault().getPath("/proc/thread-self/net/dev");
 
-    private static final String READ_BYTES = "rchar";
-    private static final String WRITE_BYTES = "write_bytes";
+    private static final boolean PROC_FS_THREAD_SELF_NET_AVAILABLE = Files.exists(PROC_FS_THREAD_SELF_NET);
+
+    /**
+     * The net/dev file has about 130 bytes per network interface, the buffer grows on hosts with many interfaces.
+     */
+    private static final int PROC_FS_NET_BUFFER_SIZE = 4096;
+
+    /**
+     * The readers of the platform threads, which keep their channels open. The channels of terminated threads are
+     * closed explicitly, as file channels which are garbage collected are not closed on JDK 8.
+     */
+    private static final Map<ThreadProcFsReaders, WeakReference<Thread>> OPEN_PROC_FS_READERS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<ThreadProcFsReaders> THREAD_LOCAL_PROC_FS_READERS =
+            ThreadLocal.withInitial(LinuxDataCollector::openProcFsReaders);
+
+    /**
+     * The readers of virtual threads, keyed by the native thread id of the carrier thread they are mounted on.
+     * The kernel accounts the IO of a virtual thread to its carrier thread, which is also the thread the channels of
+     * /proc/thread-self are bound to, so the readers are kept open and their reads are removed from rchar like for
+     * platform threads. The readers of terminated carrier threads are closed when a new carrier thread is seen.
+     */
+    private static final Map<Long, ThreadProcFsReaders> CARRIER_PROC_FS_READERS = new ConcurrentHashMap<>();
+
+    private static final int MAX_CARRIER_PROC_FS_READERS = 1024;
+
+    private static final Path PROC_FS_SELF_TASK = FileSystems.getDefault().getPath("/proc/self/task");
+
+    private static final ProcNetDevParser PROC_NET_DEV_PARSER = new ProcNetDevParser(
+            InstanceConfiguration.getNetworkDemandIncludedInterfaces(),
+            InstanceConfiguration.getNetworkDemandExcludedInterfaces());
+
+    /**
+     * The taskstats netlink client, if configured and available for this process.
+     */
+    private static final TaskstatsClient TASKSTATS_CLIENT = "TASKSTATS".equalsIgnoreCase(InstanceConfiguration.getIoDemandCollector())
+            ? TaskstatsClient.create() : null;
+
+    private static final byte[] READ_BYTES = "rchar: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WRITE_BYTES = "write_bytes: ".getBytes(StandardCharsets.US_ASCII);
 
     @Override
     protected long getPlatformSpecificThreadCpuTime() {
@@ -62,50 +113,154 @@ public class LinuxDataCollector extends CommonResourceDemandDataCollector {
 
     @Override
     public long[] getDiskBytesReadAndWritten() {
-        /*
-         * rchar: 476726516 wchar: 450053132 syscr: 1145703 syscw: 461006
-         * read_bytes: 933888 write_bytes: 26984448 cancelled_write_bytes: 0
-         */
-        long[] result = null;
-
-        if (Files.exists(PROC_FS_THREAD_SELF_IO)) {
-            try {
-                byte[] filearray = Files.readAllBytes(PROC_FS_THREAD_SELF_IO);
-                String text = new String(filearray, "UTF-8");
-
-                int startIndex = text.indexOf(READ_BYTES);
-                if (startIndex == -1) {
-                    return new long[]{};
-                }
-                startIndex += READ_BYTES.length() + 2;
-                int endIndex = text.indexOf('\n', startIndex);
-                long readBytes = Long.parseLong(text.substring(startIndex, endIndex)) - THREAD_LOCAL_PROC_FS_READ_OVERHEAD.get();
-
-                startIndex = text.indexOf(WRITE_BYTES);
-                if (startIndex == -1) {
-                    return new long[]{};
-                }
-                startIndex += WRITE_BYTES.length() + 2;
-                endIndex = text.indexOf('\n', startIndex);
-                long writeBytes = Long.parseLong(text.substring(startIndex, endIndex));
-
-                result = new long[2];
-                result[0] = readBytes;
-                result[1] = writeBytes;
-
-                THREAD_LOCAL_PROC_FS_READ_OVERHEAD.set(THREAD_LOCAL_PROC_FS_READ_OVERHEAD.get() + text.length());
-            } catch (IOException e) {
-                LOGGER.log(Level.SEVERE, "Could not read disk io from proc fs " + e.getMessage(), e);
+        long[] result = new long[2];
+        ThreadProcFsReaders readers = acquireProcFsReaders(!VirtualThreads.isCurrentThreadVirtual());
+        try {
+            if (!readDiskBytes(readers, result, 0)) {
+                return new long[]{};
             }
-        } else {
-            result = new long[]{0, 0};
+        } finally {
+            readers.release();
         }
         return result;
     }
 
     @Override
     public long[] getNetworkBytesReadAndWritten() {
+        long[] result = new long[2];
+        ThreadProcFsReaders readers = acquireProcFsReaders(!VirtualThreads.isCurrentThreadVirtual());
+        try {
+            if (!readNetworkBytes(readers, result, 0)) {
+                return new long[]{};
+            }
+        } finally {
+            readers.release();
+        }
+        return result;
+    }
+
+    @Override
+    protected int getIoDemandSnapshot(final int demands, final long[] snapshot) {
+        // the readers of the thread are looked up once and the values are written directly into the snapshot
+        ThreadProcFsReaders readers = acquireProcFsReaders(!VirtualThreads.isCurrentThreadVirtual());
+        int measured = 0;
+        try {
+            if ((demands & ResourceDemandSnapshot.DISK) != 0
+                    && readDiskBytes(readers, snapshot, ResourceDemandSnapshot.DISK_READ_DEMAND)) {
+                measured |= ResourceDemandSnapshot.DISK;
+            }
+            if ((demands & ResourceDemandSnapshot.NETWORK) != 0
+                    && readNetworkBytes(readers, snapshot, ResourceDemandSnapshot.NETWORK_READ_DEMAND)) {
+                measured |= ResourceDemandSnapshot.NETWORK;
+            }
+        } finally {
+            readers.release();
+        }
+        return measured;
+    }
+
+    /**
+     * Returns the proc fs readers of the current thread, which need to be released after reading.
+     *
+     * @param platformThread - whether the current thread is a platform thread.
+     * @return the readers of the current platform thread or of the carrier thread of the current virtual thread.
+     */
+    static ThreadProcFsReaders acquireProcFsReaders(final boolean platformThread) {
+        if (platformThread) {
+            return THREAD_LOCAL_PROC_FS_READERS.get();
+        }
+        long carrierThreadId = NativeFacade.getThreadId();
+        ThreadProcFsReaders readers = CARRIER_PROC_FS_READERS.get(carrierThreadId);
+        if (readers == null && CARRIER_PROC_FS_READERS.size() < MAX_CARRIER_PROC_FS_READERS) {
+            closeProcFsReadersOfTerminatedCarriers();
+            readers = CARRIER_PROC_FS_READERS.computeIfAbsent(carrierThreadId, id -> new ThreadProcFsReaders(true, true));
+        }
+        // the readers are still in use if another virtual thread has been unmounted from this carrier while reading,
+        // the fallback neither keeps its channels open nor removes its reads from rchar
+        if (readers == null || !readers.tryAcquire()) {
+            return new ThreadProcFsReaders(false, false);
+        }
+        return readers;
+    }
+
+    private static void closeProcFsReadersOfTerminatedCarriers() {
+        Iterator<Map.Entry<Long, ThreadProcFsReaders>> iterator = CARRIER_PROC_FS_READERS.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, ThreadProcFsReaders> entry = iterator.next();
+            if (!Files.exists(PROC_FS_SELF_TASK.resolve(Long.toString(entry.getKey())))) {
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static ThreadProcFsReaders openProcFsReaders() {
+        Iterator<Map.Entry<ThreadProcFsReaders, WeakReference<Thread>>> iterator = OPEN_PROC_FS_READERS.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ThreadProcFsReaders, WeakReference<Thread>> entry = iterator.next();
+            Thread thread = entry.getValue().get();
+            if (thread == null || !thread.isAlive()) {
+                entry.getKey().close();
+                iterator.remove();
+            }
+        }
+        ThreadProcFsReaders readers = new ThreadProcFsReaders(true, false);
+        OPEN_PROC_FS_READERS.put(readers, new WeakReference<>(Thread.currentThread()));
+        return readers;
+    }
 
+    /**
+     * Returns the number of proc fs readers of platform threads which are registered to be closed.
+     *
+     * @return the number of registered readers.
+     */
+    static int getOpenProcFsReaderCount() {
+        return OPEN_PROC_FS_READERS.size();
+    }
+
+    private static boolean readDiskBytes(final ThreadProcFsReaders readers, final long[] target, final int offset) {
+        /*
+         * rchar: 476726516 wchar: 450053132 syscr: 1145703 syscw: 461006
+         * read_bytes: 933888 write_bytes: 26984448 cancelled_write_bytes: 0
+         */
+
+        // the native thread id of a virtual thread changes with its carrier, the proc fs handles this case
+        if (TASKSTATS_CLIENT != null && readers.isPlatformThread()) {
+            long[] counters = readers.getTaskstatsCounters();
+            if (TASKSTATS_CLIENT.getThreadCounters((int) NativeFacade.getThreadId(), counters)) {
+                // the network demand is still read from the proc fs, which is accounted to rchar as well. As taskstats
+                // rounds rchar down to whole KiB, the result may differ from the proc fs value by up to 1 KiB
+                target[offset] = counters[0] - readers.getTotalBytesRead();
+                target[offset + 1] = counters[1];
+                return true;
+            }
+        }
+
+        if (!PROC_FS_THREAD_SELF_IO_AVAILABLE) {
+            target[offset] = 0;
+            target[offset + 1] = 0;
+            return true;
+        }
+        try {
+            // bytes read from the proc fs by previous measurements are accounted to rchar and are removed again
+            long readOverhead = readers.getTotalBytesRead();
+            ByteBuffer content = readers.getIoReader().read(readers.isKeepChannelsOpen());
+
+            long readBytes = ProcFsFileReader.parseValue(content, READ_BYTES);
+            long writeBytes = ProcFsFileReader.parseValue(content, WRITE_BYTES);
+            if (readBytes == -1 || writeBytes == -1) {
+                return false;
+            }
+            target[offset] = readBytes - readOverhead;
+            target[offset + 1] = writeBytes;
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read disk io from proc fs " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static boolean readNetworkBytes(final ThreadProcFsReaders readers, final long[] target, final int offset) {
         /*
          * Inter-|   Receive                                                |  Transmit
          * face |bytes    packets errs drop fifo frame compressed multicast|bytes    packets errs drop fifo colls carrier compressed
@@ -113,35 +268,110 @@ public class LinuxDataCollector extends CommonResourceDemandDataCollector {
          * ens18: 3207350391 1881516    0 504589    0     0          0         0 337104919  705323    0    0    0     0       0          0
          * docker0: 15146519  121372    0    0    0     0          0         0 166707055  119803    0    0    0     0       0          0
          */
-        long[] result = null;
-
-        if (Files.exists(PROC_FS_THREAD_SELF_NET)) {
-            try {
-                long totalReceivedBytes = 0;
-                long totalTransmittedBytes = 0;
-
-                List<String> fileContent = Files.readAllLines(PROC_FS_THREAD_SELF_NET, StandardCharsets.UTF_8);
-                for (String line : fileContent) {
-                    String[] parts = line.trim().split("\\s+");
-                    int numberOfNetworkParametersPerLine = 17;
-                    if (parts.length >= numberOfNetworkParametersPerLine) {
-                        long receivedBytes = Long.parseLong(parts[1]);
-                        long transmittedBytes = Long.parseLong(parts[9]);
-                        totalReceivedBytes += receivedBytes;
-                        totalTransmittedBytes += transmittedBytes;
-                    }
-                }
-                result = new long[2];
-                result[0] = totalReceivedBytes;
-                result[1] = totalTransmittedBytes;
-            } catch (IOException e) {
-                LOGGER.log(Level.SEVERE, "Could not read disk io from proc fs " + e.getMessage(), e);
+        if (!PROC_FS_THREAD_SELF_NET_AVAILABLE) {
+            target[offset] = 0;
+            target[offset + 1] = 0;
+            return true;
+        }
+        try {
+            ByteBuffer content = readers.getNetDevReader().read(readers.isKeepChannelsOpen());
+            long[] readAndWritten = readers.getNetDevSums();
+            PROC_NET_DEV_PARSER.sumReceivedAndTransmittedBytes(content, readAndWritten);
+            target[offset] = readAndWritten[0];
+            target[offset + 1] = readAndWritten[1];
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read network io from proc fs " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * The proc fs readers of a platform thread or of a carrier thread. The net/dev reader is only created if the network
+     * demand is collected. The arrays receive intermediate results, so measuring the demands of a thread does not allocate.
+     * The file descriptors of /proc/thread-self are bound to the thread which opened them, so the channels are only
+     * kept open by the readers which are always used on the same platform or carrier thread.
+     */
+    static final class ThreadProcFsReaders {
+
+        private final ProcFsFileReader ioReader = new ProcFsFileReader(PROC_FS_THREAD_SELF_IO, PROC_FS_IO_BUFFER_SIZE, true);
+        private final long[] taskstatsCounters = new long[3];
+        private final long[] netDevSums = new long[2];
+        private final boolean keepChannelsOpen;
+        private final boolean carrierThread;
+        private final AtomicBoolean inUse = new AtomicBoolean();
+        private ProcFsFileReader netDevReader;
+
+        ThreadProcFsReaders(final boolean keepChannelsOpen, final boolean carrierThread) {
+            this.keepChannelsOpen = keepChannelsOpen;
+            this.carrierThread = carrierThread;
+        }
+
+        boolean isKeepChannelsOpen() {
+            return keepChannelsOpen;
+        }
+
+        /**
+         * Returns whether the readers belong to a platform thread, whose native thread id is the id of the current thread.
+         *
+         * @return true if the readers are used by a single platform thread.
+         */
+        boolean isPlatformThread() {
+            return keepChannelsOpen && !carrierThread;
+        }
+
+        /**
+         * Marks the readers of a carrier thread as used by the current virtual thread.
+         *
+         * @return true if the readers have not been in use.
+         */
+        boolean tryAcquire() {
+            return inUse.compareAndSet(false, true);
+        }
+
+        void release() {
+            if (carrierThread) {
+                inUse.set(false);
             }
-        } else {
-            result = new long[]{0, 0};
         }
 
-        return result;
+        ProcFsFileReader getIoReader() {
+            return ioReader;
+        }
+
+        ProcFsFileReader getNetDevReader() {
+            if (netDevReader == null) {
+                netDevReader = new ProcFsFileReader(PROC_FS_THREAD_SELF_NET, PROC_FS_NET_BUFFER_SIZE, false);
+            }
+            return netDevReader;
+        }
+
+        long[] getTaskstatsCounters() {
+            return taskstatsCounters;
+        }
+
+        long[] getNetDevSums() {
+            return netDevSums;
+        }
+
+        /**
+         * Returns the bytes read by both readers, as reading any proc fs file is accounted to rchar.
+         * The fallback readers of virtual threads are not reused, so their reads are not removed from rchar.
+         *
+         * @return the total bytes read by the readers of this thread.
+         */
+        long getTotalBytesRead() {
+            if (!keepChannelsOpen) {
+                return 0;
+            }
+            return ioReader.getTotalBytesRead() + (netDevReader == null ? 0 : netDevReader.getTotalBytesRead());
+        }
+
+        void close() {
+            ioReader.close();
+            if (netDevReader != null) {
+                netDevReader.close();
+            }
+        }
     }
 }
-
@@ -0,0 +1,229 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.linux;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file of the proc file system into a reused heap {@link ByteBuffer}. A heap buffer is used as the readers
+ * are created per thread, the reads are copied from the temporary direct buffer of the JDK.
+ * Files in the proc file system are generated on every read starting at offset 0, therefore, a file
+ * can be read again using a positional read (pread) on an already open {@link FileChannel}.
+ * Instances of this class are not thread safe and are meant to be used per thread, e.g., for the
+ * /proc/thread-self files which are resolved to the thread opening them.
+ */
+class ProcFsFileReader {
+
+    private static final int MAX_CAPACITY = 1 << 20;
+
+    private final Path path;
+    private final boolean singleRecord;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private long totalBytesRead;
+
+    /**
+     * Creates a new reader for the given file.
+     *
+     * @param path            - the file to read.
+     * @param initialCapacity - the initial capacity of the read buffer, the buffer grows if the file does not fit.
+     * @param singleRecord    - true if the file is generated as a single record and is thus returned completely
+     *                        by the first read that does not fill the buffer, false if the file needs to be read until the end.
+     */
+    ProcFsFileReader(final Path path, final int initialCapacity, final boolean singleRecord) {
+        this.path = path;
+        this.singleRecord = singleRecord;
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    /**
+     * Reads the whole file into the reused buffer.
+     *
+     * @param keepChannelOpen - true if the channel should be kept open for subsequent reads, false if the
+     *                        file should be opened and closed for this read only.
+     * @return the buffer containing the file content from position 0 up to its limit. The buffer
+     * is only valid until the next call to this method.
+     * @throws IOException - if the file could not be read.
+     */
+    ByteBuffer read(final boolean keepChannelOpen) throws IOException {
+        // the Buffer methods are called on Buffer, as JDK 9 and higher override them with covariant return types,
+        // which do not exist on JDK 8
+        ((Buffer) buffer).clear();
+        if (keepChannelOpen) {
+            boolean reopened = channel == null;
+            if (reopened) {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+            try {
+                readFully(channel);
+            } catch (IOException e) {
+                close();
+                if (reopened) {
+                    throw e;
+                }
+                // the thread which opened the channel terminated and its native thread id has been reused
+                ((Buffer) buffer).clear();
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                readFully(channel);
+            }
+        } else {
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                readFully(fileChannel);
+            }
+        }
+        ((Buffer) buffer).flip();
+        totalBytesRead += buffer.limit();
+        return buffer;
+    }
+
+    private void readFully(final FileChannel fileChannel) throws IOException {
+        long position = 0;
+        while (true) {
+            int remaining = buffer.remaining();
+            int bytesRead = fileChannel.read(buffer, position);
+            if (bytesRead <= 0 || singleRecord && bytesRead < remaining) {
+                return;
+            }
+            position += bytesRead;
+            if (!buffer.hasRemaining()) {
+                grow();
+            }
+        }
+    }
+
+    private void grow() throws IOException {
+        if (buffer.capacity() >= MAX_CAPACITY) {
+            throw new IOException("File " + path + " exceeds the maximum size of " + MAX_CAPACITY + " bytes");
+        }
+        ByteBuffer largerBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+        ((Buffer) buffer).flip();
+        largerBuffer.put(buffer);
+        buffer = largerBuffer;
+    }
+
+    /**
+     * Returns the total number of bytes read by this reader. As the bytes read by this reader are accounted
+     * to the reading thread by the kernel, this value can be used to remove the overhead of the measurement.
+     *
+     * @return the total number of bytes read by this reader.
+     */
+    long getTotalBytesRead() {
+        return totalBytesRead;
+    }
+
+    /**
+     * Closes the channel kept open by this reader, if any.
+     */
+    void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // the channel is discarded anyway
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Parses the unsigned decimal value following the given key in a file with lines in the format "key: value".
+     * The key needs to be at the beginning of a line, the content is expected in ASCII encoding.
+     *
+     * @param content - the file content from position 0 to its limit.
+     * @param key     - the ASCII bytes of the key including the separator, e.g., "rchar: ".
+     * @return the parsed value or -1 if the key is not found.
+     */
+    static long parseValue(final ByteBuffer content, final byte[] key) {
+        int limit = content.limit();
+        int lineStart = 0;
+        while (lineStart + key.length <= limit) {
+            if (startsWith(content, lineStart, key)) {
+                return parseDigits(content, lineStart + key.length, limit);
+            }
+            lineStart = indexOf(content, (byte) '\n', lineStart, limit) + 1;
+            if (lineStart == 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the unsigned decimal value at the given position, leading spaces are skipped.
+     *
+     * @param content - the file content.
+     * @param from    - the position to start parsing.
+     * @param limit   - the position to stop parsing.
+     * @return the parsed value.
+     */
+    static long parseDigits(final ByteBuffer content, final int from, final int limit) {
+        int position = from;
+        while (position < limit && content.get(position) == ' ') {
+            position++;
+        }
+        long value = 0;
+        while (position < limit) {
+            int digit = content.get(position) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            position++;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the index of the given byte in the content.
+     *
+     * @param content - the file content.
+     * @param value   - the byte to find.
+     * @param from    - the position to start searching.
+     * @param limit   - the position to stop searching.
+     * @return the index of the byte or -1 if it is not found.
+     */
+    static int indexOf(final ByteBuffer content, final byte value, final int from, final int limit) {
+        for (int i = from; i < limit; i++) {
+            if (content.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether the content contains the given bytes at the given position.
+     *
+     * @param content  - the file content, which needs to contain at least prefix.length bytes after the position.
+     * @param position - the position to compare.
+     * @param prefix   - the expected bytes.
+     * @return true if the content starts with the prefix at the position.
+     */
+    static boolean startsWith(final ByteBuffer content, final int position, final byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (content.get(position + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
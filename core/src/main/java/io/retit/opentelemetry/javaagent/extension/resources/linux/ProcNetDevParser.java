@@ -0,0 +1,138 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.linux;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sums up the received and transmitted bytes of the network interfaces listed in /proc/[pid]/net/dev.
+ * The content is scanned on byte level, only the receive and transmit bytes columns are parsed.
+ * Network interfaces can be included or excluded based on the prefix of their name, e.g., "lo" or "veth".
+ */
+class ProcNetDevParser {
+
+    private static final byte COLON = ':';
+    private static final byte NEW_LINE = '\n';
+    private static final byte SPACE = ' ';
+
+    /**
+     * The transmitted bytes are the 9th column after the interface name.
+     */
+    private static final int TRANSMIT_BYTES_COLUMN = 8;
+
+    private final byte[][] includedInterfacePrefixes;
+    private final byte[][] excludedInterfacePrefixes;
+
+    /**
+     * Creates a new parser.
+     *
+     * @param includedInterfaces - comma separated list of interface name prefixes to include, all interfaces are included if empty.
+     * @param excludedInterfaces - comma separated list of interface name prefixes to exclude.
+     */
+    ProcNetDevParser(final String includedInterfaces, final String excludedInterfaces) {
+        this.includedInterfacePrefixes = toPrefixes(includedInterfaces);
+        this.excludedInterfacePrefixes = toPrefixes(excludedInterfaces);
+    }
+
+    private static byte[][] toPrefixes(final String commaSeparatedPrefixes) {
+        List<byte[]> prefixes = new ArrayList<>();
+        if (commaSeparatedPrefixes != null) {
+            for (String prefix : commaSeparatedPrefixes.split(",")) {
+                String trimmedPrefix = prefix.trim();
+                if (!trimmedPrefix.isEmpty()) {
+                    prefixes.add(trimmedPrefix.getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+        }
+        return prefixes.toArray(new byte[0][]);
+    }
+
+    /**
+     * Sums up the received and transmitted bytes of all included network interfaces.
+     *
+     * @param content - the content of the net/dev file from position 0 to its limit.
+     * @param result  - array with at least two elements, the first element is set to the received bytes and
+     *                the second element is set to the transmitted bytes.
+     */
+    void sumReceivedAndTransmittedBytes(final ByteBuffer content, final long[] result) {
+        long totalReceivedBytes = 0;
+        long totalTransmittedBytes = 0;
+
+        int limit = content.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = ProcFsFileReader.indexOf(content, NEW_LINE, lineStart, limit);
+            if (lineEnd == -1) {
+                lineEnd = limit;
+            }
+            // the two header lines do not contain a colon
+            int colon = ProcFsFileReader.indexOf(content, COLON, lineStart, lineEnd);
+            if (colon != -1 && isIncluded(content, lineStart, colon)) {
+                int position = colon + 1;
+                for (int column = 0; column <= TRANSMIT_BYTES_COLUMN && position < lineEnd; column++) {
+                    position = skipSpaces(content, position, lineEnd);
+                    if (column == 0) {
+                        totalReceivedBytes += ProcFsFileReader.parseDigits(content, position, lineEnd);
+                    } else if (column == TRANSMIT_BYTES_COLUMN) {
+                        totalTransmittedBytes += ProcFsFileReader.parseDigits(content, position, lineEnd);
+                    }
+                    position = skipNonSpaces(content, position, lineEnd);
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        result[0] = totalReceivedBytes;
+        result[1] = totalTransmittedBytes;
+    }
+
+    private boolean isIncluded(final ByteBuffer content, final int lineStart, final int colon) {
+        int nameStart = skipSpaces(content, lineStart, colon);
+        if (includedInterfacePrefixes.length > 0 && !hasPrefix(content, nameStart, colon, includedInterfacePrefixes)) {
+            return false;
+        }
+        return !hasPrefix(content, nameStart, colon, excludedInterfacePrefixes);
+    }
+
+    private static boolean hasPrefix(final ByteBuffer content, final int nameStart, final int nameEnd, final byte[][] prefixes) {
+        for (byte[] prefix : prefixes) {
+            if (nameEnd - nameStart >= prefix.length && ProcFsFileReader.startsWith(content, nameStart, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int skipSpaces(final ByteBuffer content, final int from, final int limit) {
+        int position = from;
+        while (position < limit && content.get(position) == SPACE) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int skipNonSpaces(final ByteBuffer content, final int from, final int limit) {
+        int position = from;
+        while (position < limit && content.get(position) != SPACE) {
+            position++;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ *   Copyright 2024 RETIT GmbH
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package io.retit.opentelemetry.javaagent.extension.resources.linux;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import io.retit.opentelemetry.javaagent.extension.resources.common.NativeFacade;
+
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queries the per-thread IO counters of the Linux taskstats interface over a generic netlink socket.
+ * A TASKSTATS_CMD_GET request for a thread id returns the whole struct taskstats in a single binary message,
+ * which replaces reading and parsing /proc/thread-self/io. The kernel rounds read_char and write_bytes down to whole KiB,
+ * so the IO demand of a span is only accurate to 1 KiB. Every thread uses its own socket and reused buffers,
+ * the sockets of terminated threads are closed when a new socket is opened.
+ * Most kernels only answer taskstats requests of processes with CAP_NET_ADMIN and only in the initial network
+ * namespace, otherwise {@link #create()} fails and the proc fs is used instead.
+ * The native functions are bound using a JNA direct mapping, which is only used on 64-bit platforms.
+ */
+final class TaskstatsClient {
+
+    private static final Logger LOGGER = Logger.getLogger(TaskstatsClient.class.getName());
+
+    private static final int AF_NETLINK = 16;
+    private static final int SOCK_RAW = 3;
+    private static final int SOCK_CLOEXEC = 0x80000;
+    private static final int NETLINK_GENERIC = 16;
+
+    private static final int NLMSG_HEADER_SIZE = 16;
+    private static final int GENL_HEADER_SIZE = 4;
+    private static final int NLA_HEADER_SIZE = 4;
+    private static final int NLMSG_ERROR = 2;
+    private static final int NLM_F_REQUEST = 1;
+    private static final int NLA_TYPE_MASK = 0x3FFF;
+
+    private static final int GENL_ID_CTRL = 0x10;
+    private static final int CTRL_CMD_GETFAMILY = 3;
+    private static final int CTRL_ATTR_FAMILY_ID = 1;
+    private static final int CTRL_ATTR_FAMILY_NAME = 2;
+    private static final byte[] TASKSTATS_FAMILY_NAME = "TASKSTATS\0".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int TASKSTATS_CMD_GET = 1;
+    private static final int TASKSTATS_GENL_VERSION = 1;
+    private static final int TASKSTATS_CMD_ATTR_PID = 1;
+    private static final int TASKSTATS_TYPE_STATS = 3;
+    private static final int TASKSTATS_TYPE_AGGR_PID = 4;
+
+    /**
+     * Offsets of the fields of struct taskstats, which only grows at its end, see include/uapi/linux/taskstats.h.
+     */
+    private static final int CPU_RUN_REAL_TOTAL_OFFSET = 64;
+    private static final int READ_CHAR_OFFSET = 216;
+    private static final int WRITE_BYTES_OFFSET = 256;
+    private static final int MINIMUM_TASKSTATS_SIZE = WRITE_BYTES_OFFSET + Long.BYTES;
+
+    private static final int BUFFER_SIZE = 2048;
+    private static final int MAX_STALE_RESPONSES = 4;
+
+    private final int familyId;
+    private final Map<NetlinkChannel, WeakReference<Thread>> openChannels = new ConcurrentHashMap<>();
+    private final ThreadLocal<NetlinkChannel> threadLocalChannel = ThreadLocal.withInitial(this::openChannel);
+
+    private TaskstatsClient(final int familyId) {
+        this.familyId = familyId;
+    }
+
+    /**
+     * Resolves the taskstats netlink family and checks that the counters of the current thread can be queried.
+     *
+     * @return the client or null if taskstats is not available for this process.
+     */
+    static TaskstatsClient create() {
+        // the native thread id is only resolved on Intel platforms, see NativeFacade
+        if (!Platform.isLinux() || !Platform.isIntel() || Native.LONG_SIZE != Long.BYTES) {
+            return null;
+        }
+        try {
+            Native.register(DirectCLibrary.class, Platform.C_LIBRARY_NAME);
+            NetlinkChannel channel = NetlinkChannel.open();
+            if (channel == null) {
+                return null;
+            }
+            int familyId = channel.resolveTaskstatsFamily();
+            channel.close();
+            if (familyId <= 0) {
+                LOGGER.info("Taskstats netlink family is not available, using the proc fs");
+                return null;
+            }
+            TaskstatsClient client = new TaskstatsClient(familyId);
+            long[] counters = new long[3];
+            if (!client.getThreadCounters((int) NativeFacade.getThreadId(), counters)) {
+                LOGGER.info("Taskstats of the threads can not be queried, e.g., due to a missing CAP_NET_ADMIN capability, using the proc fs");
+                return null;
+            }
+            return client;
+        } catch (LinkageError e) {
+            LOGGER.log(Level.FINE, "JNA direct mapping of the socket functions is not available " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Queries the counters of a thread.
+     *
+     * @param tid      - the native id of the thread.
+     * @param counters - receives the bytes read (read_char), the bytes written to the storage (write_bytes)
+     *                 and the CPU time in ns (cpu_run_real_total).
+     * @return true if the counters have been queried.
+     */
+    boolean getThreadCounters(final int tid, final long[] counters) {
+        NetlinkChannel channel = threadLocalChannel.get();
+        if (channel == null) {
+            return false;
+        }
+        ByteBuffer stats = channel.requestTaskstats(familyId, tid);
+        if (stats == null) {
+            return false;
+        }
+        counters[0] = stats.getLong(stats.position() + READ_CHAR_OFFSET);
+        counters[1] = stats.getLong(stats.position() + WRITE_BYTES_OFFSET);
+        counters[2] = stats.getLong(stats.position() + CPU_RUN_REAL_TOTAL_OFFSET);
+        return true;
+    }
+
+    private NetlinkChannel openChannel() {
+        Iterator<Map.Entry<NetlinkChannel, WeakReference<Thread>>> iterator = openChannels.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<NetlinkChannel, WeakReference<Thread>> entry = iterator.next();
+            Thread thread = entry.getValue().get();
+            if (thread == null || !thread.isAlive()) {
+                entry.getKey().close();
+                iterator.remove();
+            }
+        }
+        NetlinkChannel channel = NetlinkChannel.open();
+        if (channel != null) {
+            openChannels.put(channel, new WeakReference<>(Thread.currentThread()));
+        }
+        return channel;
+    }
+
+    /**
+     * A generic netlink socket with reused request and response buffers, used by a single thread.
+     */
+    private static final class NetlinkChannel {
+
+        private final int socket;
+        private final byte[] request = new byte[BUFFER_SIZE];
+        private final byte[] response = new byte[BUFFER_SIZE];
+        private final ByteBuffer requestBuffer = ByteBuffer.wrap(request).order(ByteOrder.nativeOrder());
+        private final ByteBuffer responseBuffer = ByteBuffer.wrap(response).order(ByteOrder.nativeOrder());
+        private int sequence;
+
+        private NetlinkChannel(final int socket) {
+            this.socket = socket;
+        }
+
+        static NetlinkChannel open() {
+            int socket = DirectCLibrary.socket(AF_NETLINK, SOCK_RAW | SOCK_CLOEXEC, NETLINK_GENERIC);
+            if (socket < 0) {
+                LOGGER.fine("Could not open netlink socket, errno " + Native.getLastError());
+                return null;
+            }
+            return new NetlinkChannel(socket);
+        }
+
+        int resolveTaskstatsFamily() {
+            int length = startRequest(GENL_ID_CTRL, CTRL_CMD_GETFAMILY);
+            length = putAttribute(length, CTRL_ATTR_FAMILY_NAME, TASKSTATS_FAMILY_NAME);
+            int responseLength = exchange(length);
+            if (responseLength < 0) {
+                return -1;
+            }
+            int attribute = findAttribute(NLMSG_HEADER_SIZE + GENL_HEADER_SIZE, responseLength, CTRL_ATTR_FAMILY_ID);
+            return attribute < 0 ? -1 : responseBuffer.getShort(attribute + NLA_HEADER_SIZE) & 0xFFFF;
+        }
+
+        ByteBuffer requestTaskstats(final int familyId, final int tid) {
+            int length = startRequest(familyId, TASKSTATS_CMD_GET);
+            requestBuffer.putShort(length, (short) (NLA_HEADER_SIZE + Integer.BYTES));
+            requestBuffer.putShort(length + 2, (short) TASKSTATS_CMD_ATTR_PID);
+            requestBuffer.putInt(length + NLA_HEADER_SIZE, tid);
+            length += NLA_HEADER_SIZE + Integer.BYTES;
+            int responseLength = exchange(length);
+            if (responseLength < 0) {
+                return null;
+            }
+            int aggregate = findAttribute(NLMSG_HEADER_SIZE + GENL_HEADER_SIZE, responseLength, TASKSTATS_TYPE_AGGR_PID);
+            if (aggregate < 0) {
+                return null;
+            }
+            int aggregateEnd = aggregate + (responseBuffer.getShort(aggregate) & 0xFFFF);
+            int stats = findAttribute(aggregate + NLA_HEADER_SIZE, aggregateEnd, TASKSTATS_TYPE_STATS);
+            if (stats < 0 || (responseBuffer.getShort(stats) & 0xFFFF) - NLA_HEADER_SIZE < MINIMUM_TASKSTATS_SIZE) {
+                return null;
+            }
+            // called on Buffer as the covariant ByteBuffer.position(int) of JDK 9 and higher does not exist on JDK 8
+            ((Buffer) responseBuffer).position(stats + NLA_HEADER_SIZE);
+            return responseBuffer;
+        }
+
+        private int startRequest(final int type, final int command) {
+            sequence++;
+            requestBuffer.putShort(4, (short) type);
+            requestBuffer.putShort(6, (short) NLM_F_REQUEST);
+            requestBuffer.putInt(8, sequence);
+            requestBuffer.putInt(12, 0);
+            request[NLMSG_HEADER_SIZE] = (byte) command;
+            request[NLMSG_HEADER_SIZE + 1] = (byte) TASKSTATS_GENL_VERSION;
+            requestBuffer.putShort(NLMSG_HEADER_SIZE + 2, (short) 0);
+            return NLMSG_HEADER_SIZE + GENL_HEADER_SIZE;
+        }
+
+        private int putAttribute(final int offset, final int type, final byte[] value) {
+            requestBuffer.putShort(offset, (short) (NLA_HEADER_SIZE + value.length));
+            requestBuffer.putShort(offset + 2, (short) type);
+            System.arraycopy(value, 0, request, offset + NLA_HEADER_SIZE, value.length);
+            return offset + align(NLA_HEADER_SIZE + value.length);
+        }
+
+        /**
+         * Sends the request and receives the response with the same sequence number.
+         *
+         * @param length - the length of the request.
+         * @return the length of the response or -1 if the request failed.
+         */
+        private int exchange(final int length) {
+            requestBuffer.putInt(0, length);
+            if (DirectCLibrary.send(socket, request, length, 0) != length) {
+                return -1;
+            }
+            for (int i = 0; i < MAX_STALE_RESPONSES; i++) {
+                long responseLength = DirectCLibrary.recv(socket, response, response.length, 0);
+                if (responseLength < NLMSG_HEADER_SIZE + GENL_HEADER_SIZE) {
+                    return -1;
+                }
+                if (responseBuffer.getInt(8) != sequence) {
+                    // response of a request which failed before, e.g., due to a timeout
+                    continue;
+                }
+                if ((responseBuffer.getShort(4) & 0xFFFF) == NLMSG_ERROR) {
+                    return -1;
+                }
+                return (int) Math.min(responseLength, responseBuffer.getInt(0));
+            }
+            return -1;
+        }
+
+        private int findAttribute(final int start, final int end, final int type) {
+            int offset = start;
+            while (offset + NLA_HEADER_SIZE <= end) {
+                int attributeLength = responseBuffer.getShort(offset) & 0xFFFF;
+                if (attributeLength < NLA_HEADER_SIZE) {
+                    return -1;
+                }
+                if ((responseBuffer.getShort(offset + 2) & NLA_TYPE_MASK) == type) {
+                    return offset + attributeLength <= end ? offset : -1;
+                }
+                offset += align(attributeLength);
+            }
+            return -1;
+        }
+
+        private static int align(final int length) {
+            return (length + 3) & ~3;
+        }
+
+        void close() {
+            DirectCLibrary.close(socket);
+        }
+    }
+
+    /**
+     * Direct mapping of the socket functions of the c library, the native methods are bound by
+     * {@link Native#register(Class, String)}. size_t and ssize_t are mapped to long.
+     */
+    @SuppressWarnings("checkstyle:MethodName")
+    private static final class DirectCLibrary {
+
+        private DirectCLibrary() {
+            // Native methods only
+        }
+
+        static native int socket(int domain, int type, int protocol);
+
+        static native long send(int socket, byte[] buffer, long length, int flags);
+
+        static native long recv(int socket, byte[] buffer, long length, int flags);
+
+        static native int close(int socket);
+    }
+}
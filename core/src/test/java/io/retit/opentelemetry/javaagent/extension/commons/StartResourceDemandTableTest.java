@@ -0,0 +1,57 @@
+package io.retit.opentelemetry.javaagent.extension.commons;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class StartResourceDemandTableTest {
+
+    @Test
+    public void testRecordsAreRemovedAtSpanEnd() {
+        StartResourceDemandTable table = new StartResourceDemandTable(2);
+        long[] record = new long[StartResourceDemandTable.RECORD_SIZE];
+        StartResourceDemandTable.set(record, StartResourceDemandTable.CPU_TIME, 42);
+
+        Assertions.assertTrue(table.put(1, record));
+        Assertions.assertEquals(1, table.size());
+        long[] removed = new long[StartResourceDemandTable.RECORD_SIZE];
+        Assertions.assertTrue(table.remove(1, removed));
+        Assertions.assertArrayEquals(record, removed);
+        Assertions.assertFalse(table.remove(1, removed));
+        Assertions.assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testInvalidKeysAreNotStored() {
+        StartResourceDemandTable table = new StartResourceDemandTable(2);
+        Assertions.assertFalse(table.put(0, new long[StartResourceDemandTable.RECORD_SIZE]));
+        Assertions.assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testSpanIdsAreConvertedToKeys() {
+        Assertions.assertEquals(0x00f067aa0ba902b7L, StartResourceDemandTable.toKey("00f067aa0ba902b7"));
+        Assertions.assertEquals(-1L, StartResourceDemandTable.toKey("ffffffffffffffff"));
+        Assertions.assertEquals(0, StartResourceDemandTable.toKey("0000000000000000"));
+        Assertions.assertEquals(0, StartResourceDemandTable.toKey("00f067aa0ba902"));
+        Assertions.assertEquals(0, StartResourceDemandTable.toKey("00f067aa0ba902xz"));
+    }
+
+    @Test
+    public void testRecordsOfSpansInProgressAreOnlyEvictedAfterTheMaxAge() {
+        // two segments holding one span each, the keys 2 and 4 share a segment
+        StartResourceDemandTable table = new StartResourceDemandTable(2, TimeUnit.MINUTES.toNanos(1));
+        Assertions.assertTrue(table.put(2, new long[StartResourceDemandTable.RECORD_SIZE]));
+        Assertions.assertFalse(table.put(4, new long[StartResourceDemandTable.RECORD_SIZE]));
+        Assertions.assertTrue(table.put(3, new long[StartResourceDemandTable.RECORD_SIZE]));
+        Assertions.assertEquals(2, table.size());
+
+        // the record of the span has not been removed at its end, e.g., as the configuration has been reloaded
+        StartResourceDemandTable otherTable = new StartResourceDemandTable(2, 0);
+        Assertions.assertTrue(otherTable.put(2, new long[StartResourceDemandTable.RECORD_SIZE]));
+        Assertions.assertTrue(otherTable.put(4, new long[StartResourceDemandTable.RECORD_SIZE]));
+        Assertions.assertFalse(otherTable.remove(2, new long[StartResourceDemandTable.RECORD_SIZE]));
+        Assertions.assertTrue(otherTable.remove(4, new long[StartResourceDemandTable.RECORD_SIZE]));
+    }
+}
@@ -0,0 +1,47 @@
+package io.retit.opentelemetry.javaagent.extension.emissions;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SoftwareCarbonIntensityCalculatorTest {
+
+    private static final double DELTA = 1e-9;
+    private static final long ONE_MINUTE = TimeUnit.MINUTES.toNanos(1);
+    private static final long TEN_SECONDS = TimeUnit.SECONDS.toNanos(10);
+
+    // 1 W idle, 3 W at full load, 2 vCPUs, PUE 1.5, 400 g CO2e per kWh, 600 mg embodied emissions per minute
+    private final SoftwareCarbonIntensityCalculator calculator =
+            new SoftwareCarbonIntensityCalculator(1, 3, 2, 1e-6, 2e-6, 3e-6, 1.5, 0.0004, 600);
+
+    @Test
+    public void testEnergyOfDemandVector() {
+        // one CPU minute at idle power: 1 W * 1/60 h = 1/60000 kWh
+        Assertions.assertEquals(1.0 / 60_000 * 1.5, calculator.calculateEnergyInKwh(ONE_MINUTE, 0, 0, 0), DELTA);
+        // one GB of heap, storage and network
+        Assertions.assertEquals((1e-6 + 2e-6 + 3e-6) * 1.5, calculator.calculateEnergyInKwh(0, 1_000_000_000, 1_000_000_000, 1_000_000_000), DELTA);
+        // demands which have not been logged are ignored
+        Assertions.assertEquals(0, calculator.calculateEnergyInKwh(Long.MIN_VALUE, 0, 0, Long.MIN_VALUE), DELTA);
+    }
+
+    @Test
+    public void testEmissionsWithoutUtilizationSample() {
+        // operational: 2.5e-5 kWh * 400 g/kWh, embodied: share of the capacity of both vCPUs for a minute
+        Assertions.assertEquals(0.01 + 0.3, calculator.calculateEmissionsInGram(ONE_MINUTE, 0, 0, 0), DELTA);
+    }
+
+    @Test
+    public void testEmissionsWithUtilizationSample() {
+        calculator.updateProcessCpuTime(0, 0);
+        // samples within ten seconds are ignored
+        calculator.updateProcessCpuTime(TEN_SECONDS, TEN_SECONDS - 1);
+        Assertions.assertEquals(0, calculator.getCpuUtilization(), DELTA);
+
+        // one of the two vCPUs busy for ten seconds
+        calculator.updateProcessCpuTime(TEN_SECONDS, TEN_SECONDS);
+        Assertions.assertEquals(0.5, calculator.getCpuUtilization(), DELTA);
+        // operational: 2 W * 1/60 h * 1.5 = 5e-5 kWh, embodied: the whole CPU time of the process in a minute
+        Assertions.assertEquals(0.02 + 0.6, calculator.calculateEmissionsInGram(ONE_MINUTE, 0, 0, 0), DELTA);
+    }
+}
@@ -0,0 +1,114 @@
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AsyncDemandAggregatorTest {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    public void testFlushWaitsForQueuedRecords() {
+        List<String> references = new CopyOnWriteArrayList<>();
+        AsyncDemandAggregator<String> aggregator = new AsyncDemandAggregator<>(16,
+                (cpu, heap, storage, network, reference) -> references.add(reference));
+        try {
+            for (int i = 0; i < 10; i++) {
+                Assertions.assertTrue(aggregator.submit(i, i, i, i, "record" + i));
+            }
+            Assertions.assertTrue(aggregator.flush(TIMEOUT_NANOS));
+            Assertions.assertEquals(10, references.size());
+            Assertions.assertEquals(10, aggregator.getProcessedRecords());
+        } finally {
+            aggregator.shutdown(TIMEOUT_NANOS);
+        }
+    }
+
+    @Test
+    public void testFailedRecordsAreCounted() {
+        AsyncDemandAggregator<String> aggregator = new AsyncDemandAggregator<>(16, (cpu, heap, storage, network, reference) -> {
+            if (cpu % 2 == 0) {
+                throw new IllegalStateException("failed " + reference);
+            }
+        });
+        try {
+            for (int i = 0; i < 10; i++) {
+                aggregator.submit(i, i, i, i, "record" + i);
+            }
+            Assertions.assertTrue(aggregator.flush(TIMEOUT_NANOS));
+            Assertions.assertEquals(5, aggregator.getProcessedRecords());
+            Assertions.assertEquals(5, aggregator.getFailedRecords());
+        } finally {
+            aggregator.shutdown(TIMEOUT_NANOS);
+        }
+    }
+
+    @Test
+    public void testShutdownPublishesQueuedRecords() {
+        List<String> references = new CopyOnWriteArrayList<>();
+        AsyncDemandAggregator<String> aggregator = new AsyncDemandAggregator<>(1024,
+                (cpu, heap, storage, network, reference) -> references.add(reference));
+        for (int i = 0; i < 1000; i++) {
+            aggregator.submit(i, i, i, i, "record" + i);
+        }
+
+        Assertions.assertTrue(aggregator.shutdown(TIMEOUT_NANOS));
+        Assertions.assertEquals(1000, references.size());
+        // records of transactions ending after the shutdown are dropped
+        Assertions.assertFalse(aggregator.submit(1, 1, 1, 1, "late"));
+        Assertions.assertEquals(1, aggregator.getDroppedRecords());
+    }
+
+    @Test
+    public void testIdleAggregatorIsUnparkedBySubmit() throws InterruptedException {
+        List<String> references = new CopyOnWriteArrayList<>();
+        AsyncDemandAggregator<String> aggregator = new AsyncDemandAggregator<>(16,
+                (cpu, heap, storage, network, reference) -> references.add(reference));
+        try {
+            // let the background thread park on the empty ring buffer
+            Thread.sleep(100);
+            aggregator.submit(1, 1, 1, 1, "record");
+            long deadline = System.nanoTime() + TIMEOUT_NANOS;
+            while (references.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Assertions.assertEquals(1, references.size());
+        } finally {
+            aggregator.shutdown(TIMEOUT_NANOS);
+        }
+    }
+
+    @Test
+    public void testRecordsSubmittedDuringShutdownAreNotStranded() throws InterruptedException {
+        for (int run = 0; run < 20; run++) {
+            LongAdder consumedRecords = new LongAdder();
+            AsyncDemandAggregator<String> aggregator = new AsyncDemandAggregator<>(1 << 16,
+                    (cpu, heap, storage, network, reference) -> consumedRecords.increment());
+            AtomicLong submittedRecords = new AtomicLong();
+            Thread[] producers = new Thread[4];
+            for (int i = 0; i < producers.length; i++) {
+                producers[i] = new Thread(() -> {
+                    for (int j = 0; j < 10_000; j++) {
+                        if (aggregator.submit(1, 1, 1, 1, "record")) {
+                            submittedRecords.incrementAndGet();
+                        }
+                    }
+                });
+                producers[i].start();
+            }
+            Assertions.assertTrue(aggregator.shutdown(TIMEOUT_NANOS));
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            // every accepted record has been passed to the consumer, every other record has been counted as dropped
+            Assertions.assertEquals(submittedRecords.get(), consumedRecords.sum());
+            Assertions.assertEquals(40_000, submittedRecords.get() + aggregator.getDroppedRecords());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CarryOverMillisecondConverterTest {
+
+    private static final long NANOSECONDS_PER_MILLISECOND = 1_000_000;
+    private static final String ROUTE = "GET /owners";
+    private static final String OTHER_ROUTE = "GET /vets";
+
+    @Test
+    public void testFractionsAreCarriedOver() {
+        CarryOverMillisecondConverter<String> converter = new CarryOverMillisecondConverter<>();
+        long milliseconds = 0;
+        for (int i = 0; i < 1000; i++) {
+            milliseconds += converter.toMilliseconds(ROUTE, 400_000);
+        }
+        // 1000 transactions with 400 us each, truncating every transaction would publish 0 ms
+        Assertions.assertEquals(400, milliseconds);
+        Assertions.assertEquals(0, converter.getRemainder(ROUTE));
+
+        Assertions.assertEquals(0, converter.toMilliseconds(ROUTE, 999_999));
+        Assertions.assertEquals(1, converter.toMilliseconds(ROUTE, 1));
+        Assertions.assertEquals(2, converter.toMilliseconds(ROUTE, 2_500_000));
+        Assertions.assertEquals(500_000, converter.getRemainder(ROUTE));
+    }
+
+    @Test
+    public void testRemaindersAreKeptPerKey() {
+        CarryOverMillisecondConverter<String> converter = new CarryOverMillisecondConverter<>();
+        Assertions.assertEquals(0, converter.toMilliseconds(ROUTE, 600_000));
+        // the fraction of the other route is not added to this route
+        Assertions.assertEquals(0, converter.toMilliseconds(OTHER_ROUTE, 600_000));
+        Assertions.assertEquals(600_000, converter.getRemainder(ROUTE));
+        Assertions.assertEquals(1, converter.toMilliseconds(OTHER_ROUTE, 400_000));
+        Assertions.assertEquals(600_000, converter.getRemainder(ROUTE));
+        Assertions.assertEquals(0, converter.getRemainder(OTHER_ROUTE));
+    }
+
+    @Test
+    public void testRemaindersAreBounded() {
+        CarryOverMillisecondConverter<String> converter = new CarryOverMillisecondConverter<>(1);
+        converter.toMilliseconds(ROUTE, 600_000);
+        converter.toMilliseconds(OTHER_ROUTE, 600_000);
+        Assertions.assertEquals(0, converter.getRemainder(ROUTE));
+        Assertions.assertEquals(600_000, converter.getRemainder(OTHER_ROUTE));
+    }
+
+    @Test
+    public void testConvertedTotalMatchesCpuTimeUnderLoad() throws InterruptedException {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assertions.assertTrue(threadMXBean.isCurrentThreadCpuTimeSupported());
+
+        CarryOverMillisecondConverter<String> converter = new CarryOverMillisecondConverter<>();
+        LongAdder convertedMilliseconds = new LongAdder();
+        LongAdder transactionCpuTime = new LongAdder();
+        LongAdder threadCpuTime = new LongAdder();
+        AtomicLong checksum = new AtomicLong();
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                long threadStart = threadMXBean.getCurrentThreadCpuTime();
+                long sum = 0;
+                for (int transaction = 0; transaction < 2000; transaction++) {
+                    long start = threadMXBean.getCurrentThreadCpuTime();
+                    // a short transaction, mostly below one ms of CPU time
+                    for (int j = 0; j < 100_000; j++) {
+                        sum += j * 31L ^ sum;
+                    }
+                    long cpuTime = threadMXBean.getCurrentThreadCpuTime() - start;
+                    transactionCpuTime.add(cpuTime);
+                    convertedMilliseconds.add(converter.toMilliseconds(ROUTE, cpuTime));
+                }
+                threadCpuTime.add(threadMXBean.getCurrentThreadCpuTime() - threadStart);
+                checksum.addAndGet(sum);
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // no nanosecond is lost, only the remainder of the route shared by the threads has not been converted yet
+        Assertions.assertEquals(transactionCpuTime.sum(), convertedMilliseconds.sum() * NANOSECONDS_PER_MILLISECOND + converter.getRemainder(ROUTE));
+        Assertions.assertTrue(converter.getRemainder(ROUTE) < NANOSECONDS_PER_MILLISECOND);
+
+        // the converted total matches the CPU time of the threads, which also contains the time between the transactions
+        double threadMilliseconds = (double) threadCpuTime.sum() / NANOSECONDS_PER_MILLISECOND;
+        Assertions.assertTrue(convertedMilliseconds.sum() <= threadMilliseconds,
+                convertedMilliseconds.sum() + " ms > " + threadMilliseconds + " ms");
+        Assertions.assertTrue(convertedMilliseconds.sum() >= threadMilliseconds * 0.9 - threads.length,
+                convertedMilliseconds.sum() + " ms < 90% of " + threadMilliseconds + " ms");
+        Assertions.assertNotEquals(Long.MIN_VALUE, checksum.get());
+    }
+}
@@ -0,0 +1,78 @@
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DemandRecordRingBufferTest {
+
+    @Test
+    public void testRecordsAreDrainedInOrder() {
+        DemandRecordRingBuffer<String> ringBuffer = new DemandRecordRingBuffer<>(3);
+        Assertions.assertEquals(4, ringBuffer.capacity());
+
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(ringBuffer.offer(i, i * 10L, i * 100L, i * 1000L, "record" + i));
+        }
+        // the ring buffer is full, further records are rejected instead of overwriting unconsumed records
+        Assertions.assertFalse(ringBuffer.offer(4, 40, 400, 4000, "record4"));
+        Assertions.assertEquals(4, ringBuffer.size());
+
+        List<String> references = new ArrayList<>();
+        int drained = ringBuffer.drain((cpu, heap, storage, network, reference) -> {
+            Assertions.assertEquals(cpu * 10, heap);
+            Assertions.assertEquals(cpu * 100, storage);
+            Assertions.assertEquals(cpu * 1000, network);
+            references.add(reference);
+        });
+
+        Assertions.assertEquals(4, drained);
+        Assertions.assertEquals(0, ringBuffer.size());
+        Assertions.assertEquals(Arrays.asList("record0", "record1", "record2", "record3"), references);
+        Assertions.assertTrue(ringBuffer.offer(5, 50, 500, 5000, "record5"));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int recordsPerProducer = 100_000;
+        DemandRecordRingBuffer<Long> ringBuffer = new DemandRecordRingBuffer<>(64);
+
+        List<Thread> producerThreads = new ArrayList<>();
+        for (int producer = 0; producer < producers; producer++) {
+            Thread producerThread = new Thread(() -> {
+                for (long i = 1; i <= recordsPerProducer; i++) {
+                    while (!ringBuffer.offer(i, i, i, i, i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            producerThreads.add(producerThread);
+            producerThread.start();
+        }
+
+        long[] consumed = new long[2];
+        DemandRecordRingBuffer.DemandRecordConsumer<Long> consumer = (cpu, heap, storage, network, reference) -> {
+            Assertions.assertEquals(cpu, heap);
+            Assertions.assertEquals(cpu, storage);
+            Assertions.assertEquals(cpu, network);
+            Assertions.assertEquals(cpu, reference.longValue());
+            consumed[0]++;
+            consumed[1] += cpu;
+        };
+        long expectedRecords = (long) producers * recordsPerProducer;
+        while (consumed[0] < expectedRecords) {
+            ringBuffer.drain(consumer);
+        }
+        for (Thread producerThread : producerThreads) {
+            producerThread.join();
+        }
+
+        Assertions.assertEquals(expectedRecords, consumed[0]);
+        Assertions.assertEquals(producers * ((long) recordsPerProducer * (recordsPerProducer + 1) / 2), consumed[1]);
+        Assertions.assertEquals(0, ringBuffer.size());
+    }
+}
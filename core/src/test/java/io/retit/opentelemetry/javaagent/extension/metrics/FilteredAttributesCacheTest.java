@@ -0,0 +1,70 @@
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.retit.opentelemetry.javaagent.extension.commons.Constants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FilteredAttributesCacheTest {
+
+    private static final AttributeKey<String> HTTP_ROUTE = AttributeKey.stringKey("http.route");
+    private static final AttributeKey<String> HTTP_METHOD = AttributeKey.stringKey("http.request.method");
+    private static final AttributeKey<String> URL_PATH = AttributeKey.stringKey("url.path");
+    private static final AttributeKey<Long> START_CPU_TIME = AttributeKey.longKey(Constants.SPAN_ATTRIBUTE_START_CPU_TIME);
+
+    @Test
+    public void testEqualFilteredAttributesAreShared() {
+        FilteredAttributesCache cache = new FilteredAttributesCache(16, "", Constants.RETIT_NAMESPACE);
+
+        Attributes first = cache.getFilteredAttributes(Attributes.of(HTTP_ROUTE, "/owners", HTTP_METHOD, "GET", START_CPU_TIME, 10L));
+        Attributes second = cache.getFilteredAttributes(Attributes.of(HTTP_ROUTE, "/owners", HTTP_METHOD, "GET", START_CPU_TIME, 20L));
+        Attributes third = cache.getFilteredAttributes(Attributes.of(HTTP_ROUTE, "/owners", HTTP_METHOD, "POST", START_CPU_TIME, 30L));
+
+        Assertions.assertEquals(Attributes.of(HTTP_ROUTE, "/owners", HTTP_METHOD, "GET"), first);
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals("POST", third.get(HTTP_METHOD));
+        Assertions.assertNull(third.get(START_CPU_TIME));
+        Assertions.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testAllowListAndEviction() {
+        FilteredAttributesCache cache = new FilteredAttributesCache(2, "http.route, http.request.method", Constants.RETIT_NAMESPACE);
+
+        for (int i = 0; i < 100; i++) {
+            Attributes filteredAttributes = cache.getFilteredAttributes(Attributes.of(HTTP_ROUTE, "/owners", HTTP_METHOD, "GET", URL_PATH, "/owners/" + i));
+            // high cardinality attributes outside of the allow-list do not create new attribute sets
+            Assertions.assertEquals(Attributes.of(HTTP_ROUTE, "/owners", HTTP_METHOD, "GET"), filteredAttributes);
+        }
+        Assertions.assertEquals(1, cache.size());
+
+        for (int i = 0; i < 100; i++) {
+            cache.getFilteredAttributes(Attributes.of(HTTP_ROUTE, "/owners/" + i));
+        }
+        Assertions.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testAttributeSetsAreSharedAcrossThreads() throws InterruptedException {
+        FilteredAttributesCache cache = new FilteredAttributesCache(16, "", Constants.RETIT_NAMESPACE);
+        Attributes first = cache.getFilteredAttributes(Attributes.of(HTTP_ROUTE, "/owners", START_CPU_TIME, 10L));
+
+        Attributes[] otherThreadAttributes = new Attributes[1];
+        Thread otherThread = new Thread(() -> otherThreadAttributes[0] = cache.getFilteredAttributes(Attributes.of(HTTP_ROUTE, "/owners", START_CPU_TIME, 20L)));
+        otherThread.start();
+        otherThread.join();
+        Assertions.assertSame(first, otherThreadAttributes[0]);
+        // the reused lookup key of this thread still finds the attribute set after the lookup of another span
+        cache.getFilteredAttributes(Attributes.of(HTTP_ROUTE, "/vets"));
+        Assertions.assertSame(first, cache.getFilteredAttributes(Attributes.of(HTTP_ROUTE, "/owners")));
+    }
+
+    @Test
+    public void testDisabledCache() {
+        FilteredAttributesCache cache = new FilteredAttributesCache(0, "", Constants.RETIT_NAMESPACE);
+
+        Assertions.assertEquals(Attributes.of(HTTP_ROUTE, "/owners"), cache.getFilteredAttributes(Attributes.of(HTTP_ROUTE, "/owners", START_CPU_TIME, 10L)));
+        Assertions.assertEquals(0, cache.size());
+    }
+}
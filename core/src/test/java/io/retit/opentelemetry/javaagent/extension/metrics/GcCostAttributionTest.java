@@ -0,0 +1,93 @@
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class GcCostAttributionTest {
+
+    private static final long WINDOW = 60_000;
+    private static final long BUCKET = WINDOW / GcCostAttribution.WINDOW_BUCKETS;
+
+    @Test
+    public void testCostIsApportionedByAllocatedBytes() {
+        GcCostAttribution<String> attribution = new GcCostAttribution<>(WINDOW, 10, "other", 0);
+        attribution.addAllocatedBytes("GET /orders", 300, 0);
+        attribution.addAllocatedBytes("POST /orders", 600, BUCKET);
+        attribution.addAllocatedBytes("GET /orders", 100, 2 * BUCKET);
+        attribution.addAllocatedBytes("GET /health", 0, 2 * BUCKET);
+
+        Map<String, Double> shares = apportion(attribution, 3 * BUCKET);
+        Assertions.assertEquals(2, shares.size());
+        Assertions.assertEquals(0.4, shares.get("GET /orders"), 1e-9);
+        Assertions.assertEquals(0.6, shares.get("POST /orders"), 1e-9);
+    }
+
+    @Test
+    public void testAllocationsLeaveTheWindow() {
+        GcCostAttribution<String> attribution = new GcCostAttribution<>(WINDOW, 10, "other", 0);
+        attribution.addAllocatedBytes("GET /orders", 1000, 0);
+        attribution.addAllocatedBytes("POST /orders", 1000, 3 * BUCKET);
+
+        // the bucket of GET /orders has left the window, so the route is removed
+        Map<String, Double> shares = apportion(attribution, WINDOW + BUCKET);
+        Assertions.assertEquals(1, shares.size());
+        Assertions.assertEquals(1.0, shares.get("POST /orders"), 1e-9);
+
+        // a slot which is reused for a newer bucket starts from zero
+        attribution.addAllocatedBytes("POST /orders", 1000, 3 * BUCKET + WINDOW);
+        attribution.addAllocatedBytes("GET /orders", 3000, 3 * BUCKET + WINDOW);
+        shares = apportion(attribution, 3 * BUCKET + WINDOW);
+        Assertions.assertEquals(0.25, shares.get("POST /orders"), 1e-9);
+        Assertions.assertEquals(0.75, shares.get("GET /orders"), 1e-9);
+
+        Assertions.assertEquals(0, new GcCostAttribution<String>(WINDOW, 10, "other", 0).apportion(0, (route, share) -> Assertions.fail()));
+    }
+
+    @Test
+    public void testFurtherRoutesAreAddedToOtherRoutes() {
+        GcCostAttribution<String> attribution = new GcCostAttribution<>(WINDOW, 2, "other", 0);
+        attribution.addAllocatedBytes("a", 100, 0);
+        attribution.addAllocatedBytes("b", 100, 0);
+        attribution.addAllocatedBytes("c", 100, 0);
+        attribution.addAllocatedBytes("d", 100, 0);
+
+        Map<String, Double> shares = apportion(attribution, 0);
+        Assertions.assertEquals(3, shares.size());
+        Assertions.assertEquals(0.5, shares.get("other"), 1e-9);
+        Assertions.assertFalse(shares.containsKey("c"));
+    }
+
+    @Test
+    public void testConcurrentAllocationsAreNotLost() throws InterruptedException {
+        GcCostAttribution<String> attribution = new GcCostAttribution<>(WINDOW, 10, "other", 0);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            String route = i % 2 == 0 ? "even" : "odd";
+            long bytes = i % 2 == 0 ? 1 : 3;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100_000; j++) {
+                    // all threads rotate through the buckets of the window together
+                    attribution.addAllocatedBytes(route, bytes, j * GcCostAttribution.WINDOW_BUCKETS * BUCKET / 100_000);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Map<String, Double> shares = apportion(attribution, WINDOW - 1);
+        Assertions.assertEquals(0.25, shares.get("even"), 1e-9);
+        Assertions.assertEquals(0.75, shares.get("odd"), 1e-9);
+    }
+
+    private static Map<String, Double> apportion(final GcCostAttribution<String> attribution, final long nanoTime) {
+        Map<String, Double> shares = new HashMap<>();
+        int routes = attribution.apportion(nanoTime, shares::put);
+        Assertions.assertEquals(routes, shares.size());
+        return shares;
+    }
+}
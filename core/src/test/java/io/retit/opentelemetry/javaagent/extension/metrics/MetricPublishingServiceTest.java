@@ -0,0 +1,62 @@
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class MetricPublishingServiceTest {
+
+    private static final AttributeKey<String> HTTP_ROUTE = AttributeKey.stringKey("http.route");
+    private static final long NANOSECONDS_PER_MILLISECOND = 1_000_000;
+
+    @Test
+    public void testCpuMillisecondsOfEveryRouteMatchTheNanoseconds() {
+        InMemoryMetricReader metricReader = InMemoryMetricReader.create();
+        SdkMeterProvider meterProvider = SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+        MetricPublishingService service = new MetricPublishingService(meterProvider.get("test"));
+        try {
+            Attributes owners = Attributes.of(HTTP_ROUTE, "GET /owners");
+            Attributes vets = Attributes.of(HTTP_ROUTE, "GET /vets");
+            long ownersCpuDemand = 0;
+            long vetsCpuDemand = 0;
+            // interleaved transactions below one ms, whose fractions must not be carried over to the other route
+            for (int i = 0; i < 1000; i++) {
+                service.publishResourceDemands(900_000 + i, 0, 0, Long.MIN_VALUE, owners);
+                ownersCpuDemand += 900_000 + i;
+                service.publishResourceDemands(100_000, 0, 0, Long.MIN_VALUE, vets);
+                vetsCpuDemand += 100_000;
+            }
+
+            Map<String, Long> cpuNanoseconds = getSumPerRoute(metricReader, "io.retit.resource.demand.cpu.ns");
+            Assertions.assertEquals(ownersCpuDemand, cpuNanoseconds.get("GET /owners"));
+            Assertions.assertEquals(vetsCpuDemand, cpuNanoseconds.get("GET /vets"));
+            Map<String, Long> cpuMilliseconds = getSumPerRoute(metricReader, "io.retit.resource.demand.cpu.ms");
+            Assertions.assertEquals(ownersCpuDemand / NANOSECONDS_PER_MILLISECOND, cpuMilliseconds.get("GET /owners"));
+            Assertions.assertEquals(vetsCpuDemand / NANOSECONDS_PER_MILLISECOND, cpuMilliseconds.get("GET /vets"));
+        } finally {
+            service.shutdownResourceDemands(TimeUnit.SECONDS.toNanos(1));
+            meterProvider.close();
+        }
+    }
+
+    private static Map<String, Long> getSumPerRoute(final InMemoryMetricReader metricReader, final String metricName) {
+        Map<String, Long> sums = new HashMap<>();
+        for (MetricData metricData : metricReader.collectAllMetrics()) {
+            if (metricName.equals(metricData.getName())) {
+                for (LongPointData point : metricData.getLongSumData().getPoints()) {
+                    sums.merge(point.getAttributes().get(HTTP_ROUTE), point.getValue(), Long::sum);
+                }
+            }
+        }
+        return sums;
+    }
+}
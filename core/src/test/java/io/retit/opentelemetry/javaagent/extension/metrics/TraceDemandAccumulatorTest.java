@@ -0,0 +1,55 @@
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TraceDemandAccumulatorTest {
+
+    private static final long TIME_TO_LIVE = TimeUnit.SECONDS.toNanos(60);
+
+    @Test
+    public void testDemandsOfStartedTracesAreSummedUp() throws InterruptedException {
+        TraceDemandAccumulator accumulator = new TraceDemandAccumulator(TIME_TO_LIVE, 10);
+        accumulator.start("trace", 0);
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    accumulator.add("trace", 1, 2, 3, 4, 1);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // spans of traces whose root span has not been started in this process are ignored
+        accumulator.add("remote", 1, 2, 3, 4, 1);
+
+        Assertions.assertArrayEquals(new long[]{4000, 8000, 12_000, 16_000}, accumulator.remove("trace"));
+        Assertions.assertNull(accumulator.remove("trace"));
+        Assertions.assertNull(accumulator.remove("remote"));
+        Assertions.assertEquals(0, accumulator.size());
+    }
+
+    @Test
+    public void testTracesAreEvictedAndBounded() {
+        TraceDemandAccumulator accumulator = new TraceDemandAccumulator(TIME_TO_LIVE, 2);
+        long now = TIME_TO_LIVE;
+        accumulator.start("first", now);
+        accumulator.start("second", now);
+        accumulator.start("third", now);
+        Assertions.assertEquals(2, accumulator.size());
+        Assertions.assertEquals(1, accumulator.getDroppedTraces());
+
+        accumulator.add("second", 1, 1, 1, 1, now + TIME_TO_LIVE);
+        accumulator.start("fourth", now + TIME_TO_LIVE + 1);
+        // the first trace expired, the second trace has been updated in the meantime
+        Assertions.assertNull(accumulator.remove("first"));
+        Assertions.assertArrayEquals(new long[]{1, 1, 1, 1}, accumulator.remove("second"));
+        Assertions.assertNotNull(accumulator.remove("fourth"));
+    }
+}
@@ -0,0 +1,114 @@
+package io.retit.opentelemetry.javaagent.extension.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualThreadDemandAccountingTest {
+
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long TIME_TO_LIVE = TimeUnit.SECONDS.toNanos(60);
+    private static final long NOT_LOGGED = Long.MIN_VALUE;
+
+    private final List<long[]> published = new ArrayList<>();
+    private final List<String> references = new ArrayList<>();
+
+    private VirtualThreadDemandAccounting<String> createAccounting(final int maxTransactions) {
+        return new VirtualThreadDemandAccounting<>(maxTransactions, PERIOD, TIME_TO_LIVE, (cpu, heap, storage, network, reference) -> {
+            published.add(new long[]{cpu, heap, storage, network});
+            references.add(reference);
+        });
+    }
+
+    @Test
+    public void testCarrierCpuTimeIsApportionedToTheSamplesOfTheTransaction() {
+        VirtualThreadDemandAccounting<String> accounting = createAccounting(10);
+        accounting.start(1, 1000);
+        Assertions.assertTrue(accounting.isStarted(1));
+        Assertions.assertTrue(accounting.end(1, 2000, new long[]{5, 10, 0, NOT_LOGGED}, "first"));
+        Assertions.assertFalse(accounting.isStarted(1));
+
+        // the samples of the ended transaction are delivered afterward, samples outside of it or of other threads do not count
+        accounting.onExecutionSample(1, 1500);
+        accounting.onExecutionSample(1, 1600);
+        accounting.onExecutionSample(1, 2500);
+        accounting.onExecutionSample(2, 1500);
+        // 4 samples of virtual threads share 400 ns of carrier CPU time
+        accounting.onFlush(1900, 400);
+        Assertions.assertTrue(published.isEmpty(), "events until the end of the transaction have not been delivered yet");
+
+        accounting.onExecutionSample(1, 1700);
+        accounting.onFlush(2100, -1);
+        Assertions.assertEquals(1, published.size());
+        Assertions.assertArrayEquals(new long[]{5 + 2 * 100 + PERIOD, 10, 0, NOT_LOGGED}, published.get(0));
+        Assertions.assertEquals("first", references.get(0));
+
+        accounting.onFlush(3000, 400);
+        Assertions.assertEquals(1, published.size());
+    }
+
+    @Test
+    public void testSamplesAreAssignedToTheTransactionRunningAtTheirTime() {
+        VirtualThreadDemandAccounting<String> accounting = createAccounting(10);
+        accounting.start(1, 1000);
+        accounting.end(1, 2000, new long[]{0, 0, 0, 0}, "first");
+        accounting.start(1, 3000);
+        accounting.onExecutionSample(1, 1500);
+        accounting.onExecutionSample(1, 3500);
+        accounting.onExecutionSample(1, 3600);
+        accounting.end(1, 4000, new long[]{0, 0, 0, 0}, "second");
+        accounting.onFlush(5000, 300);
+
+        Assertions.assertEquals(2, published.size());
+        int first = references.indexOf("first");
+        Assertions.assertEquals(100, published.get(first)[TraceDemandAccumulator.CPU]);
+        Assertions.assertEquals(200, published.get(1 - first)[TraceDemandAccumulator.CPU]);
+    }
+
+    @Test
+    public void testAllocatedBytesOfTheTransactionAreAddedToTheHeapDemand() {
+        VirtualThreadDemandAccounting<String> accounting = createAccounting(10);
+        accounting.start(1, 1000);
+        accounting.onAllocationSample(1, 500, 1000);
+        accounting.onAllocationSample(1, 1200, 2000);
+        accounting.onAllocationSample(2, 1200, 4000);
+        accounting.end(1, 2000, new long[]{0, 0, 0, 0}, "first");
+        accounting.onAllocationSample(1, 1800, 3000);
+        accounting.onAllocationSample(1, 2500, 5000);
+        accounting.onFlush(3000, -1);
+
+        Assertions.assertEquals(1, published.size());
+        Assertions.assertArrayEquals(new long[]{0, 5000, 0, 0}, published.get(0));
+    }
+
+    @Test
+    public void testDemandsAreOnlyAddedIfLogged() {
+        VirtualThreadDemandAccounting<String> accounting = createAccounting(10);
+        accounting.start(1, 1000);
+        accounting.onExecutionSample(1, 1500);
+        accounting.onAllocationSample(1, 1500, 1000);
+        accounting.end(1, 2000, new long[]{NOT_LOGGED, NOT_LOGGED, 0, 0}, "first");
+        accounting.onFlush(2000, 100);
+        Assertions.assertArrayEquals(new long[]{NOT_LOGGED, NOT_LOGGED, 0, 0}, published.get(0));
+    }
+
+    @Test
+    public void testTransactionsAreBoundedAndEvicted() {
+        VirtualThreadDemandAccounting<String> accounting = createAccounting(2);
+        accounting.start(1, 0);
+        accounting.start(2, TIME_TO_LIVE);
+        accounting.start(3, TIME_TO_LIVE);
+        Assertions.assertEquals(1, accounting.getDroppedTransactions());
+        Assertions.assertFalse(accounting.isStarted(3));
+        Assertions.assertFalse(accounting.end(3, TIME_TO_LIVE, new long[4], "dropped"));
+
+        // the transaction of thread 1 has not been ended on its thread
+        accounting.onFlush(TIME_TO_LIVE + 1, -1);
+        Assertions.assertFalse(accounting.isStarted(1));
+        Assertions.assertTrue(accounting.isStarted(2));
+        Assertions.assertTrue(published.isEmpty());
+    }
+}
@@ -0,0 +1,104 @@
+package io.retit.opentelemetry.javaagent.extension.processor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class DemandSamplingPolicyTest {
+
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+
+    @Test
+    public void testAllSpansAreMeasuredByDefault() {
+        DemandSamplingPolicy policy = new DemandSamplingPolicy(1.0, false, false, 0);
+        Assertions.assertTrue(policy.isMeasuringAllSpans());
+        Assertions.assertEquals(1.0, policy.sample(false, false, TRACE_ID));
+        Assertions.assertFalse(policy.isRouteRateLimited());
+        Assertions.assertEquals(1.0, policy.sampleRoute("/owners", 0));
+    }
+
+    @Test
+    public void testRootAndSampledSpansOnly() {
+        DemandSamplingPolicy policy = new DemandSamplingPolicy(1.0, true, true, 0);
+        Assertions.assertFalse(policy.isMeasuringAllSpans());
+        Assertions.assertEquals(1.0, policy.sample(true, true, TRACE_ID));
+        Assertions.assertEquals(DemandSamplingPolicy.NOT_MEASURED, policy.sample(false, true, TRACE_ID));
+        Assertions.assertEquals(DemandSamplingPolicy.NOT_MEASURED, policy.sample(true, false, TRACE_ID));
+    }
+
+    @Test
+    public void testRatioIsUnbiased() {
+        DemandSamplingPolicy policy = new DemandSamplingPolicy(0.25, false, false, 0);
+        Random random = new Random(42);
+        int spans = 100_000;
+        double weightedSpans = 0;
+        for (int i = 0; i < spans; i++) {
+            String traceId = String.format(Locale.ENGLISH, "%016x%016x", random.nextLong(), random.nextLong());
+            double weight = policy.sample(false, true, traceId);
+            weightedSpans += weight;
+            // all spans of a trace get the same decision
+            Assertions.assertEquals(weight, policy.sample(false, true, traceId));
+        }
+        Assertions.assertEquals(spans, weightedSpans, spans * 0.02);
+    }
+
+    @Test
+    public void testRouteRateLimit() {
+        DemandSamplingPolicy policy = new DemandSamplingPolicy(1.0, false, false, 10);
+        // the route is checked when the root span starts
+        Assertions.assertFalse(policy.isMeasuringAllSpans());
+        Assertions.assertTrue(policy.isRouteRateLimited());
+
+        int measuredTransactions = 0;
+        for (int i = 0; i < 40; i++) {
+            if (policy.sampleRoute("/owners", 0) != DemandSamplingPolicy.NOT_MEASURED) {
+                measuredTransactions++;
+            }
+        }
+        Assertions.assertEquals(10, measuredTransactions);
+        // other routes have their own limit
+        Assertions.assertEquals(1.0, policy.sampleRoute("/vets", 0));
+    }
+
+    @Test
+    public void testTransactionsOfTheFirstWindowAreCarriedOver() {
+        DemandSamplingPolicy policy = new DemandSamplingPolicy(1.0, false, false, 10);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        double weightedTransactions = 0;
+        for (int window = 0; window < 5; window++) {
+            for (int i = 0; i < 40; i++) {
+                weightedTransactions += policy.sampleRoute("/owners", window * second);
+            }
+        }
+        // the transactions over the limit in the last window are only weighted in the next window
+        Assertions.assertEquals(5 * 40 - 30, weightedTransactions, 0.001);
+        for (int i = 0; i < 10; i++) {
+            weightedTransactions += policy.sampleRoute("/owners", 5 * second);
+        }
+        Assertions.assertEquals(5 * 40 + 10, weightedTransactions, 0.001);
+    }
+
+    @Test
+    public void testTransactionsAreCarriedOverAnIdleGap() {
+        DemandSamplingPolicy policy = new DemandSamplingPolicy(1.0, false, false, 10);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        double weightedTransactions = 0;
+        for (int i = 0; i < 40; i++) {
+            weightedTransactions += policy.sampleRoute("/owners", 0);
+        }
+        Assertions.assertEquals(10, weightedTransactions, 0.001);
+
+        // no transaction is seen for some seconds, the weight is not reset
+        Assertions.assertEquals(4.0, policy.sampleRoute("/owners", 5 * second), 0.001);
+        weightedTransactions += 4.0;
+        for (int i = 0; i < 4; i++) {
+            weightedTransactions += policy.sampleRoute("/owners", 5 * second);
+        }
+        Assertions.assertEquals(30, weightedTransactions, 0.001);
+        // fewer transactions than the limit carry over the remaining weight of 45 seen transactions
+        Assertions.assertEquals(1 + 15.0 / 10, policy.sampleRoute("/owners", 10 * second), 0.001);
+    }
+}
@@ -16,6 +16,7 @@
 
 package io.retit.opentelemetry.javaagent.extension.processor;
 
+import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.trace.SpanContext;
 import io.opentelemetry.api.trace.SpanId;
@@ -31,6 +32,8 @@ import io.opentelemetry.sdk.trace.data.SpanData;
 import io.opentelemetry.sdk.trace.data.StatusData;
 import io.retit.opentelemetry.javaagent.extension.commons.Constants;
 import io.retit.opentelemetry.javaagent.extension.commons.InstanceConfiguration;
+import io.retit.opentelemetry.javaagent.extension.metrics.MetricPublishingService;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -42,6 +45,9 @@ public class RETITSpanProcessorTest {
     private static final SpanContext SAMPLED_SPAN_CONTEXT =
             SpanContext.create(TraceId.getInvalid(), SpanId.getInvalid(), TraceFlags.getSampled(), TraceState.getDefault());
 
+    private static final SpanContext VALID_SPAN_CONTEXT =
+            SpanContext.create("0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331", TraceFlags.getSampled(), TraceState.getDefault());
+
     private ReadableSpan readableSpan;
 
     private ReadWriteSpan readWriteSpan;
@@ -72,6 +78,112 @@ public class RETITSpanProcessorTest {
         verify(readWriteSpan, times(6)).setAttribute(Mockito.anyString(), Mockito.anyLong());
     }
 
+    @Test
+    public void configurationIsOnlyResolvedOnReload() {
+        InstanceConfiguration.setBooleanProperty(Constants.RETIT_CPU_DEMAND_LOGGING_CONFIGURATION_PROPERTY, false);
+        try {
+            Assertions.assertTrue(retitSpanProcessor.getConfiguration().isLogCpuDemand());
+            retitSpanProcessor.onStart(Context.root(), readWriteSpan);
+            verify(readWriteSpan, times(6)).setAttribute(Mockito.anyString(), Mockito.anyLong());
+
+            retitSpanProcessor.reloadConfiguration();
+            Assertions.assertFalse(retitSpanProcessor.getConfiguration().isLogCpuDemand());
+            retitSpanProcessor.onStart(Context.root(), readWriteSpan);
+            verify(readWriteSpan, times(11)).setAttribute(Mockito.anyString(), Mockito.anyLong());
+        } finally {
+            InstanceConfiguration.setBooleanProperty(Constants.RETIT_CPU_DEMAND_LOGGING_CONFIGURATION_PROPERTY, true);
+        }
+    }
+
+    @Test
+    public void metricOptionsAreNotReloaded() {
+        boolean traceDemandAggregation = MetricPublishingService.getInstance().isTraceDemandAggregation();
+        Assertions.assertFalse(traceDemandAggregation);
+        InstanceConfiguration.setBooleanProperty(Constants.RETIT_TRACE_DEMAND_AGGREGATION_CONFIGURATION_PROPERTY, true);
+        try {
+            retitSpanProcessor.reloadConfiguration();
+            Assertions.assertFalse(MetricPublishingService.getInstance().isTraceDemandAggregation());
+            // the processor does not start transactions the MetricPublishingService does not accumulate
+            retitSpanProcessor.onStart(Context.root(), readWriteSpan);
+            verify(readWriteSpan, never()).getParentSpanContext();
+        } finally {
+            InstanceConfiguration.setBooleanProperty(Constants.RETIT_TRACE_DEMAND_AGGREGATION_CONFIGURATION_PROPERTY, false);
+        }
+    }
+
+    @Test
+    public void compactSpanAttributesOnlyContainDemands() {
+        InstanceConfiguration.setBooleanProperty(Constants.RETIT_COMPACT_SPAN_ATTRIBUTES_CONFIGURATION_PROPERTY, true);
+        try {
+            retitSpanProcessor.reloadConfiguration();
+            // the start values are held by span id until the end of the span
+            when(readWriteSpan.getSpanContext()).thenReturn(VALID_SPAN_CONTEXT);
+            retitSpanProcessor.onStart(Context.root(), readWriteSpan);
+            verify(readWriteSpan, never()).setAttribute(Mockito.anyString(), Mockito.anyLong());
+
+            retitSpanProcessor.onEnding(readWriteSpan);
+            verify(readWriteSpan).setAttribute(Mockito.eq(Constants.SPAN_ATTRIBUTE_CPU_DEMAND), Mockito.anyLong());
+            verify(readWriteSpan).setAttribute(Mockito.eq(Constants.SPAN_ATTRIBUTE_HEAP_DEMAND), Mockito.anyLong());
+            verify(readWriteSpan).setAttribute(Mockito.eq(Constants.SPAN_ATTRIBUTE_RESPONSE_TIME), Mockito.anyLong());
+            verify(readWriteSpan, never()).setAttribute(Mockito.eq(Constants.SPAN_ATTRIBUTE_START_CPU_TIME), Mockito.anyLong());
+            verify(readWriteSpan, never()).setAttribute(Mockito.eq(Constants.SPAN_ATTRIBUTE_END_CPU_TIME), Mockito.anyLong());
+            // log system time, response time, cpu, heap, disk read and write demand, start and end thread
+            verify(readWriteSpan, times(8)).setAttribute(Mockito.anyString(), Mockito.anyLong());
+        } finally {
+            InstanceConfiguration.setBooleanProperty(Constants.RETIT_COMPACT_SPAN_ATTRIBUTES_CONFIGURATION_PROPERTY, false);
+        }
+    }
+
+    @Test
+    public void unmeasuredSpansAreSkipped() {
+        System.setProperty(Constants.RETIT_DEMAND_SAMPLING_RATIO_CONFIGURATION_PROPERTY, "0");
+        try {
+            retitSpanProcessor.reloadConfiguration();
+            when(readWriteSpan.getSpanContext()).thenReturn(SAMPLED_SPAN_CONTEXT);
+
+            retitSpanProcessor.onStart(Context.root(), readWriteSpan);
+            retitSpanProcessor.onEnding(readWriteSpan);
+            verify(readWriteSpan, never()).setAttribute(Mockito.anyString(), Mockito.anyLong());
+            verify(readWriteSpan, never()).setAttribute(Mockito.anyString(), Mockito.anyDouble());
+        } finally {
+            System.clearProperty(Constants.RETIT_DEMAND_SAMPLING_RATIO_CONFIGURATION_PROPERTY);
+        }
+    }
+
+    @Test
+    public void routeRateLimitIsAppliedWhenRootSpanStarts() {
+        System.setProperty(Constants.RETIT_DEMAND_SAMPLING_ROUTE_RATE_LIMIT_CONFIGURATION_PROPERTY, "1");
+        try {
+            retitSpanProcessor.reloadConfiguration();
+            ReadWriteSpan otherReadWriteSpan = mock(ReadWriteSpan.class);
+            for (ReadWriteSpan span : new ReadWriteSpan[]{readWriteSpan, otherReadWriteSpan}) {
+                when(span.getSpanContext()).thenReturn(VALID_SPAN_CONTEXT);
+                when(span.getParentSpanContext()).thenReturn(SpanContext.getInvalid());
+                when(span.getAttribute(AttributeKey.stringKey("http.route"))).thenReturn("/owners");
+                retitSpanProcessor.onStart(Context.root(), span);
+            }
+            verify(readWriteSpan).setAttribute(Constants.SPAN_ATTRIBUTE_DEMAND_SAMPLING_WEIGHT, 1.0);
+            verify(otherReadWriteSpan).setAttribute(AttributeKey.doubleKey(Constants.SPAN_ATTRIBUTE_DEMAND_SAMPLING_WEIGHT), 0.0);
+            // the transaction over the limit is not measured
+            verify(otherReadWriteSpan, never()).setAttribute(Mockito.anyString(), Mockito.anyLong());
+
+            // the child spans of the transaction are not measured either
+            when(otherReadWriteSpan.getAttribute(AttributeKey.doubleKey(Constants.SPAN_ATTRIBUTE_DEMAND_SAMPLING_WEIGHT))).thenReturn(0.0);
+            doCallRealMethod().when(otherReadWriteSpan).storeInContext(any());
+            ReadWriteSpan childSpan = mock(ReadWriteSpan.class);
+            when(childSpan.getSpanContext()).thenReturn(VALID_SPAN_CONTEXT);
+            when(childSpan.getParentSpanContext()).thenReturn(VALID_SPAN_CONTEXT);
+            retitSpanProcessor.onStart(Context.root().with(otherReadWriteSpan), childSpan);
+            verify(childSpan, never()).setAttribute(Mockito.anyString(), Mockito.anyLong());
+
+            when(childSpan.getAttribute(AttributeKey.doubleKey(Constants.SPAN_ATTRIBUTE_DEMAND_SAMPLING_WEIGHT))).thenReturn(0.0);
+            retitSpanProcessor.onEnding(childSpan);
+            verify(childSpan, never()).setAttribute(Mockito.anyString(), Mockito.anyLong());
+        } finally {
+            System.clearProperty(Constants.RETIT_DEMAND_SAMPLING_ROUTE_RATE_LIMIT_CONFIGURATION_PROPERTY);
+        }
+    }
+
     @Test
     public void onEnd() {
         when(readableSpan.getSpanContext()).thenReturn(SAMPLED_SPAN_CONTEXT);
@@ -0,0 +1,130 @@
+package io.retit.opentelemetry.javaagent.extension.processor;
+
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpanDemandHierarchyTest {
+
+    @Test
+    public void testSelfDemandExcludesChildSpans() {
+        SpanDemandHierarchy hierarchy = new SpanDemandHierarchy();
+        ReadableSpan root = mock(ReadableSpan.class);
+        ReadableSpan child = mock(ReadableSpan.class);
+        ReadableSpan grandChild = mock(ReadableSpan.class);
+        ReadableSpan secondChild = mock(ReadableSpan.class);
+
+        hierarchy.onStart(root);
+        hierarchy.onStart(child);
+        hierarchy.onStart(grandChild);
+        Assertions.assertArrayEquals(new long[]{10, 100}, hierarchy.onEnd(grandChild, 10, 100));
+        Assertions.assertArrayEquals(new long[]{20, 200}, hierarchy.onEnd(child, 30, 300));
+        hierarchy.onStart(secondChild);
+        Assertions.assertNotNull(hierarchy.onEnd(secondChild, 5, 50));
+        // the grand child is only contained in the total demand of the child
+        Assertions.assertArrayEquals(new long[]{15, 150}, hierarchy.onEnd(root, 50, 500));
+        Assertions.assertEquals(0, hierarchy.getDepth());
+    }
+
+    @Test
+    public void testSpansNotEndedOnThisThreadAreDiscarded() throws InterruptedException {
+        SpanDemandHierarchy hierarchy = new SpanDemandHierarchy();
+        ReadableSpan root = mock(ReadableSpan.class);
+        ReadableSpan asyncChild = mock(ReadableSpan.class);
+
+        hierarchy.onStart(root);
+        hierarchy.onStart(asyncChild);
+
+        boolean[] endedOnOtherThread = new boolean[1];
+        Thread otherThread = new Thread(() -> {
+            when(asyncChild.hasEnded()).thenReturn(true);
+            endedOnOtherThread[0] = hierarchy.onEnd(asyncChild, 10, 100) != null;
+        });
+        otherThread.start();
+        otherThread.join();
+        Assertions.assertFalse(endedOnOtherThread[0]);
+
+        Assertions.assertArrayEquals(new long[]{50, 500}, hierarchy.onEnd(root, 50, 500));
+        Assertions.assertEquals(0, hierarchy.getDepth());
+    }
+
+    @Test
+    public void testDepthIsBounded() {
+        SpanDemandHierarchy hierarchy = new SpanDemandHierarchy();
+        ReadableSpan[] spans = new ReadableSpan[SpanDemandHierarchy.MAX_DEPTH + 1];
+        for (int i = 0; i < spans.length; i++) {
+            spans[i] = mock(ReadableSpan.class);
+            hierarchy.onStart(spans[i]);
+        }
+        Assertions.assertEquals(SpanDemandHierarchy.MAX_DEPTH, hierarchy.getDepth());
+        Assertions.assertNull(hierarchy.onEnd(spans[SpanDemandHierarchy.MAX_DEPTH], 1, 1));
+    }
+
+    @Test
+    public void testSpansEndedOnOtherThreadsArePruned() {
+        SpanDemandHierarchy hierarchy = new SpanDemandHierarchy();
+        ReadableSpan asyncRoot = mock(ReadableSpan.class);
+        ReadableSpan child = mock(ReadableSpan.class);
+        ReadableSpan unrelated = mock(ReadableSpan.class);
+
+        hierarchy.onStart(asyncRoot);
+        hierarchy.onStart(child);
+        when(asyncRoot.hasEnded()).thenReturn(true);
+        Assertions.assertNotNull(hierarchy.onEnd(child, 10, 100));
+        // the span at the bottom of the stack has been ended on another thread
+        Assertions.assertEquals(0, hierarchy.getDepth());
+
+        hierarchy.onStart(unrelated);
+        Assertions.assertEquals(1, hierarchy.getDepth());
+        Assertions.assertArrayEquals(new long[]{5, 50}, hierarchy.onEnd(unrelated, 5, 50));
+    }
+
+    @Test
+    public void testChildrenOfPrunedSpansCountForTheirParent() {
+        SpanDemandHierarchy hierarchy = new SpanDemandHierarchy();
+        ReadableSpan root = mock(ReadableSpan.class);
+        ReadableSpan asyncChild = mock(ReadableSpan.class);
+        ReadableSpan grandChild = mock(ReadableSpan.class);
+        ReadableSpan secondChild = mock(ReadableSpan.class);
+
+        hierarchy.onStart(root);
+        hierarchy.onStart(asyncChild);
+        hierarchy.onStart(grandChild);
+        when(asyncChild.hasEnded()).thenReturn(true);
+        Assertions.assertNotNull(hierarchy.onEnd(grandChild, 10, 100));
+        Assertions.assertEquals(1, hierarchy.getDepth());
+
+        hierarchy.onStart(secondChild);
+        Assertions.assertNotNull(hierarchy.onEnd(secondChild, 5, 50));
+        Assertions.assertArrayEquals(new long[]{35, 350}, hierarchy.onEnd(root, 50, 500));
+    }
+
+    @Test
+    public void testEndedSpansDoNotExhaustTheDepth() {
+        SpanDemandHierarchy hierarchy = new SpanDemandHierarchy();
+        for (int i = 0; i < SpanDemandHierarchy.MAX_DEPTH * 2; i++) {
+            ReadableSpan asyncSpan = mock(ReadableSpan.class);
+            hierarchy.onStart(asyncSpan);
+            when(asyncSpan.hasEnded()).thenReturn(true);
+        }
+        ReadableSpan span = mock(ReadableSpan.class);
+        hierarchy.onStart(span);
+        Assertions.assertEquals(1, hierarchy.getDepth());
+        Assertions.assertNotNull(hierarchy.onEnd(span, 1, 1));
+    }
+
+    @Test
+    public void testSelfDemandArrayIsReusedOnTheThread() {
+        SpanDemandHierarchy hierarchy = new SpanDemandHierarchy();
+        ReadableSpan span = mock(ReadableSpan.class);
+        ReadableSpan otherSpan = mock(ReadableSpan.class);
+        hierarchy.onStart(span);
+        long[] selfDemand = hierarchy.onEnd(span, 1, 1);
+        hierarchy.onStart(otherSpan);
+        Assertions.assertSame(selfDemand, hierarchy.onEnd(otherSpan, 2, 2));
+        Assertions.assertArrayEquals(new long[]{2, 2}, selfDemand);
+    }
+}
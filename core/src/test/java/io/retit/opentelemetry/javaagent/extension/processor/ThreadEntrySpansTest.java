@@ -0,0 +1,91 @@
+package io.retit.opentelemetry.javaagent.extension.processor;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ThreadEntrySpansTest {
+
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+    private static final String OTHER_TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+
+    @Test
+    public void testOutermostSpanIsEntrySpan() {
+        ThreadEntrySpans entrySpans = new ThreadEntrySpans();
+        ReadableSpan root = span(TRACE_ID, "00f067aa0ba902b7");
+        ReadableSpan child = span(TRACE_ID, "00f067aa0ba902b8");
+
+        entrySpans.onStart(root);
+        entrySpans.onStart(child);
+        Assertions.assertFalse(entrySpans.onEnd(child));
+        Assertions.assertTrue(entrySpans.onEnd(root));
+        Assertions.assertEquals(0, entrySpans.size());
+    }
+
+    @Test
+    public void testEntrySpansAreTrackedPerTrace() {
+        ThreadEntrySpans entrySpans = new ThreadEntrySpans();
+        ReadableSpan span = span(TRACE_ID, "00f067aa0ba902b7");
+        ReadableSpan otherTraceSpan = span(OTHER_TRACE_ID, "00f067aa0ba902b9");
+        ReadableSpan otherTraceChild = span(OTHER_TRACE_ID, "00f067aa0ba902ba");
+
+        entrySpans.onStart(span);
+        // a span of another trace started within the span is the entry span of its own trace
+        entrySpans.onStart(otherTraceSpan);
+        entrySpans.onStart(otherTraceChild);
+        Assertions.assertEquals(2, entrySpans.size());
+        Assertions.assertFalse(entrySpans.onEnd(otherTraceChild));
+        Assertions.assertTrue(entrySpans.onEnd(otherTraceSpan));
+        Assertions.assertTrue(entrySpans.onEnd(span));
+    }
+
+    @Test
+    public void testSpansEndedOnOtherThreadsAreReplaced() {
+        ThreadEntrySpans entrySpans = new ThreadEntrySpans();
+        ReadableSpan asyncSpan = span(TRACE_ID, "00f067aa0ba902b7");
+        ReadableSpan otherTraceAsyncSpan = span(OTHER_TRACE_ID, "00f067aa0ba902b9");
+        ReadableSpan span = span(TRACE_ID, "00f067aa0ba902b8");
+
+        entrySpans.onStart(asyncSpan);
+        entrySpans.onStart(otherTraceAsyncSpan);
+        when(asyncSpan.hasEnded()).thenReturn(true);
+        when(otherTraceAsyncSpan.hasEnded()).thenReturn(true);
+
+        entrySpans.onStart(span);
+        Assertions.assertEquals(1, entrySpans.size());
+        Assertions.assertTrue(entrySpans.onEnd(span));
+    }
+
+    @Test
+    public void testEntrySpansAreBounded() {
+        ThreadEntrySpans entrySpans = new ThreadEntrySpans();
+        ReadableSpan[] neverEndedSpans = new ReadableSpan[ThreadEntrySpans.MAX_TRACES];
+        for (int i = 0; i < neverEndedSpans.length; i++) {
+            neverEndedSpans[i] = span(String.format(Locale.ENGLISH, "%032x", i + 1), "00f067aa0ba902b7");
+            entrySpans.onStart(neverEndedSpans[i]);
+        }
+        Assertions.assertEquals(ThreadEntrySpans.MAX_TRACES, entrySpans.size());
+
+        ReadableSpan span = span(TRACE_ID, "00f067aa0ba902b8");
+        entrySpans.onStart(span);
+        Assertions.assertEquals(ThreadEntrySpans.MAX_TRACES, entrySpans.size());
+        // the oldest entry span has been dropped
+        Assertions.assertFalse(entrySpans.onEnd(neverEndedSpans[0]));
+        Assertions.assertTrue(entrySpans.onEnd(neverEndedSpans[1]));
+        Assertions.assertTrue(entrySpans.onEnd(span));
+    }
+
+    private static ReadableSpan span(final String traceId, final String spanId) {
+        ReadableSpan span = mock(ReadableSpan.class);
+        when(span.getSpanContext()).thenReturn(SpanContext.create(traceId, spanId, TraceFlags.getSampled(), TraceState.getDefault()));
+        return span;
+    }
+}
@@ -0,0 +1,82 @@
+package io.retit.opentelemetry.javaagent.extension.resources.common;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ResourceDemandSnapshotTest {
+
+    @Test
+    public void testDefaultSnapshotUsesSingleValueMethods() {
+        RecordingCollector collector = new RecordingCollector();
+        long[] snapshot = new long[ResourceDemandSnapshot.SIZE];
+
+        int measured = collector.getCurrentThreadDemandSnapshot(ResourceDemandSnapshot.demands(true, true, true, true), snapshot);
+        Assertions.assertEquals(Arrays.asList("heap", "disk", "network", "cpu"), collector.calls);
+        Assertions.assertArrayEquals(new long[]{10, 20, 30, 31, 40, 41, NativeFacade.getThreadId()}, snapshot);
+        Assertions.assertEquals((1 << ResourceDemandSnapshot.SIZE) - 1, measured);
+
+        // at the end of a span, the CPU time is measured first and the allocated bytes last
+        collector.calls.clear();
+        collector.getCurrentThreadDemandSnapshot(ResourceDemandSnapshot.demands(true, true, true, true) | ResourceDemandSnapshot.END, snapshot);
+        Assertions.assertEquals(Arrays.asList("cpu", "disk", "network", "heap"), collector.calls);
+
+        collector.calls.clear();
+        measured = collector.getCurrentThreadDemandSnapshot(ResourceDemandSnapshot.demands(false, false, true, false), snapshot);
+        Assertions.assertEquals(Arrays.asList("disk"), collector.calls);
+        Assertions.assertTrue(ResourceDemandSnapshot.contains(measured, ResourceDemandSnapshot.DISK_READ_DEMAND));
+        Assertions.assertTrue(ResourceDemandSnapshot.contains(measured, ResourceDemandSnapshot.DISK_WRITE_DEMAND));
+        Assertions.assertTrue(ResourceDemandSnapshot.contains(measured, ResourceDemandSnapshot.THREAD));
+        Assertions.assertFalse(ResourceDemandSnapshot.contains(measured, ResourceDemandSnapshot.CPU_TIME));
+
+        Assertions.assertEquals(0, collector.getCurrentThreadDemandSnapshot(0, snapshot));
+    }
+
+    @Test
+    public void testValuesWhichCouldNotBeReadAreNotMeasured() {
+        RecordingCollector collector = new RecordingCollector();
+        collector.diskReadable = false;
+        long[] snapshot = new long[ResourceDemandSnapshot.SIZE];
+
+        int measured = collector.getCurrentThreadDemandSnapshot(ResourceDemandSnapshot.demands(false, false, true, true), snapshot);
+        Assertions.assertFalse(ResourceDemandSnapshot.contains(measured, ResourceDemandSnapshot.DISK_READ_DEMAND));
+        Assertions.assertTrue(ResourceDemandSnapshot.contains(measured, ResourceDemandSnapshot.NETWORK_READ_DEMAND));
+        Assertions.assertTrue(ResourceDemandSnapshot.contains(measured, ResourceDemandSnapshot.THREAD));
+
+        measured = collector.getCurrentThreadDemandSnapshot(ResourceDemandSnapshot.demands(false, false, true, false), snapshot);
+        Assertions.assertEquals(0, measured);
+    }
+
+    private static final class RecordingCollector implements IResourceDemandDataCollector {
+
+        private final List<String> calls = new ArrayList<>();
+        private boolean diskReadable = true;
+
+        @Override
+        public long getCurrentThreadAllocatedBytes() {
+            calls.add("heap");
+            return 20;
+        }
+
+        @Override
+        public long getCurrentThreadCpuTime() {
+            calls.add("cpu");
+            return 10;
+        }
+
+        @Override
+        public long[] getDiskBytesReadAndWritten() {
+            calls.add("disk");
+            return diskReadable ? new long[]{30, 31} : new long[]{};
+        }
+
+        @Override
+        public long[] getNetworkBytesReadAndWritten() {
+            calls.add("network");
+            return new long[]{40, 41};
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.Map;
+
+public class GcPoolStatisticsTest {
+
+    private static final String EDEN = "G1 Eden Space";
+    private static final String SURVIVOR = "G1 Survivor Space";
+    private static final String OLD = "G1 Old Gen";
+
+    @Test
+    public void testYoungCollectionPromotesIntoOldGen() {
+        GcPoolStatistics statistics = new GcPoolStatistics(new String[]{EDEN, SURVIVOR, OLD});
+        statistics.record(usage(10_000, 1_000, 5_000), usage(0, 2_000, 7_000));
+
+        Assertions.assertEquals(3, statistics.getPoolCount());
+        Assertions.assertEquals(OLD, statistics.getPoolName(2));
+        Assertions.assertEquals(10_000, statistics.getReclaimedBytes(0));
+        Assertions.assertEquals(0, statistics.getPromotedBytes(0));
+        Assertions.assertEquals(1_000, statistics.getPromotedBytes(1));
+        Assertions.assertEquals(2_000, statistics.getPromotedBytes(2));
+        Assertions.assertEquals(0, statistics.getReclaimedBytes(2));
+        Assertions.assertEquals(2 * 7_000, statistics.getCommittedBytes(2));
+
+        Assertions.assertEquals(16_000, statistics.getTotalUsedBeforeGc());
+        Assertions.assertEquals(9_000, statistics.getTotalUsedAfterGc());
+        Assertions.assertEquals(2 * 9_000, statistics.getTotalCommittedAfterGc());
+
+        // a full collection reclaims the old generation, the totals only contain the last collection
+        statistics.record(usage(4_000, 2_000, 7_000), usage(0, 0, 3_000));
+        Assertions.assertEquals(14_000, statistics.getReclaimedBytes(0));
+        Assertions.assertEquals(2_000, statistics.getPromotedBytes(2));
+        Assertions.assertEquals(4_000, statistics.getReclaimedBytes(2));
+        Assertions.assertEquals(13_000, statistics.getTotalUsedBeforeGc());
+        Assertions.assertEquals(3_000, statistics.getTotalUsedAfterGc());
+    }
+
+    @Test
+    public void testMissingAndUnknownPools() {
+        GcPoolStatistics statistics = new GcPoolStatistics(new String[]{EDEN, OLD});
+        Map<String, MemoryUsage> before = usage(10_000, 1_000, 5_000);
+        before.remove(OLD);
+        statistics.record(before, usage(0, 2_000, 7_000));
+
+        // the survivor space is not known, the old generation is counted with zero bytes before the collection
+        Assertions.assertEquals(10_000, statistics.getTotalUsedBeforeGc());
+        Assertions.assertEquals(7_000, statistics.getTotalUsedAfterGc());
+        Assertions.assertEquals(7_000, statistics.getPromotedBytes(1));
+    }
+
+    private static Map<String, MemoryUsage> usage(final long eden, final long survivor, final long old) {
+        Map<String, MemoryUsage> usage = new HashMap<>();
+        usage.put(EDEN, new MemoryUsage(0, eden, 2 * eden, -1));
+        usage.put(SURVIVOR, new MemoryUsage(0, survivor, 2 * survivor, -1));
+        usage.put(OLD, new MemoryUsage(0, old, 2 * old, -1));
+        return usage;
+    }
+}
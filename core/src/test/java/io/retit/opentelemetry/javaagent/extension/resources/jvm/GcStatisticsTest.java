@@ -0,0 +1,63 @@
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class GcStatisticsTest {
+
+    private static final String YOUNG = "G1 Young Generation";
+    private static final String MINOR_GC = "end of minor GC";
+    private static final String EVACUATION_PAUSE = "G1 Evacuation Pause";
+    private static final String HUMONGOUS_ALLOCATION = "G1 Humongous Allocation";
+
+    @Test
+    public void testCollectionsAreAggregatedPerCollectorActionAndCause() {
+        GcStatistics statistics = new GcStatistics();
+        GcStatistics.Entry entry = statistics.record(YOUNG, MINOR_GC, EVACUATION_PAUSE, 5, 1000, 4096);
+        Assertions.assertSame(entry, statistics.record(YOUNG, MINOR_GC, EVACUATION_PAUSE, 7, 3000, 8192));
+        GcStatistics.Entry humongous = statistics.record(YOUNG, MINOR_GC, HUMONGOUS_ALLOCATION, 2, 500, 8192);
+        Assertions.assertNotSame(entry, humongous);
+
+        Assertions.assertEquals(2, statistics.getEntries().size());
+        Assertions.assertEquals(YOUNG, entry.getGcName());
+        Assertions.assertEquals(MINOR_GC, entry.getGcAction());
+        Assertions.assertEquals(EVACUATION_PAUSE, entry.getGcCause());
+        Assertions.assertEquals(2, entry.getCollections());
+        Assertions.assertEquals(12, entry.getDurationMillis());
+        Assertions.assertEquals(4000, entry.getReclaimedBytes());
+        Assertions.assertEquals(8192, entry.getCommittedBytes());
+        Assertions.assertEquals(1, humongous.getCollections());
+    }
+
+    @Test
+    public void testReclaimedBytesAreMonotonic() {
+        GcStatistics statistics = new GcStatistics();
+        // a concurrent cycle may end with more used bytes than before due to allocations during the cycle
+        GcStatistics.Entry entry = statistics.record("ZGC Cycles", "end of GC cycle", "Allocation Rate", 20, -2048, 4096);
+        statistics.record("ZGC Cycles", "end of GC cycle", "Allocation Rate", 20, 1024, 4096);
+        Assertions.assertEquals(1024, entry.getReclaimedBytes());
+        Assertions.assertEquals(2, entry.getCollections());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        GcStatistics statistics = new GcStatistics();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    statistics.record(YOUNG, MINOR_GC, j % 2 == 0 ? EVACUATION_PAUSE : HUMONGOUS_ALLOCATION, 1, 10, 4096);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(2, statistics.getEntries().size());
+        for (GcStatistics.Entry entry : statistics.getEntries()) {
+            Assertions.assertEquals(20_000, entry.getCollections());
+            Assertions.assertEquals(200_000, entry.getReclaimedBytes());
+        }
+    }
+}
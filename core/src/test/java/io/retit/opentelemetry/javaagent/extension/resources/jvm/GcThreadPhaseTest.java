@@ -0,0 +1,72 @@
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class GcThreadPhaseTest {
+
+    @Test
+    public void testG1Threads() {
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("GC Thread#0"));
+        Assertions.assertEquals(GcThreadPhase.CONCURRENT_MARK, GcThreadPhase.of("G1 Main Marker"));
+        Assertions.assertEquals(GcThreadPhase.CONCURRENT_MARK, GcThreadPhase.of("G1 Conc#0"));
+        Assertions.assertEquals(GcThreadPhase.REFINEMENT, GcThreadPhase.of("G1 Refine#0"));
+        Assertions.assertEquals(GcThreadPhase.REFINEMENT, GcThreadPhase.of("G1 Young RemSet"));
+        Assertions.assertEquals(GcThreadPhase.CONTROL, GcThreadPhase.of("G1 Service"));
+    }
+
+    @Test
+    public void testParallelThreads() {
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("GC Thread#12"));
+        // JDK 11
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("ParGC Thread#0"));
+    }
+
+    @Test
+    public void testCmsThreads() {
+        Assertions.assertEquals(GcThreadPhase.CONCURRENT_MARK, GcThreadPhase.of("CMS Main Thread"));
+        // JDK 8
+        Assertions.assertEquals(GcThreadPhase.CONCURRENT_MARK, GcThreadPhase.of("Concurrent Mark"));
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("Gang worker#0 ("));
+    }
+
+    @Test
+    public void testJdk8Threads() {
+        // the names are truncated to 15 characters by the operating system
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("GC task thread#"));
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("Gang worker#0 ("));
+        Assertions.assertEquals(GcThreadPhase.CONCURRENT_MARK, GcThreadPhase.of("G1 Main Concurr"));
+        Assertions.assertEquals(GcThreadPhase.REFINEMENT, GcThreadPhase.of("G1 Concurrent R"));
+        Assertions.assertNull(GcThreadPhase.of("Surrogate Locke"));
+    }
+
+    @Test
+    public void testZgcThreads() {
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("ZWorker#0"));
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("RuntimeWorker#0"));
+        // generational ZGC
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("ZWorkerYoung#0"));
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("ZWorkerOld#0"));
+        Assertions.assertEquals(GcThreadPhase.CONTROL, GcThreadPhase.of("ZDriver"));
+        Assertions.assertEquals(GcThreadPhase.CONTROL, GcThreadPhase.of("ZDriverMinor"));
+        Assertions.assertEquals(GcThreadPhase.CONTROL, GcThreadPhase.of("ZDirector"));
+        Assertions.assertEquals(GcThreadPhase.CONTROL, GcThreadPhase.of("ZStat"));
+        Assertions.assertEquals(GcThreadPhase.CONTROL, GcThreadPhase.of("ZUncommitter"));
+        Assertions.assertEquals(GcThreadPhase.CONTROL, GcThreadPhase.of("ZUnmapper"));
+    }
+
+    @Test
+    public void testShenandoahThreads() {
+        // the names are truncated to 15 characters by the operating system
+        Assertions.assertEquals(GcThreadPhase.WORKER, GcThreadPhase.of("Shenandoah GC T"));
+        Assertions.assertEquals(GcThreadPhase.CONTROL, GcThreadPhase.of("Shenandoah Cont"));
+    }
+
+    @Test
+    public void testOtherThreads() {
+        Assertions.assertNull(GcThreadPhase.of("VM Thread"));
+        Assertions.assertNull(GcThreadPhase.of("C2 CompilerThre"));
+        Assertions.assertNull(GcThreadPhase.of("main"));
+        Assertions.assertNull(GcThreadPhase.of(null));
+    }
+}
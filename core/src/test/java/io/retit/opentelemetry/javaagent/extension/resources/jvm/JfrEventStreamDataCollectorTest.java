@@ -0,0 +1,96 @@
+package io.retit.opentelemetry.javaagent.extension.resources.jvm;
+
+import io.retit.opentelemetry.javaagent.extension.resources.common.IResourceDemandDataCollector;
+import io.retit.opentelemetry.javaagent.extension.resources.common.ResourceDemandSnapshot;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+
+public class JfrEventStreamDataCollectorTest {
+
+    private static final int BYTES = 64 * 1024;
+
+    @Test
+    public void testDiskDemandIsTakenFromJfrEvents() throws IOException, InterruptedException {
+        // the fast IO operations of the test are only recorded without the threshold
+        IResourceDemandDataCollector collector = JfrEventStreamDataCollector.create(new HotSpotDataCollector(),
+                ResourceDemandSnapshot.DISK, Duration.ZERO);
+        Assumptions.assumeTrue(collector != null, "JFR event streaming requires JDK 14 or higher");
+
+        long[] start = collector.getDiskBytesReadAndWritten();
+        // the recording is started and the events are delivered asynchronously by the JFR stream thread
+        long written = 0;
+        for (int i = 0; i < 100 && written == 0; i++) {
+            writeFile();
+            Thread.sleep(100);
+            written = collector.getDiskBytesReadAndWritten()[1] - start[1];
+        }
+        Assertions.assertTrue(written >= BYTES, written + " bytes");
+        Assertions.assertTrue(collector.getCurrentThreadCpuTime() > 0);
+    }
+
+    @Test
+    public void testNetworkDemandIsTakenFromJfrSocketEvents() throws IOException, InterruptedException {
+        IResourceDemandDataCollector collector = JfrEventStreamDataCollector.create(new HotSpotDataCollector(),
+                ResourceDemandSnapshot.NETWORK, Duration.ZERO);
+        Assumptions.assumeTrue(collector != null, "JFR event streaming requires JDK 14 or higher");
+
+        long[] start = collector.getNetworkBytesReadAndWritten();
+        long written = 0;
+        for (int i = 0; i < 100 && written == 0; i++) {
+            writeSocket();
+            Thread.sleep(100);
+            written = collector.getNetworkBytesReadAndWritten()[1] - start[1];
+        }
+        Assertions.assertTrue(written >= BYTES, written + " bytes");
+        // the disk demand is read from the delegate
+        Assertions.assertThrows(UnsupportedOperationException.class, collector::getDiskBytesReadAndWritten);
+    }
+
+    @Test
+    public void testNetworkDemandIsReadFromTheDelegateIfNotCollected() {
+        IResourceDemandDataCollector collector = JfrEventStreamDataCollector.create(new HotSpotDataCollector(),
+                ResourceDemandSnapshot.DISK, Duration.ZERO);
+        Assumptions.assumeTrue(collector != null, "JFR event streaming requires JDK 14 or higher");
+        Assertions.assertThrows(UnsupportedOperationException.class, collector::getNetworkBytesReadAndWritten);
+    }
+
+    private static void writeSocket() throws IOException, InterruptedException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread reader = new Thread(() -> {
+                try (Socket socket = serverSocket.accept(); InputStream inputStream = socket.getInputStream()) {
+                    while (inputStream.read(new byte[BYTES]) != -1) {
+                        // drain the socket
+                    }
+                } catch (IOException e) {
+                    Assertions.fail(e);
+                }
+            });
+            reader.start();
+            try (Socket socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+                 OutputStream outputStream = socket.getOutputStream()) {
+                outputStream.write(new byte[BYTES]);
+            }
+            reader.join();
+        }
+    }
+
+    private static void writeFile() throws IOException {
+        File file = File.createTempFile("jfr-collector", ".bin");
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(new byte[BYTES]);
+        } finally {
+            Assertions.assertTrue(file.delete());
+        }
+    }
+}
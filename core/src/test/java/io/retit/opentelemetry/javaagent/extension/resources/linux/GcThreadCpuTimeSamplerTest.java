@@ -0,0 +1,53 @@
+package io.retit.opentelemetry.javaagent.extension.resources.linux;
+
+import com.sun.jna.Platform;
+import io.retit.opentelemetry.javaagent.extension.resources.jvm.GcThreadPhase;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+public class GcThreadCpuTimeSamplerTest {
+
+    @Test
+    public void testCpuTimeOfGcThreadsLinux() {
+        if (Platform.isLinux()) {
+            GcThreadCpuTimeSampler sampler = GcThreadCpuTimeSampler.create();
+            Assertions.assertNotNull(sampler);
+            long startCpuTime = sampler.getTotalCpuTime();
+
+            long collections = getCollectionCount();
+            for (int i = 0; i < 5; i++) {
+                System.gc();
+            }
+            sampler.sample();
+
+            // the Serial collector runs in the VM thread, which is not a GC thread
+            if (getCollectionCount() > collections && !isSerialCollector()) {
+                Assertions.assertTrue(sampler.getCpuTime(GcThreadPhase.WORKER) > 0);
+                Assertions.assertTrue(sampler.getTotalCpuTime() > startCpuTime);
+            }
+            long cpuTime = sampler.getTotalCpuTime();
+            sampler.sample();
+            Assertions.assertTrue(sampler.getTotalCpuTime() >= cpuTime);
+        }
+    }
+
+    private static long getCollectionCount() {
+        long collections = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += collector.getCollectionCount();
+        }
+        return collections;
+    }
+
+    private static boolean isSerialCollector() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if ("Copy".equals(collector.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
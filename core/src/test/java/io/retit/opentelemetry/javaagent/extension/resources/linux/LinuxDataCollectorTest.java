@@ -1,10 +1,21 @@
 package io.retit.opentelemetry.javaagent.extension.resources.linux;
 
 import com.sun.jna.Platform;
+import io.retit.opentelemetry.javaagent.extension.resources.common.CommonResourceDemandDataCollector;
+import io.retit.opentelemetry.javaagent.extension.resources.common.IResourceDemandDataCollector;
 import io.retit.opentelemetry.javaagent.extension.resources.common.NativeFacade;
+import io.retit.opentelemetry.javaagent.extension.resources.common.ResourceDemandSnapshot;
+import io.retit.opentelemetry.javaagent.extension.resources.common.ThreadCpuClock;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class LinuxDataCollectorTest {
 
     @Test
@@ -30,4 +41,183 @@ public class LinuxDataCollectorTest {
             Assertions.assertTrue(difference < 2_000_000);
         }
     }
+
+    @Test
+    public void testDiskBytesReadAndWrittenLinux() {
+        if (Platform.isLinux()) {
+            LinuxDataCollector linuxDataCollector = new LinuxDataCollector();
+            // call it once as classes loaded by the first invocation are accounted to the bytes read
+            linuxDataCollector.getDiskBytesReadAndWritten();
+            long[] first = linuxDataCollector.getDiskBytesReadAndWritten();
+            long[] second = linuxDataCollector.getDiskBytesReadAndWritten();
+            Assertions.assertEquals(2, first.length);
+            Assertions.assertTrue(first[0] >= 0);
+            Assertions.assertTrue(first[1] >= 0);
+            // the bytes read from the proc fs by the measurement itself are not accounted
+            Assertions.assertEquals(first[0], second[0]);
+            Assertions.assertTrue(second[1] >= first[1]);
+        }
+    }
+
+    @Test
+    public void testParseProcFsValues() {
+        ByteBuffer content = ByteBuffer.wrap(("rchar: 476726516\nwchar: 450053132\nsyscr: 1145703\nsyscw: 461006\n"
+                + "read_bytes: 933888\nwrite_bytes: 26984448\ncancelled_write_bytes: 0\n").getBytes(StandardCharsets.US_ASCII));
+        Assertions.assertEquals(476726516L, ProcFsFileReader.parseValue(content, "rchar: ".getBytes(StandardCharsets.US_ASCII)));
+        Assertions.assertEquals(26984448L, ProcFsFileReader.parseValue(content, "write_bytes: ".getBytes(StandardCharsets.US_ASCII)));
+        Assertions.assertEquals(0L, ProcFsFileReader.parseValue(content, "cancelled_write_bytes: ".getBytes(StandardCharsets.US_ASCII)));
+        Assertions.assertEquals(-1L, ProcFsFileReader.parseValue(content, "unknown: ".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testParseProcNetDev() {
+        ByteBuffer content = ByteBuffer.wrap(("Inter-|   Receive                                                |  Transmit\n"
+                + " face |bytes    packets errs drop fifo frame compressed multicast|bytes    packets errs drop fifo colls carrier compressed\n"
+                + "    lo: 36066479   19065    0    0    0     0          0         0 36066479   19065    0    0    0     0       0          0\n"
+                + " ens18:3207350391 1881516    0 504589    0     0          0         0 337104919  705323    0    0    0     0       0          0\n"
+                + "vethab12: 15146519  121372    0    0    0     0          0         0 166707055  119803    0    0    0     0       0          0\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        long[] result = new long[2];
+
+        new ProcNetDevParser("", "").sumReceivedAndTransmittedBytes(content, result);
+        Assertions.assertEquals(36066479L + 3207350391L + 15146519L, result[0]);
+        Assertions.assertEquals(36066479L + 337104919L + 166707055L, result[1]);
+
+        new ProcNetDevParser("", "lo, veth").sumReceivedAndTransmittedBytes(content, result);
+        Assertions.assertEquals(3207350391L, result[0]);
+        Assertions.assertEquals(337104919L, result[1]);
+
+        new ProcNetDevParser("veth,ens", "ens").sumReceivedAndTransmittedBytes(content, result);
+        Assertions.assertEquals(15146519L, result[0]);
+        Assertions.assertEquals(166707055L, result[1]);
+    }
+
+    @Test
+    public void testNetworkBytesReadAndWrittenLinux() {
+        if (Platform.isLinux()) {
+            LinuxDataCollector linuxDataCollector = new LinuxDataCollector();
+            linuxDataCollector.getNetworkBytesReadAndWritten();
+            long[] disk = linuxDataCollector.getDiskBytesReadAndWritten();
+            long[] network = linuxDataCollector.getNetworkBytesReadAndWritten();
+            long[] diskAfterNetwork = linuxDataCollector.getDiskBytesReadAndWritten();
+            Assertions.assertEquals(2, network.length);
+            Assertions.assertTrue(network[0] >= 0);
+            Assertions.assertTrue(network[1] >= 0);
+            // reading net/dev is not accounted to the disk demand
+            Assertions.assertEquals(disk[0], diskAfterNetwork[0]);
+        }
+    }
+
+    @Test
+    public void testThreadCpuClocksLinux() {
+        if (Platform.isLinux()) {
+            Assertions.assertNotNull(ThreadCpuClock.getInstance());
+            // the FFM clock requires native access and is only used if it is configured
+            Assertions.assertNotEquals(ThreadCpuClock.Type.FFM, ThreadCpuClock.getInstance().getType());
+            // the structure based clock is the last element of the fallback chain and always available
+            Assertions.assertNotNull(ThreadCpuClock.create(ThreadCpuClock.Type.JNA_STRUCTURE));
+            for (ThreadCpuClock.Type type : ThreadCpuClock.Type.values()) {
+                ThreadCpuClock threadCpuClock = ThreadCpuClock.create(type);
+                if (threadCpuClock != null) {
+                    Assertions.assertEquals(type, threadCpuClock.getType());
+                    long currentThreadCpuTimeClock = threadCpuClock.getCurrentThreadCpuTime();
+                    long currentThreadCpuTimeThreadMXBean = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+                    long difference = currentThreadCpuTimeThreadMXBean - currentThreadCpuTimeClock;
+                    // assert that the measurements are less than 2ms different (as they consume cpu time themselves)
+                    Assertions.assertTrue(difference >= 0 && difference < 2_000_000);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNativeThreadIdCachedPerThreadLinux() throws Exception {
+        if (Platform.isLinux() && Platform.isIntel()) {
+            long nativeThreadId = NativeFacade.getThreadId();
+            Assertions.assertEquals(nativeThreadId, NativeFacade.getThreadId());
+            // /proc/thread-self links to /proc/<pid>/task/<tid>
+            String threadSelf = Files.readSymbolicLink(Paths.get("/proc/thread-self")).toString();
+            Assertions.assertEquals(Long.parseLong(threadSelf.substring(threadSelf.lastIndexOf('/') + 1)), nativeThreadId);
+
+            AtomicLong otherNativeThreadId = new AtomicLong();
+            Thread otherThread = new Thread(() -> otherNativeThreadId.set(NativeFacade.getThreadId()));
+            otherThread.start();
+            otherThread.join();
+            Assertions.assertNotEquals(0, otherNativeThreadId.get());
+            Assertions.assertNotEquals(nativeThreadId, otherNativeThreadId.get());
+        }
+    }
+
+    @Test
+    public void testDemandSnapshotLinux() {
+        if (Platform.isLinux()) {
+            // the heap demand requires the JVM collector
+            IResourceDemandDataCollector linuxDataCollector = CommonResourceDemandDataCollector.getResourceDemandDataCollector();
+            Assertions.assertTrue(linuxDataCollector instanceof LinuxDataCollector);
+            int demands = ResourceDemandSnapshot.demands(true, true, true, true);
+            long[] snapshot = new long[ResourceDemandSnapshot.SIZE];
+            // call it once as classes loaded by the first invocation are accounted to the bytes read
+            linuxDataCollector.getCurrentThreadDemandSnapshot(demands, snapshot);
+
+            long cpuTimeBefore = linuxDataCollector.getCurrentThreadCpuTime();
+            long[] disk = linuxDataCollector.getDiskBytesReadAndWritten();
+            int measured = linuxDataCollector.getCurrentThreadDemandSnapshot(demands | ResourceDemandSnapshot.END, snapshot);
+            long[] network = linuxDataCollector.getNetworkBytesReadAndWritten();
+            long cpuTimeAfter = linuxDataCollector.getCurrentThreadCpuTime();
+
+            for (int slot = 0; slot < ResourceDemandSnapshot.SIZE; slot++) {
+                Assertions.assertTrue(ResourceDemandSnapshot.contains(measured, slot), "slot " + slot);
+            }
+            Assertions.assertTrue(snapshot[ResourceDemandSnapshot.CPU_TIME] >= cpuTimeBefore);
+            Assertions.assertTrue(snapshot[ResourceDemandSnapshot.CPU_TIME] <= cpuTimeAfter);
+            Assertions.assertTrue(snapshot[ResourceDemandSnapshot.HEAP_BYTE_ALLOCATION] > 0);
+            // the snapshot reads the same proc fs files, whose reads are not accounted to the disk demand
+            Assertions.assertEquals(disk[0], snapshot[ResourceDemandSnapshot.DISK_READ_DEMAND]);
+            Assertions.assertTrue(snapshot[ResourceDemandSnapshot.DISK_WRITE_DEMAND] >= disk[1]);
+            Assertions.assertTrue(snapshot[ResourceDemandSnapshot.NETWORK_READ_DEMAND] >= 0);
+            Assertions.assertTrue(snapshot[ResourceDemandSnapshot.NETWORK_READ_DEMAND] <= network[0]);
+            Assertions.assertTrue(snapshot[ResourceDemandSnapshot.NETWORK_WRITE_DEMAND] <= network[1]);
+            Assertions.assertEquals(NativeFacade.getThreadId(), snapshot[ResourceDemandSnapshot.THREAD]);
+
+            Assertions.assertEquals(0, linuxDataCollector.getCurrentThreadDemandSnapshot(0, snapshot));
+        }
+    }
+
+    @Test
+    public void testProcFsReadersOfTerminatedThreadsAreClosedLinux() throws InterruptedException {
+        if (Platform.isLinux()) {
+            LinuxDataCollector linuxDataCollector = new LinuxDataCollector();
+            for (int i = 0; i < 50; i++) {
+                Thread thread = new Thread(linuxDataCollector::getDiskBytesReadAndWritten);
+                thread.start();
+                thread.join();
+            }
+            // the readers of the terminated threads are closed when the next thread opens its readers
+            Thread thread = new Thread(linuxDataCollector::getDiskBytesReadAndWritten);
+            thread.start();
+            thread.join();
+            Assertions.assertTrue(LinuxDataCollector.getOpenProcFsReaderCount() < 10, LinuxDataCollector.getOpenProcFsReaderCount() + " readers");
+        }
+    }
+
+    @Test
+    public void testProcFsReadersOfVirtualThreadsAreCachedPerCarrierLinux() {
+        if (Platform.isLinux()) {
+            // a platform thread stands in for the carrier thread, the readers are looked up by its native thread id
+            LinuxDataCollector.ThreadProcFsReaders readers = LinuxDataCollector.acquireProcFsReaders(false);
+            try {
+                Assertions.assertTrue(readers.isKeepChannelsOpen());
+                // a virtual thread unmounted while reading does not share the readers with the next virtual thread
+                LinuxDataCollector.ThreadProcFsReaders fallbackReaders = LinuxDataCollector.acquireProcFsReaders(false);
+                Assertions.assertNotSame(readers, fallbackReaders);
+                Assertions.assertFalse(fallbackReaders.isKeepChannelsOpen());
+                fallbackReaders.release();
+            } finally {
+                readers.release();
+            }
+            LinuxDataCollector.ThreadProcFsReaders sameReaders = LinuxDataCollector.acquireProcFsReaders(false);
+            sameReaders.release();
+            Assertions.assertSame(readers, sameReaders);
+        }
+    }
 }
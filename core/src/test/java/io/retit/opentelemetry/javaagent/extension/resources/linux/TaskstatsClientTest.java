@@ -0,0 +1,42 @@
+package io.retit.opentelemetry.javaagent.extension.resources.linux;
+
+import io.retit.opentelemetry.javaagent.extension.resources.common.NativeFacade;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class TaskstatsClientTest {
+
+    @Test
+    public void testCountersMatchProcFs() throws IOException {
+        TaskstatsClient client = TaskstatsClient.create();
+        Assumptions.assumeTrue(client != null, "taskstats is not available for this process");
+
+        long[] counters = new long[3];
+        Assertions.assertTrue(client.getThreadCounters((int) NativeFacade.getThreadId(), counters));
+        String procFsIo = new String(Files.readAllBytes(Paths.get("/proc/thread-self/io")), StandardCharsets.US_ASCII);
+
+        Assertions.assertTrue(counters[0] > 0);
+        // the kernel reports the IO counters in whole KiB
+        Assertions.assertEquals(0, counters[0] % 1024);
+        Assertions.assertEquals(0, counters[1] % 1024);
+        // reading the proc fs file is accounted to rchar after the taskstats query
+        Assertions.assertTrue(counters[0] <= getProcFsValue(procFsIo, "rchar"));
+        Assertions.assertEquals(getProcFsValue(procFsIo, "write_bytes"), counters[1]);
+        Assertions.assertTrue(counters[2] > 0);
+    }
+
+    private static long getProcFsValue(final String content, final String name) {
+        for (String line : content.split("\n")) {
+            if (line.startsWith(name + ": ")) {
+                return Long.parseLong(line.substring(name.length() + 2).trim());
+            }
+        }
+        return -1;
+    }
+}
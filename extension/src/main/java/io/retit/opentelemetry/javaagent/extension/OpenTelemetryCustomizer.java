@@ -20,6 +20,11 @@ import com.google.auto.service.AutoService;
 import io.opentelemetry.sdk.autoconfigure.spi.AutoConfigurationCustomizer;
 import io.opentelemetry.sdk.autoconfigure.spi.AutoConfigurationCustomizerProvider;
 import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+import io.opentelemetry.sdk.metrics.Aggregation;
+import io.opentelemetry.sdk.metrics.InstrumentSelector;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.SdkMeterProviderBuilder;
+import io.opentelemetry.sdk.metrics.View;
 import io.opentelemetry.sdk.trace.SdkTracerProviderBuilder;
 import io.opentelemetry.sdk.trace.SpanProcessor;
 import io.retit.opentelemetry.javaagent.extension.commons.InstanceConfiguration;
@@ -36,12 +41,16 @@ public class OpenTelemetryCustomizer implements AutoConfigurationCustomizerProvi
 
     private static final Logger LOGGER = Logger.getLogger(OpenTelemetryCustomizer.class.getName());
 
+    private static final int MAX_HISTOGRAM_SCALE = 20;
+
     @Override
     public void customize(final AutoConfigurationCustomizer autoConfiguration) {
         if (InstanceConfiguration.isLogGCEventDefaultTrue()) {
             JavaAgentGCHandler.addJavaAgentGCListener();
         }
 
+        autoConfiguration.addMeterProviderCustomizer(this::configureSdkMeterProvider);
+
         // TracerProviderCustomizer call must be wrapped inside a customizer call which happens after it.
         // Otherwise we would not get the autoconfigured SpanExporter
         autoConfiguration.addSpanExporterCustomizer((delegate, unused) -> {
@@ -50,6 +59,23 @@ public class OpenTelemetryCustomizer implements AutoConfigurationCustomizerProvi
         });
     }
 
+    /**
+     * Registers a view which aggregates all histograms of the extension in base2 exponential histograms, which
+     * cover the wide range of resource demands per transaction with a bounded number of buckets.
+     *
+     * @param meterProvider - preconfigured {@link SdkMeterProviderBuilder} from auto-configuration
+     * @param config        - preconfigured {@link ConfigProperties} from auto-configuration
+     * @return {@link SdkMeterProviderBuilder} with the registered view
+     */
+    private SdkMeterProviderBuilder configureSdkMeterProvider(
+            final SdkMeterProviderBuilder meterProvider, final ConfigProperties config) {
+
+        return meterProvider.registerView(
+                InstrumentSelector.builder().setType(InstrumentType.HISTOGRAM).setName("io.retit.*").build(),
+                View.builder().setAggregation(Aggregation.base2ExponentialBucketHistogram(
+                        InstanceConfiguration.getResourceDemandHistogramMaxBuckets(), MAX_HISTOGRAM_SCALE)).build());
+    }
+
     /**
      * Prepares the list of {@link SpanProcessor} in the {@link SdkTracerProviderBuilder} to include a {@link RETITSpanProcessor}.
      *
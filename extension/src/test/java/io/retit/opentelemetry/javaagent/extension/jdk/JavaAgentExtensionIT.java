@@ -380,6 +380,39 @@ abstract class JavaAgentExtensionIT extends ContainerLogMetricAndSpanExtractingT
         }
     }
 
+    @Test
+    void testOnlyIoDemandWithTaskstatsCollector() {
+        // the IO counters are read into reused buffers, which must link against the Buffer methods of JDK 8,
+        // without taskstats in the network namespace of the container, the collector falls back to the proc fs
+        applicationContainer.withEnv("IO_RETIT_LOG_CPU_DEMAND", "false")
+                .withEnv("IO_RETIT_LOG_DISK_DEMAND", "true")
+                .withEnv("IO_RETIT_LOG_HEAP_DEMAND", "false")
+                .withEnv("IO_RETIT_LOG_NETWORK_DEMAND", "true")
+                .withEnv("IO_RETIT_LOG_GC_EVENT", "false")
+                .withEnv("IO_RETIT_IO_DEMAND_COLLECTOR", "TASKSTATS")
+                .withEnv("IO_RETIT_EMISSIONS_STORAGE_TYPE", "SSD")
+                .withEnv("IO_RETIT_EMISSIONS_CLOUD_PROVIDER_REGION", "af-south-1")
+                .withEnv("IO_RETIT_EMISSIONS_CLOUD_PROVIDER_INSTANCE_TYPE", "a1.medium")
+                .withEnv("IO_RETIT_EMISSIONS_CLOUD_PROVIDER", "AWS");
+        executeContainer();
+
+        Assertions.assertTrue(!spanDemands.entrySet().isEmpty());
+        for (List<SpanDemand> sds : spanDemands.values()) {
+            assertEquals(1, sds.size());
+            SpanDemand sd = sds.get(0);
+            assertNotNull(sd.startDiskReadDemand);
+            assertNotNull(sd.endDiskReadDemand);
+            assertNotNull(sd.startDiskWriteDemand);
+            assertNotNull(sd.endDiskWriteDemand);
+            assertNotEquals(0L, sd.startDiskReadDemand);
+            assertNotEquals(0L, sd.endDiskReadDemand);
+            assertNotNull(sd.startNetworkReadDemand);
+            assertNotNull(sd.endNetworkReadDemand);
+            assertNotNull(sd.startNetworkWriteDemand);
+            assertNotNull(sd.endNetworkWriteDemand);
+        }
+    }
+
     @Test
     void testOnlyNetworkDemand() {
         applicationContainer.withEnv("IO_RETIT_LOG_CPU_DEMAND", "false")